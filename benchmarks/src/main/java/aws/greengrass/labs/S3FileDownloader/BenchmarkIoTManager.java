@@ -0,0 +1,105 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// IoTManager without Greengrass IPC for the benchmarks. The updates are not published,
+// the benchmarks wait on the first progress report and on the end of the jobs instead.
+public class BenchmarkIoTManager extends IoTManager {
+    static final String DOWNLOAD_TOPIC = "benchmark/download";
+    static final String PAUSE_TOPIC = "benchmark/pause";
+    static final String UPDATE_TOPIC = "benchmark/update";
+
+    // nanoTime of the first progress report of each job
+    Map<String, CompletableFuture<Long>> firstProgress = new ConcurrentHashMap<String, CompletableFuture<Long>>();
+    Map<String, CompletableFuture<JobUpdate>> ended = new ConcurrentHashMap<String, CompletableFuture<JobUpdate>>();
+
+    public BenchmarkIoTManager(ComponentConfig config, SharedTransferClient transferClient){
+        super(null, config, transferClient);
+    }
+
+    // The configuration of the component with its defaults, writing to the given folder
+    public static ComponentConfig config(Path destinationFolder){
+        return new ComponentConfig(DOWNLOAD_TOPIC, PAUSE_TOPIC, UPDATE_TOPIC, destinationFolder + "/");
+    }
+
+    // The client the component creates at startup, pointed at the local server
+    public static SharedTransferClient transferClient(LocalS3Server server){
+        S3AsyncClient s3Client = S3AsyncClient.crtBuilder()
+                                    .endpointOverride(server.endpoint())
+                                    .region(Region.US_EAST_1)
+                                    .credentialsProvider(StaticCredentialsProvider.create(
+                                        AwsBasicCredentials.create("benchmark", "benchmark")))
+                                    .checksumValidationEnabled(false)
+                                    .build();
+        S3TransferManager transferManager = S3TransferManager.builder().s3Client(s3Client).build();
+        return new SharedTransferClient(s3Client, transferManager);
+    }
+
+    public CompletableFuture<Long> firstProgress(String jobId){
+        return firstProgress.computeIfAbsent(jobId, id -> new CompletableFuture<Long>());
+    }
+
+    public CompletableFuture<JobUpdate> ended(String jobId){
+        return ended.computeIfAbsent(jobId, id -> new CompletableFuture<JobUpdate>());
+    }
+
+    // Forgets the futures of the finished jobs between iterations
+    public void clear(){
+        firstProgress.clear();
+        ended.clear();
+    }
+
+    @Override
+    public void reportProgress(String jobId, double ratio){
+        firstProgress(jobId).complete(System.nanoTime());
+        super.reportProgress(jobId, ratio);
+    }
+
+    @Override
+    public void publishUpdate(JobUpdate update){
+        super.publishUpdate(update);
+        boolean running = update.status.equals("QUEUED") || update.status.equals("IN_PROGRESS");
+        if (!running || "paused".equals(update.reason)) {
+            ended(update.jobId).complete(update);
+        }
+    }
+
+    @Override
+    public CompletableFuture<?> publishMessageToTopicAsync(String topic, String message){
+        return CompletableFuture.completedFuture(null);
+    }
+
+    // Deletes what the benchmark downloaded
+    static void deleteTree(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
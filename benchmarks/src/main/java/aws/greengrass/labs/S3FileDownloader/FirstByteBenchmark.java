@@ -0,0 +1,79 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Time from the download job message to the first downloaded bytes reported by the
+// transfer listeners. The slow object keeps the download running, it is canceled after
+// each measurement outside of the measured time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class FirstByteBenchmark {
+    @Param({"5", "50"})
+    long latencyMillis;
+
+    @Param({"0", "8388608"})
+    long partSizeBytes;
+
+    LocalS3Server server;
+    SharedTransferClient transferClient;
+    BenchmarkIoTManager iotManager;
+    Path destinationFolder;
+    AtomicLong sequence = new AtomicLong();
+    String jobId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // 1 GiB at 10 MiB/s per connection, it never completes during a measurement
+        server = new LocalS3Server(1L << 30, latencyMillis, 10L << 20);
+        transferClient = BenchmarkIoTManager.transferClient(server);
+        destinationFolder = Files.createTempDirectory("first-byte-benchmark");
+        ComponentConfig config = BenchmarkIoTManager.config(destinationFolder);
+        config.parallelPartSizeBytes = partSizeBytes;
+        iotManager = new BenchmarkIoTManager(config, transferClient);
+    }
+
+    @TearDown(Level.Invocation)
+    public void cancel() throws Exception {
+        iotManager.onStreamEvent(SmallObjectBenchmark.message(BenchmarkIoTManager.PAUSE_TOPIC,
+            "{\"jobId\":\"" + jobId + "\",\"cancel\":true}"));
+        iotManager.ended(jobId).get(60, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        iotManager.shutdown(10000);
+        transferClient.close();
+        server.close();
+        BenchmarkIoTManager.deleteTree(destinationFolder);
+    }
+
+    @Benchmark
+    public long firstByte() throws Exception {
+        jobId = "first-byte-" + sequence.getAndIncrement();
+        long start = System.nanoTime();
+        iotManager.onStreamEvent(SmallObjectBenchmark.message(BenchmarkIoTManager.DOWNLOAD_TOPIC,
+            "{\"jobId\":\"" + jobId + "\",\"s3Bucket\":\"bucket\",\"key\":\"" + jobId + ".bin\"}"));
+        return iotManager.firstProgress(jobId).get(60, TimeUnit.SECONDS) - start;
+    }
+}
@@ -0,0 +1,97 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Download throughput of one large object, run by a Downloader on the benchmark thread the
+// way a scheduler worker runs it. The megabytes counter is reported in MB/s next to the
+// downloads per second. With partSizeBytes set the object is fetched with parallel ranged
+// GETs, 0 leaves it to the Transfer Manager.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 20)
+@Measurement(iterations = 5, time = 20)
+@Fork(1)
+public class LargeObjectBenchmark {
+    @Param({"268435456"})
+    long objectSize;
+
+    @Param({"20"})
+    long latencyMillis;
+
+    // Per connection, 0 means unlimited
+    @Param({"0", "26214400"})
+    long bytesPerSecond;
+
+    @Param({"0", "8388608"})
+    long partSizeBytes;
+
+    LocalS3Server server;
+    SharedTransferClient transferClient;
+    BenchmarkIoTManager iotManager;
+    Path destinationFolder;
+    AtomicLong sequence = new AtomicLong();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Megabytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new LocalS3Server(objectSize, latencyMillis, bytesPerSecond);
+        transferClient = BenchmarkIoTManager.transferClient(server);
+        destinationFolder = Files.createTempDirectory("large-object-benchmark");
+        iotManager = new BenchmarkIoTManager(BenchmarkIoTManager.config(destinationFolder), transferClient);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        iotManager.shutdown(10000);
+        transferClient.close();
+        server.close();
+        BenchmarkIoTManager.deleteTree(destinationFolder);
+    }
+
+    @Benchmark
+    public void download(Megabytes counter) throws Exception {
+        String jobId = "large-" + sequence.getAndIncrement();
+        Path file = destinationFolder.resolve(jobId + ".bin");
+        Downloader downloader = new Downloader(BenchmarkIoTManager.UPDATE_TOPIC, "bucket", "large.bin", jobId,
+                                    file.toString(), iotManager, transferClient.getTransferManager());
+        downloader.s3Client = transferClient.getS3Client();
+        downloader.partSizeBytes = partSizeBytes;
+        downloader.partConcurrency = 4;
+        downloader.run();
+        JobUpdate update = iotManager.ended(jobId).getNow(null);
+        if (update == null || !update.status.equals("SUCCEEDED")) {
+            throw new IllegalStateException("Download " + jobId + " did not succeed");
+        }
+        Files.delete(file);
+        counter.megabytes += objectSize / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,171 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// In-process stand-in for the part of the S3 API the component uses, for the benchmarks.
+// Every key exists with the configured size and synthetic content, it answers HEAD and GET
+// with byte ranges, If-Match and If-None-Match. The response headers are delayed by the
+// latency and each response body is paced to the bandwidth, like one S3 connection.
+// The client must use an IP endpoint so the requests are path-style, see endpoint().
+public class LocalS3Server implements AutoCloseable {
+    // The content repeats this block, so any range of any object can be served from it
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final byte[] BLOCK = new byte[BLOCK_SIZE];
+    static final Instant LAST_MODIFIED = Instant.parse("2023-01-01T00:00:00Z");
+
+    static {
+        new Random(42).nextBytes(BLOCK);
+    }
+
+    HttpServer server;
+    ExecutorService executor;
+    volatile long objectSize;
+    volatile long latencyMillis;
+    // Per response, 0 means unlimited
+    volatile long bytesPerSecond;
+
+    public LocalS3Server(long objectSize, long latencyMillis, long bytesPerSecond) throws IOException {
+        this.objectSize = objectSize;
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-s3");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public URI endpoint(){
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @Override
+    public void close(){
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static String eTag(String key, long size){
+        return "\"" + Integer.toHexString((key + "/" + size).hashCode()) + "\"";
+    }
+
+    void handle(HttpExchange exchange) throws IOException {
+        try {
+            // Path-style request: /bucket/key
+            String path = exchange.getRequestURI().getPath();
+            int separator = path.indexOf('/', 1);
+            if (separator < 0 || separator == path.length() - 1) {
+                error(exchange, 501, "NotImplemented");
+                return;
+            }
+            serveObject(exchange, path.substring(separator + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client cancelled the request, e.g. a paused download
+        } finally {
+            exchange.close();
+        }
+    }
+
+    void serveObject(HttpExchange exchange, String key) throws IOException, InterruptedException {
+        long size = objectSize;
+        String eTag = eTag(key, size);
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        response.set("ETag", eTag);
+        response.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(LAST_MODIFIED.atZone(ZoneOffset.UTC)));
+        response.set("Accept-Ranges", "bytes");
+        String ifMatch = request.getFirst("If-Match");
+        if (ifMatch != null && !ifMatch.equals(eTag)) {
+            error(exchange, 412, "PreconditionFailed");
+            return;
+        }
+        if (eTag.equals(request.getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        long start = 0;
+        long end = size - 1;
+        int status = 200;
+        String range = request.getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Long.parseLong(bounds[0]);
+            if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            if (start > end) {
+                response.set("Content-Range", "bytes */" + size);
+                error(exchange, 416, "InvalidRange");
+                return;
+            }
+            status = 206;
+            response.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        long length = end - start + 1;
+        response.set("Content-Type", "application/octet-stream");
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            response.set("Content-Length", Long.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length);
+        writeBody(exchange.getResponseBody(), start, end);
+    }
+
+    // Writes the content between the offsets, paced to the bandwidth
+    void writeBody(OutputStream out, long start, long end) throws IOException, InterruptedException {
+        long begin = System.nanoTime();
+        long rate = bytesPerSecond;
+        long position = start;
+        while (position <= end) {
+            int offset = (int) (position % BLOCK_SIZE);
+            int length = (int) Math.min(BLOCK_SIZE - offset, end - position + 1);
+            out.write(BLOCK, offset, length);
+            position += length;
+            if (rate > 0) {
+                long wait = begin + (long) ((position - start) * 1e9 / rate) - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    void error(HttpExchange exchange, int status, String code) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code + "</Code></Error>")
+                        .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,60 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+
+// Reports the peak resident set size of the benchmark JVM, read from /proc on Linux.
+// Use it with -prof aws.greengrass.labs.S3FileDownloader.PeakRssProfiler, next to -prof gc
+// for the allocation rate.
+public class PeakRssProfiler implements InternalProfiler {
+    static final Path STATUS = Paths.get("/proc/self/status");
+
+    @Override
+    public String getDescription(){
+        return "Peak resident set size (VmHWM) of the benchmark process";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams){
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams,
+                                                        IterationResult result){
+        long kilobytes = peakRssKilobytes();
+        if (kilobytes < 0) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new ScalarResult("rss.peak", kilobytes / 1024.0, "MB", AggregationPolicy.MAX));
+    }
+
+    // -1 when the platform doesn't expose it
+    static long peakRssKilobytes(){
+        if (!Files.exists(STATUS)) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(STATUS, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Could not read the peak RSS: " + e.getMessage());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,107 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.aws.greengrass.model.IoTCoreMessage;
+import software.amazon.awssdk.aws.greengrass.model.MQTTMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Jobs per second for small objects. Every operation sends a burst of download jobs on the
+// download topic, through IoTManager.onStreamEvent like the IPC subscription, and waits for
+// all of them to end. Each job downloads a new key so the object index doesn't skip it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class SmallObjectBenchmark {
+    static final int JOBS_PER_BURST = 100;
+
+    @Param({"65536"})
+    long objectSize;
+
+    @Param({"5"})
+    long latencyMillis;
+
+    @Param({"4", "16"})
+    int maxActiveDownloads;
+
+    LocalS3Server server;
+    SharedTransferClient transferClient;
+    BenchmarkIoTManager iotManager;
+    Path destinationFolder;
+    AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new LocalS3Server(objectSize, latencyMillis, 0);
+        transferClient = BenchmarkIoTManager.transferClient(server);
+        destinationFolder = Files.createTempDirectory("small-object-benchmark");
+        ComponentConfig config = BenchmarkIoTManager.config(destinationFolder);
+        config.maxActiveDownloads = maxActiveDownloads;
+        iotManager = new BenchmarkIoTManager(config, transferClient);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteDownloads() throws Exception {
+        iotManager.clear();
+        BenchmarkIoTManager.deleteTree(destinationFolder.resolve("bucket"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        iotManager.shutdown(10000);
+        transferClient.close();
+        server.close();
+        BenchmarkIoTManager.deleteTree(destinationFolder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JOBS_PER_BURST)
+    public void jobs() throws Exception {
+        List<CompletableFuture<JobUpdate>> ends = new ArrayList<CompletableFuture<JobUpdate>>();
+        for (int i = 0; i < JOBS_PER_BURST; i++) {
+            long n = sequence.getAndIncrement();
+            String jobId = "small-" + n;
+            ends.add(iotManager.ended(jobId));
+            iotManager.onStreamEvent(message(BenchmarkIoTManager.DOWNLOAD_TOPIC,
+                "{\"jobId\":\"" + jobId + "\",\"s3Bucket\":\"bucket\",\"key\":\"small/" + n + ".bin\"}"));
+        }
+        for (CompletableFuture<JobUpdate> end : ends) {
+            JobUpdate update = end.get(60, TimeUnit.SECONDS);
+            if (!update.status.equals("SUCCEEDED")) {
+                throw new IllegalStateException("Job " + update.jobId + " ended with " + update.status);
+            }
+        }
+    }
+
+    static IoTCoreMessage message(String topic, String payload){
+        MQTTMessage mqttMessage = new MQTTMessage().withTopicName(topic)
+                                    .withPayload(payload.getBytes(StandardCharsets.UTF_8));
+        IoTCoreMessage iotCoreMessage = new IoTCoreMessage();
+        iotCoreMessage.setMessage(mqttMessage);
+        return iotCoreMessage;
+    }
+}
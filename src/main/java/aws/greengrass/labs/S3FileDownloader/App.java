@@ -7,25 +7,41 @@ import software.amazon.awssdk.aws.greengrass.model.SubscribeToIoTCoreResponse;
 import software.amazon.awssdk.aws.greengrass.model.QOS;
 import software.amazon.awssdk.aws.greengrass.model.UnauthorizedError;
 
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
 
 public class App {
     public static void main(String[] args) {
         // Set the topic and destination folder constants with the arguments passed by recipe file
-        String downloadTopic = args[0];
-        String pauseTopic = args[1];
-        String jobUpdateTopic = args[2];
-        String destinationFolder = args[3];
+        ComponentConfig config = ComponentConfig.fromArgs(args);
 
         // Subscribe to the local IPC topics
-        String[] topics = {downloadTopic, pauseTopic};
+        List<String> topics = new ArrayList<String>();
+        topics.add(config.downloadTopic);
+        topics.add(config.pauseTopic);
+        if (config.controlTopic != null) {
+            topics.add(config.controlTopic);
+        }
         List<SubscribeToIoTCoreResponseHandler> responseHandlers = 
                             new ArrayList<SubscribeToIoTCoreResponseHandler>();
         
         try {
             GreengrassCoreIPCClientV2 ipcClient = GreengrassCoreIPCClientV2.builder().build();
-            IoTManager iotManager = new IoTManager(ipcClient, downloadTopic, pauseTopic, jobUpdateTopic, destinationFolder);
+            // A single S3 Transfer Manager is shared by all the downloads
+            SharedTransferClient transferClient = SharedTransferClient.create(config);
+            IoTManager iotManager = new IoTManager(ipcClient, config, transferClient);
+            CountDownLatch stopped = new CountDownLatch(1);
+            // Queue the jobs which were not finished when the component stopped
+            iotManager.restoreJobs(new JobJournal(Paths.get(config.destinationFolder, ".job-journal")));
+            // Greengrass stops the component with a signal, pause the running downloads
+            // and close the S3 client on the way out
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                iotManager.shutdown(10000);
+                transferClient.close();
+                stopped.countDown();
+            }));
             for (String topic : topics) {
                 System.out.println("Subscribing to topic: " + topic);
                 SubscribeToIoTCoreRequest request = new SubscribeToIoTCoreRequest();
@@ -39,11 +55,9 @@ public class App {
                 System.out.println("Successfully subscribed to topic: " + topic);
             }
             
-            // Keep the main thread alive, or the process will exit.
+            // Keep the main thread parked until the component stops, or the process will exit.
             try {
-                while (true) {
-                    Thread.sleep(10000);
-                }
+                stopped.await();
             } catch (InterruptedException e) {
                 System.out.println("Subscribe interrupted.");
                 Thread.currentThread().interrupt();
@@ -0,0 +1,185 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.Download;
+import software.amazon.awssdk.transfer.s3.model.DownloadRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipException;
+
+// Downloads an archive and extracts it while the bytes arrive, instead of writing the object
+// and extracting it once complete. The response body goes through the bandwidth limiters and
+// the checksum like a single object download, the worker thread reads it from an
+// InputStreamTransformer and writes the entries to the staging area. The extracted folder
+// (or file for a .gz object) replaces the previous one once complete.
+// A decompressor can't continue from the middle of an archive, a paused or failed extraction
+// starts over.
+public class ArchiveDownloader extends Downloader {
+    ArchiveExtractor.Format format;
+
+    public ArchiveDownloader(String jobUpdate, String bucketName, String keyName, String jobId, String filePath,
+                                IoTManager iotManager, S3TransferManager transferManager, ArchiveExtractor.Format format){
+        super(jobUpdate, bucketName, keyName, jobId, filePath, iotManager, transferManager);
+        this.format = format;
+    }
+
+    @Override
+    void download(){
+        while (extract() && awaitRetry()) {
+            // The next attempt downloads the archive again
+        }
+    }
+
+    // Where the extracted content is published
+    Path targetPath(){
+        return Paths.get(ArchiveExtractor.target(filePath));
+    }
+
+    @Override
+    String destinationPath(){
+        return targetPath().toString();
+    }
+
+    // The extracted content replaces the target, the archive isn't kept
+    @Override
+    List<String> ownedPaths(){
+        List<String> paths = new ArrayList<String>();
+        paths.add(targetPath().toString());
+        paths.add(extractPath().toString());
+        return paths;
+    }
+
+    // Where it is written while the archive downloads
+    Path extractPath(){
+        return Paths.get(ArchiveExtractor.target(workingPath()));
+    }
+
+    @Override
+    void discard(){
+        delete(extractPath());
+    }
+
+    // Returns true when a transient failure should be retried
+    boolean extract(){
+        System.out.println("Downloading and extracting " + bucketName + " " + keyName);
+        Path work = extractPath();
+        InputStreamTransformer<GetObjectResponse> body = new InputStreamTransformer<GetObjectResponse>();
+        Download<GetObjectResponse> download = null;
+        iotManager.downloadStarted(this);
+        try {
+            // The extracted size isn't known before the end, the archive size is a lower bound
+            if (diskSpace != null && !admitted(bucketName, keyName, jobId, work.toString())) {
+                return false;
+            }
+            throttled = isThrottled();
+            StreamingChecksum streamingChecksum = streamingChecksum(bucketName, keyName);
+            // Left by a stopped attempt
+            StagingArea.deleteRecursively(work);
+            AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> transformer = body;
+            if (streamingChecksum != null) {
+                transformer = new ChecksumTransformer<GetObjectResponse, GetObjectResponse>(transformer, streamingChecksum);
+            }
+            transformer = new ThrottledResponseTransformer<GetObjectResponse, GetObjectResponse>(transformer,
+                                    throttled ? limiters() : null);
+            download = transferManager.download(DownloadRequest.builder()
+                            .getObjectRequest(request -> request.bucket(bucketName).key(keyName))
+                            .responseTransformer(transformer)
+                            .addTransferListener(progressListener())
+                            .build());
+            // Wakes the extractor up when the transfer fails before or without an error on the body
+            download.completionFuture().whenComplete((completed, error) -> {
+                if (error != null) {
+                    body.fail(error);
+                }
+            });
+            iotManager.transferStarted(jobId, body.bytesRead::get);
+
+            ArchiveExtractor extractor = new ArchiveExtractor(work);
+            try (InputStream in = body.stream()) {
+                extractor.extract(in, format);
+                // The extractor may not need the end, e.g. the central directory of a zip
+                byte[] rest = new byte[8192];
+                while (in.read(rest) >= 0) {
+                    // Discarded
+                }
+            }
+            download.completionFuture().get();
+            if (streamingChecksum != null && !streamingChecksum.matches()) {
+                System.err.println("Checksum mismatch " + jobId + ": " + streamingChecksum.algorithm + " "
+                                    + streamingChecksum.encoded());
+                delete(work);
+                publishResult(jobId, "FAILED", "checksum mismatch", streamingChecksum);
+                return false;
+            }
+            Path target = targetPath();
+            if (!work.equals(target)) {
+                if (format == ArchiveExtractor.Format.GZ) {
+                    StagingArea.commit(work, target);
+                } else {
+                    StagingArea.commitFolder(work, target);
+                }
+            }
+            System.out.println("Extracted " + extractor.files + " files, " + extractor.bytes + " bytes to " + target);
+            iotManager.publishFileReady(jobId, bucketName, keyName, target.toString());
+            JobUpdate update = new JobUpdate(jobId, "SUCCEEDED", "extracted");
+            update.extractedFiles = extractor.files;
+            if (streamingChecksum != null) {
+                update.checksumAlgorithm = streamingChecksum.algorithm;
+                update.checksum = streamingChecksum.encoded();
+            }
+            iotManager.publishUpdate(update);
+        } catch (InterruptedException | InterruptedIOException e) {
+            // Paused or canceled, the partial content is dropped
+            delete(work);
+            if (!restartRequested) {
+                publishStopped();
+            }
+            Thread.currentThread().interrupt();
+        } catch (InputStreamTransformer.TransferException e) {
+            return failed(e.getCause(), work);
+        } catch (ExecutionException e) {
+            return failed(e.getCause(), work);
+        } catch (ArchiveExtractor.ArchiveException | ZipException e) {
+            System.err.println("Invalid archive " + keyName + ": " + e.getMessage());
+            delete(work);
+            iotManager.publishUpdate(jobId, "FAILED", "invalid archive");
+        } catch (IOException e) {
+            System.err.println("Could not extract " + keyName + " to " + work + ": " + e.getMessage());
+            delete(work);
+            iotManager.publishUpdate(jobId, "FAILED", "fail");
+        } finally {
+            if (download != null && !download.completionFuture().isDone()) {
+                download.completionFuture().cancel(true);
+            }
+        }
+        return false;
+    }
+
+    // A failure of the transfer or of the HEAD request, returns true when it should be retried
+    boolean failed(Throwable error, Path work){
+        System.err.println("Download failed " + jobId + ": " + error);
+        delete(work);
+        if (retryLater(error)) {
+            return true;
+        }
+        iotManager.publishUpdate(jobId, "FAILED", "fail");
+        return false;
+    }
+
+    void delete(Path path){
+        try {
+            StagingArea.deleteRecursively(path);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + path + ": " + e.getMessage());
+        }
+    }
+}
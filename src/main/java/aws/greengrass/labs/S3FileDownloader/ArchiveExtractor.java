@@ -0,0 +1,291 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Unpacks an archive from a stream, in one pass, as its bytes arrive. The format comes from
+// the extension of the key: .tar, .tar.gz or .tgz and .zip are extracted into a folder, .gz
+// is decompressed to a single file. The integrity of the content is checked on the way, the
+// CRC of the zip entries and of the gzip stream and the checksum of the tar headers.
+// Entries which would be written outside of the destination are rejected.
+public class ArchiveExtractor {
+    public enum Format { TAR, TAR_GZ, ZIP, GZ }
+
+    // The archive isn't valid, downloading it again won't help
+    public static class ArchiveException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ArchiveException(String message){
+            super(message);
+        }
+    }
+
+    static final int BLOCK_SIZE = 512;
+
+    Path destination;
+    // Updated while extracting
+    volatile long files;
+    volatile long bytes;
+    byte[] buffer = new byte[64 * 1024];
+
+    public ArchiveExtractor(Path destination){
+        this.destination = destination;
+    }
+
+    // The format of an archive from its key, null when it isn't an archive
+    public static Format format(String key){
+        String name = key.toLowerCase();
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return Format.TAR_GZ;
+        } else if (name.endsWith(".tar")) {
+            return Format.TAR;
+        } else if (name.endsWith(".zip")) {
+            return Format.ZIP;
+        } else if (name.endsWith(".gz")) {
+            return Format.GZ;
+        }
+        return null;
+    }
+
+    // Where the archive is extracted: bundle.tar.gz to the folder bundle, data.csv.gz to the file data.csv
+    public static String target(String path){
+        String name = path.toLowerCase();
+        for (String extension : new String[] {".tar.gz", ".tgz", ".tar", ".zip", ".gz"}) {
+            if (name.endsWith(extension)) {
+                return path.substring(0, path.length() - extension.length());
+            }
+        }
+        return path;
+    }
+
+    public void extract(InputStream in, Format format) throws IOException {
+        switch (format) {
+            case TAR:
+                extractTar(in);
+                break;
+            case TAR_GZ:
+                extractTar(new GZIPInputStream(in, buffer.length));
+                break;
+            case ZIP:
+                extractZip(new ZipInputStream(in));
+                break;
+            default:
+                Files.createDirectories(destination.getParent());
+                write(new GZIPInputStream(in, buffer.length), destination.toFile(), -1);
+                files = 1;
+        }
+    }
+
+    void extractZip(ZipInputStream zip) throws IOException {
+        Files.createDirectories(destination);
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            Path path = resolve(entry.getName());
+            if (entry.isDirectory()) {
+                Files.createDirectories(path);
+            } else {
+                Files.createDirectories(path.getParent());
+                // The CRC of the entry is checked once it was read to the end
+                write(zip, path.toFile(), -1);
+                files++;
+            }
+        }
+    }
+
+    // Reads the ustar format, with the GNU and pax extensions for the long names
+    void extractTar(InputStream tar) throws IOException {
+        Files.createDirectories(destination);
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        while (true) {
+            if (!readBlock(tar, header)) {
+                throw new ArchiveException("Truncated tar archive");
+            }
+            if (isZeros(header)) {
+                // End of the archive, whatever follows is padding
+                drain(tar);
+                return;
+            }
+            checkHeader(header);
+            String name = longName != null ? longName : headerName(header);
+            longName = null;
+            long size = octal(header, 124, 12);
+            char type = (char) header[156];
+            if (type == 'L') {
+                // GNU long name of the next entry
+                longName = trimNul(new String(readData(tar, size), StandardCharsets.UTF_8));
+                continue;
+            } else if (type == 'x') {
+                // pax extended header of the next entry, only the path matters here
+                longName = paxPath(readData(tar, size));
+                continue;
+            }
+            if (type == '0' || type == '\0' || type == '7') {
+                Path path = resolve(name);
+                Files.createDirectories(path.getParent());
+                write(tar, path.toFile(), size);
+                skip(tar, padding(size));
+                if ((octal(header, 100, 8) & 0100) != 0) {
+                    path.toFile().setExecutable(true);
+                }
+                files++;
+            } else if (type == '5') {
+                Files.createDirectories(resolve(name));
+                skip(tar, size + padding(size));
+            } else {
+                // Links, devices and global pax headers are not extracted
+                System.out.println("Skipping tar entry " + name + " of type " + type);
+                skip(tar, size + padding(size));
+            }
+        }
+    }
+
+    // The path of an entry under the destination, absolute paths and ".." are rejected
+    Path resolve(String name) throws ArchiveException {
+        Path path = destination.resolve(name).normalize();
+        if (!path.startsWith(destination.normalize())) {
+            throw new ArchiveException("Invalid entry " + name);
+        }
+        return path;
+    }
+
+    // Copies an entry to its file, up to size bytes or the end of the stream when size is -1.
+    // The file is synced so the extracted folder can be published like a downloaded file.
+    void write(InputStream in, File file, long size) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            long remaining = size < 0 ? Long.MAX_VALUE : size;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    if (size < 0) {
+                        break;
+                    }
+                    throw new ArchiveException("Truncated entry " + file);
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+                bytes += read;
+            }
+            out.getFD().sync();
+        }
+    }
+
+    static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int filled = 0;
+        while (filled < block.length) {
+            int read = in.read(block, filled, block.length - filled);
+            if (read < 0) {
+                return false;
+            }
+            filled += read;
+        }
+        return true;
+    }
+
+    static boolean isZeros(byte[] block){
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The checksum of a header is the sum of its bytes, with its own field counted as spaces
+    static void checkHeader(byte[] header) throws ArchiveException {
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        if (sum != octal(header, 148, 8)) {
+            throw new ArchiveException("Corrupted tar header");
+        }
+    }
+
+    static String headerName(byte[] header){
+        String name = trimNul(new String(header, 0, 100, StandardCharsets.UTF_8));
+        // A ustar archive splits the long names in a prefix and a name
+        if (new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+            String prefix = trimNul(new String(header, 345, 155, StandardCharsets.UTF_8));
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    // Octal number padded with spaces or NULs, or a big endian number when the first bit is set
+    static long octal(byte[] header, int offset, int length) throws ArchiveException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = 0;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        String text = new String(header, offset, length, StandardCharsets.US_ASCII).replace('\0', ' ').trim();
+        try {
+            return text.isEmpty() ? 0 : Long.parseLong(text, 8);
+        } catch (NumberFormatException e) {
+            throw new ArchiveException("Invalid number in tar header: " + text);
+        }
+    }
+
+    // The path record of a pax header, each record is "<length> <key>=<value>\n"
+    static String paxPath(byte[] data){
+        String path = null;
+        String text = new String(data, StandardCharsets.UTF_8);
+        for (String record : text.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                path = record.substring(space + 6);
+            }
+        }
+        return path;
+    }
+
+    static String trimNul(String value){
+        int end = value.indexOf('\0');
+        return end < 0 ? value : value.substring(0, end);
+    }
+
+    static long padding(long size){
+        return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+    }
+
+    byte[] readData(InputStream in, long size) throws IOException {
+        if (size > 1024 * 1024) {
+            throw new ArchiveException("Tar header of " + size + " bytes");
+        }
+        byte[] data = new byte[(int) size];
+        if (!readBlock(in, data)) {
+            throw new ArchiveException("Truncated tar archive");
+        }
+        skip(in, padding(size));
+        return data;
+    }
+
+    void skip(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read < 0) {
+                throw new ArchiveException("Truncated tar archive");
+            }
+            length -= read;
+        }
+    }
+
+    // Reads the rest of the stream so the gzip trailer is checked
+    void drain(InputStream in) throws IOException {
+        while (in.read(buffer) >= 0) {
+            // Zero blocks
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Token bucket limiting the number of bytes per second going through it.
+// The bucket holds at most one second worth of tokens. A reservation larger than the
+// available tokens is granted anyway and the caller waits until the debt is paid back,
+// so a single bucket can be shared by all downloads without any of them blocking a thread.
+public class BandwidthLimiter {
+    // Timer used to deliver delayed bytes, shared by every limited download
+    static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bandwidth-limiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    long bytesPerSecond;
+    double tokens;
+    long lastRefillNanos;
+
+    // 0 bytes per second means unlimited
+    public BandwidthLimiter(long bytesPerSecond){
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.tokens = this.bytesPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized long getBytesPerSecond(){
+        return bytesPerSecond;
+    }
+
+    public synchronized boolean isLimited(){
+        return bytesPerSecond > 0;
+    }
+
+    // Changes the rate at runtime, the bytes already reserved are not refunded
+    public synchronized void setBytesPerSecond(long bytesPerSecond){
+        refill(System.nanoTime());
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        tokens = Math.min(tokens, this.bytesPerSecond);
+    }
+
+    // Takes the tokens for the given number of bytes and returns how many
+    // nanoseconds the caller has to wait before sending them
+    public synchronized long reserve(long bytes){
+        if (bytesPerSecond == 0) {
+            return 0;
+        }
+        refill(System.nanoTime());
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+    }
+
+    void refill(long now){
+        if (bytesPerSecond > 0) {
+            double earned = (double) (now - lastRefillNanos) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1);
+            tokens = Math.min(bytesPerSecond, tokens + earned);
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,412 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedDirectoryDownload;
+import software.amazon.awssdk.transfer.s3.model.DirectoryDownload;
+import software.amazon.awssdk.transfer.s3.model.DownloadDirectoryRequest;
+import software.amazon.awssdk.transfer.s3.model.FailedFileDownload;
+import software.amazon.awssdk.transfer.s3.model.FileDownload;
+import software.amazon.awssdk.transfer.s3.model.ResumableFileDownload;
+import software.amazon.awssdk.transfer.s3.progress.TransferListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+// Downloads several objects of a bucket as a single job: a list of keys and/or every object
+// under a prefix. The objects are written to the same place as single object jobs and the
+// progress is reported for the whole batch. A failed object doesn't stop the others, the keys
+// which failed are listed in the final job update. The downloaded objects are recorded in the
+// object index, an object listed with the ETag of its file is skipped by the next batch.
+public class BatchDownloader extends Downloader {
+    // One object of the batch
+    static class BatchObject {
+        String key;
+        long size;
+        // From the listing, null for the keys of the job
+        String eTag;
+        Path path;
+        // Written there while it downloads
+        Path stagedPath;
+        // Share of the batch progress and progress of this object
+        double weight;
+        double ratio;
+        FileDownload xfer;
+        ThrottledDownload throttledDownload;
+
+        BatchObject(String key, long size){
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    List<String> keys;
+    String prefix;
+    String bucketFolder;
+    S3AsyncClient s3Client;
+    int maxConcurrentObjects;
+    DoubleAdder progress = new DoubleAdder();
+    List<BatchObject> inFlight = Collections.synchronizedList(new ArrayList<BatchObject>());
+    Queue<String> failedKeys = new ConcurrentLinkedQueue<String>();
+    // Objects fetched by the directory download, moved in place and indexed once it completed
+    Map<String, S3Object> directoryObjects = new ConcurrentHashMap<String, S3Object>();
+    DirectoryDownload directoryDownload;
+    // Bytes transferred by the directory download, and by the objects which ended (guarded by inFlight)
+    AtomicLong directoryBytes = new AtomicLong();
+    long endedObjectBytes;
+    volatile boolean pausing;
+
+    public BatchDownloader(String jobUpdate, String bucketName, List<String> keys, String prefix, String jobId,
+                            String bucketFolder, IoTManager iotManager, S3TransferManager transferManager,
+                            S3AsyncClient s3Client, int maxConcurrentObjects){
+        super(jobUpdate, bucketName, null, jobId, bucketFolder, iotManager, transferManager);
+        this.keys = keys;
+        this.prefix = prefix;
+        this.bucketFolder = bucketFolder;
+        this.s3Client = s3Client;
+        this.maxConcurrentObjects = maxConcurrentObjects;
+    }
+
+    @Override
+    void download(){
+        System.out.println("Downloading batch " + jobId + " from " + bucketName);
+        iotManager.downloadStarted(this);
+        try {
+            throttled = isThrottled();
+            iotManager.transferStarted(jobId, this::bytesWritten);
+            int total;
+            if (useDirectoryDownload()) {
+                total = downloadDirectory();
+            } else {
+                total = downloadObjects(listObjects());
+            }
+            publishResult(total);
+        } catch (InterruptedException e) {
+            // Pause the objects in flight, the completed ones are skipped on resume
+            pauseBatch();
+            if (!restartRequested) {
+                publishStopped();
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Batch download failed " + jobId + ": " + e.getCause());
+            iotManager.publishUpdate(jobId, "FAILED", "fail");
+        }
+    }
+
+    // The directory download of the Transfer Manager is used for a whole prefix. It strips the
+    // prefix from the local path, so the prefix must end with a delimiter to keep the same
+    // layout as single object jobs, and it has no bandwidth limits.
+    boolean useDirectoryDownload(){
+        return keys == null && prefix != null && !throttled && (prefix.isEmpty() || prefix.endsWith("/"));
+    }
+
+    int downloadDirectory() throws InterruptedException, ExecutionException {
+        AtomicInteger count = new AtomicInteger();
+        AtomicLong totalBytes = new AtomicLong();
+        AtomicLong transferredBytes = new AtomicLong();
+        directoryDownload = transferManager.downloadDirectory(DownloadDirectoryRequest.builder()
+                        .bucket(bucketName)
+                        .destination(stagedPath(prefix))
+                        .listObjectsV2RequestTransformer(request -> request.prefix(prefix))
+                        .filter(object -> {
+                            if (object.key().endsWith("/")) {
+                                return false;
+                            }
+                            count.incrementAndGet();
+                            totalBytes.addAndGet(object.size());
+                            if (isComplete(object.key(), object.size(), object.eTag())) {
+                                transferredBytes.addAndGet(object.size());
+                                return false;
+                            }
+                            directoryObjects.put(object.key(), object);
+                            return true;
+                        })
+                        .downloadFileRequestTransformer(request -> request.addTransferListener(
+                            bytesListener(transferredBytes, totalBytes)))
+                        .build());
+        CompletedDirectoryDownload completed = directoryDownload.completionFuture().get();
+        for (FailedFileDownload failed : completed.failedTransfers()) {
+            System.err.println("Download failed " + failed.request().getObjectRequest().key() + ": " + failed.exception());
+            failedKeys.add(failed.request().getObjectRequest().key());
+        }
+        Set<String> failed = new HashSet<String>(failedKeys);
+        for (S3Object object : directoryObjects.values()) {
+            Path path = Paths.get(bucketFolder + object.key());
+            if (!failed.contains(object.key()) && (staging == null || commit(object.key(), stagedPath(object.key()), path))) {
+                // The directory download doesn't give the responses, the listing has the same ETag
+                record(object.key(), path, GetObjectResponse.builder().eTag(object.eTag())
+                                                .lastModified(object.lastModified()).build());
+            }
+        }
+        return count.get();
+    }
+
+    // Adds the bytes of one file of a directory download to the batch progress
+    TransferListener bytesListener(AtomicLong transferredBytes, AtomicLong totalBytes){
+        return new TransferListener() {
+            long last;
+
+            @Override
+            public void bytesTransferred(TransferListener.Context.BytesTransferred context) {
+                long transferred = context.progressSnapshot().transferredBytes();
+                directoryBytes.addAndGet(transferred - last);
+                long batchTransferred = transferredBytes.addAndGet(transferred - last);
+                last = transferred;
+                long total = totalBytes.get();
+                iotManager.reportProgress(jobId, total == 0 ? 0.0 : (double) batchTransferred / total);
+            }
+        };
+    }
+
+    // The explicit keys followed by the objects under the prefix, listed page by page
+    List<BatchObject> listObjects() throws InterruptedException, ExecutionException {
+        List<BatchObject> objects = new ArrayList<BatchObject>();
+        Set<String> seen = new HashSet<String>();
+        if (keys != null) {
+            for (String key : keys) {
+                if (seen.add(key)) {
+                    objects.add(new BatchObject(key, -1));
+                }
+            }
+        }
+        if (prefix != null) {
+            s3Client.listObjectsV2Paginator(request -> request.bucket(bucketName).prefix(prefix))
+                    .contents()
+                    .subscribe((S3Object object) -> {
+                        if (!object.key().endsWith("/") && seen.add(object.key())) {
+                            BatchObject batchObject = new BatchObject(object.key(), object.size());
+                            batchObject.eTag = object.eTag();
+                            objects.add(batchObject);
+                        }
+                    })
+                    .get();
+        }
+        return objects;
+    }
+
+    // Downloads the objects with at most maxConcurrentObjects transfers in flight
+    int downloadObjects(List<BatchObject> objects) throws InterruptedException {
+        long totalBytes = 0;
+        boolean sized = true;
+        for (BatchObject object : objects) {
+            sized &= object.size >= 0;
+            totalBytes += Math.max(0, object.size);
+        }
+        Semaphore slots = new Semaphore(maxConcurrentObjects);
+        List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+        for (BatchObject object : objects) {
+            // Objects are weighted by size when all sizes are known
+            object.weight = sized && totalBytes > 0 ? (double) object.size / totalBytes : 1.0 / objects.size();
+            object.path = Paths.get(bucketFolder + object.key);
+            object.stagedPath = stagedPath(object.key);
+            if (isComplete(object.key, object.size, object.eTag)) {
+                objectProgress(object, 1.0);
+                continue;
+            }
+            slots.acquire();
+            CompletableFuture<?> completion;
+            try {
+                completion = start(object);
+            } catch (IOException | RuntimeException e) {
+                slots.release();
+                System.err.println("Could not start " + object.key + ": " + e.getMessage());
+                failedKeys.add(object.key);
+                continue;
+            }
+            inFlight.add(object);
+            results.add(completion.handle((result, error) -> {
+                slots.release();
+                objectEnded(object);
+                if (error == null) {
+                    if (commit(object.key, object.stagedPath, object.path)) {
+                        record(object.key, object.path, response(result));
+                        objectProgress(object, 1.0);
+                    }
+                } else if (!pausing) {
+                    System.err.println("Download failed " + object.key + ": " + error);
+                    failedKeys.add(object.key);
+                }
+                return null;
+            }));
+        }
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get();
+        } catch (ExecutionException e) {
+            // Not possible, the failures are handled per object
+        }
+        return objects.size();
+    }
+
+    CompletableFuture<?> start(BatchObject object) throws IOException {
+        new File(object.stagedPath.toString()).getParentFile().mkdirs();
+        Path resumeFile = Paths.get(object.stagedPath + ".resume-download");
+        boolean resume = Files.exists(resumeFile);
+        if (throttled) {
+            object.throttledDownload = resume
+                ? ThrottledDownload.resume(transferManager, ResumableFileDownload.fromFile(resumeFile), limiters(), null,
+                                            ratio -> objectProgress(object, ratio))
+                : ThrottledDownload.start(transferManager, downloadFileRequest(bucketName, object.key, object.stagedPath.toString(), null),
+                                            limiters(), null, ratio -> objectProgress(object, ratio));
+            return object.throttledDownload.completionFuture();
+        }
+        TransferListener listener = new TransferListener() {
+            @Override
+            public void bytesTransferred(TransferListener.Context.BytesTransferred context) {
+                objectProgress(object, context.progressSnapshot().ratioTransferred().orElse(0.0));
+            }
+        };
+        object.xfer = resume
+            ? transferManager.resumeDownloadFile(withListener(ResumableFileDownload.fromFile(resumeFile), listener))
+            : transferManager.downloadFile(downloadFileRequest(bucketName, object.key, object.stagedPath.toString(), listener));
+        return object.xfer.completionFuture();
+    }
+
+    void objectEnded(BatchObject object){
+        synchronized (inFlight) {
+            endedObjectBytes += object.stagedPath.toFile().length();
+            inFlight.remove(object);
+        }
+    }
+
+    // Bytes written by the batch so far, read by the metrics
+    long bytesWritten(){
+        long bytes = directoryBytes.get();
+        synchronized (inFlight) {
+            bytes += endedObjectBytes;
+            for (BatchObject object : inFlight) {
+                bytes += object.stagedPath.toFile().length();
+            }
+        }
+        return bytes;
+    }
+
+    // Moves the batch progress by the share of this object
+    void objectProgress(BatchObject object, double ratio){
+        double delta;
+        synchronized (object) {
+            delta = ratio - object.ratio;
+            object.ratio = ratio;
+        }
+        progress.add(delta * object.weight);
+        iotManager.reportProgress(jobId, progress.sum());
+    }
+
+    // An object is skipped when the object index has its file unchanged, with the ETag and size
+    // of the listing, and no download of it was paused. A file of the same size may be another
+    // version of the object.
+    boolean isComplete(String key, long size, String eTag){
+        if (objectCache == null || eTag == null || size < 0
+                || new File(stagedPath(key) + ".resume-download").exists()) {
+            return false;
+        }
+        ObjectCache.Entry entry = objectCache.intactEntry(bucketFolder + key);
+        return entry != null && bucketName.equals(entry.bucket) && key.equals(entry.key)
+                && eTag.equals(entry.eTag) && entry.size == size;
+    }
+
+    // Indexes a downloaded object, see isComplete
+    void record(String key, Path path, GetObjectResponse response){
+        if (objectCache != null) {
+            objectCache.recordDownload(bucketName, key, path.toString(), response);
+        }
+    }
+
+    // A batch doesn't share its transfers
+    @Override
+    String destinationPath(){
+        return null;
+    }
+
+    // The objects of the listed keys, or everything under the prefix
+    @Override
+    List<String> ownedPaths(){
+        List<String> paths = new ArrayList<String>();
+        for (String key : keys != null ? keys : Collections.singletonList(prefix == null ? "" : prefix)) {
+            paths.add(bucketFolder + key);
+            paths.add(stagedPath(key).toString());
+        }
+        return paths;
+    }
+
+    // Where an object is written while it downloads, in place without a staging area
+    Path stagedPath(String key){
+        return staging == null ? Paths.get(bucketFolder + key) : staging.path(bucketName, key);
+    }
+
+    // Moves a downloaded object in place, a failure fails the object
+    boolean commit(String key, Path stagedPath, Path path){
+        try {
+            if (staging != null) {
+                StagingArea.commit(stagedPath, path);
+            }
+            iotManager.publishFileReady(jobId, bucketName, key, path.toString());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not move " + stagedPath + " to " + path + ": " + e.getMessage());
+            failedKeys.add(key);
+            return false;
+        }
+    }
+
+    // A canceled batch keeps the objects which completed, the paused ones keep their resume
+    // files so a later job for the same keys continues them
+    @Override
+    void discard(){
+    }
+
+    void pauseBatch(){
+        pausing = true;
+        if (directoryDownload != null) {
+            // The directory download can't be paused, the completed files are skipped on resume
+            directoryDownload.completionFuture().cancel(true);
+            return;
+        }
+        List<BatchObject> objects;
+        synchronized (inFlight) {
+            objects = new ArrayList<BatchObject>(inFlight);
+        }
+        for (BatchObject object : objects) {
+            if (object.throttledDownload != null) {
+                pauseAndPersistDownload(object.throttledDownload, object.stagedPath.toString());
+            } else {
+                pauseAndPersistDownload(object.xfer, object.stagedPath.toString());
+            }
+        }
+    }
+
+    void publishResult(int total){
+        List<String> failed = new ArrayList<String>(failedKeys);
+        String status;
+        if (failed.isEmpty()) {
+            status = "SUCCEEDED";
+        } else if (failed.size() == total) {
+            status = "FAILED";
+        } else {
+            status = "PARTIALLY_SUCCEEDED";
+        }
+        JobUpdate update = new JobUpdate(jobId, status, (total - failed.size()) + " of " + total + " objects downloaded");
+        update.failedKeys = failed.isEmpty() ? null : failed;
+        iotManager.publishUpdate(update);
+    }
+}
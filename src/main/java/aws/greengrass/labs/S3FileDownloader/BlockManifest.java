@@ -0,0 +1,93 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+// Block signatures of an object, stored next to it in S3 as <key>.blocks. The object is cut in
+// blocks of blockSize bytes, the last one may be shorter, and each block has its SHA-256 in
+// base64. A delta download compares them with the blocks of the previous version of the file,
+// see DeltaDownloader. The manifest of a file is written with:
+//   java -cp S3FileDownloader.jar aws.greengrass.labs.S3FileDownloader.BlockManifest <file> [blockSize] > <file>.blocks
+public class BlockManifest {
+    public static final String SUFFIX = ".blocks";
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    static final Gson GSON = new Gson();
+
+    public long size;
+    public int blockSize;
+    public List<String> blocks = new ArrayList<String>();
+
+    public static BlockManifest fromJson(String json){
+        BlockManifest manifest = GSON.fromJson(json, BlockManifest.class);
+        if (manifest == null || manifest.blockSize <= 0 || manifest.blocks == null
+                || manifest.blocks.size() != (manifest.size + manifest.blockSize - 1) / manifest.blockSize) {
+            throw new IllegalArgumentException("Invalid block manifest");
+        }
+        return manifest;
+    }
+
+    // The signatures of a file
+    public static BlockManifest of(Path file, int blockSize) throws IOException {
+        BlockManifest manifest = new BlockManifest();
+        manifest.size = Files.size(file);
+        manifest.blockSize = blockSize;
+        byte[] block = new byte[blockSize];
+        try (InputStream in = new FileInputStream(file.toFile())) {
+            for (int length = read(in, block); length > 0; length = read(in, block)) {
+                manifest.blocks.add(hash(block, length));
+            }
+        }
+        return manifest;
+    }
+
+    public int blockCount(){
+        return blocks.size();
+    }
+
+    public int blockLength(int block){
+        return (int) Math.min(blockSize, size - (long) block * blockSize);
+    }
+
+    // Fills the block unless the stream ends first, returns the number of bytes read
+    static int read(InputStream in, byte[] block) throws IOException {
+        int filled = 0;
+        while (filled < block.length) {
+            int read = in.read(block, filled, block.length - filled);
+            if (read < 0) {
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
+
+    static String hash(byte[] block, int length){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(block, 0, length);
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BlockManifest <file> [blockSize]");
+            System.exit(1);
+        }
+        int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE;
+        System.out.println(GSON.toJson(of(Paths.get(args[0]), blockSize)));
+    }
+}
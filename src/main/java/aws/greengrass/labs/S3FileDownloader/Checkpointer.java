@@ -0,0 +1,88 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Rewrites the resume files of the running downloads while they transfer, so a crash or a
+// power loss only loses what was downloaded since the last checkpoint. A download is
+// checkpointed once the interval elapsed or enough bytes were written since its last checkpoint.
+public class Checkpointer {
+    // Writes the resume file of one download
+    public interface Checkpoint {
+        void write() throws IOException;
+    }
+
+    static class Registration {
+        LongSupplier bytesWritten;
+        Checkpoint checkpoint;
+        long lastMillis;
+        long lastBytes;
+
+        Registration(LongSupplier bytesWritten, Checkpoint checkpoint){
+            this.bytesWritten = bytesWritten;
+            this.checkpoint = checkpoint;
+            this.lastMillis = System.currentTimeMillis();
+            this.lastBytes = bytesWritten.getAsLong();
+        }
+    }
+
+    long intervalMillis;
+    long intervalBytes;
+    Map<String, Registration> downloads = new ConcurrentHashMap<String, Registration>();
+    ScheduledExecutorService timer;
+
+    public Checkpointer(long intervalMillis, long intervalBytes){
+        this.intervalMillis = intervalMillis;
+        this.intervalBytes = intervalBytes;
+    }
+
+    public void start(){
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Poll often enough to notice the bytes threshold
+        long period = Math.min(intervalMillis, 1000);
+        timer.scheduleWithFixedDelay(this::tick, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(){
+        if (timer != null) {
+            timer.shutdown();
+        }
+    }
+
+    public void register(String jobId, LongSupplier bytesWritten, Checkpoint checkpoint){
+        downloads.put(jobId, new Registration(bytesWritten, checkpoint));
+    }
+
+    // Waits for a checkpoint in progress, the caller may write the final resume file next
+    public synchronized void unregister(String jobId){
+        downloads.remove(jobId);
+    }
+
+    synchronized void tick(){
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Registration> entry : downloads.entrySet()) {
+            Registration registration = entry.getValue();
+            long bytes = registration.bytesWritten.getAsLong();
+            if (now - registration.lastMillis < intervalMillis && bytes - registration.lastBytes < intervalBytes) {
+                continue;
+            }
+            try {
+                registration.checkpoint.write();
+                registration.lastMillis = now;
+                registration.lastBytes = bytes;
+            } catch (IOException | RuntimeException e) {
+                // The next tick tries again
+                System.err.println("Could not checkpoint " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+// Wraps another response transformer (usually the file writer of the SDK) and adds every
+// buffer of the response body to a streaming checksum on its way to the file.
+public class ChecksumTransformer<ResponseT, ResultT> implements AsyncResponseTransformer<ResponseT, ResultT> {
+    AsyncResponseTransformer<ResponseT, ResultT> delegate;
+    StreamingChecksum checksum;
+
+    public ChecksumTransformer(AsyncResponseTransformer<ResponseT, ResultT> delegate, StreamingChecksum checksum){
+        this.delegate = delegate;
+        this.checksum = checksum;
+    }
+
+    @Override
+    public CompletableFuture<ResultT> prepare(){
+        // Called again when the SDK retries the request
+        checksum.restart();
+        return delegate.prepare();
+    }
+
+    @Override
+    public void onResponse(ResponseT response){
+        delegate.onResponse(response);
+    }
+
+    @Override
+    public void onStream(SdkPublisher<ByteBuffer> publisher){
+        delegate.onStream(subscriber -> publisher.subscribe(new Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Subscription subscription){
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer){
+                checksum.update(buffer);
+                subscriber.onNext(buffer);
+            }
+
+            @Override
+            public void onError(Throwable error){
+                subscriber.onError(error);
+            }
+
+            @Override
+            public void onComplete(){
+                subscriber.onComplete();
+            }
+        }));
+    }
+
+    @Override
+    public void exceptionOccurred(Throwable error){
+        delegate.exceptionOccurred(error);
+    }
+}
@@ -0,0 +1,255 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Holds the component configuration passed by the recipe file.
+// The first four arguments are positional (topics and destination folder), every
+// following argument has the form KEY=value where KEY matches the recipe parameter name.
+// Empty or missing values fall back to the defaults below.
+public class ComponentConfig {
+    public String downloadTopic;
+    public String pauseTopic;
+    // Optional topic to change settings at runtime, see ControlCommand
+    public String controlTopic;
+    public String jobUpdateTopic;
+    public String destinationFolder;
+    // Optional local topic announcing the files which completed, see FileReady
+    public String fileReadyTopic;
+    // Optional local topic where the streaming jobs publish how far their file can be read,
+    // every step bytes, see StreamReporter. Jobs can't stream when it isn't set.
+    public String streamTopic;
+    public long streamStepBytes = 1024 * 1024;
+
+    // S3 CRT client settings, null leaves the SDK default in place
+    public Integer maxConcurrency;
+    public Double targetThroughputGbps;
+    public Long minimumPartSizeBytes;
+
+    // Number of downloads running at the same time, further jobs are queued
+    public int maxActiveDownloads = 4;
+
+    // Bandwidth shared by all the downloads, 0 means unlimited
+    public long maxBytesPerSecond;
+
+    // Progress updates are published at most once per interval and only when
+    // the download progressed at least the minimum delta since the last update
+    public long progressIntervalMillis = 5000;
+    public double progressMinDeltaPercent = 1.0;
+
+    // Objects of a batch job downloaded at the same time
+    public int batchMaxConcurrentObjects = 8;
+
+    // Files with the same content are stored once with hard links
+    public boolean dedupHardLinks;
+
+    // Objects larger than one part are downloaded with parallel ranged GET requests,
+    // 0 leaves the whole object to a single Transfer Manager download
+    public long parallelPartSizeBytes;
+    public int parallelPartsPerObject = 4;
+
+    // The resume file of a running download is rewritten once the interval elapsed
+    // or enough bytes were written since the last checkpoint
+    public long checkpointIntervalMillis = 30000;
+    public long checkpointIntervalBytes = 64L * 1024 * 1024;
+
+    // Objects stored with an S3 additional checksum are verified while downloading
+    public boolean verifyS3Checksums;
+
+    // Metrics published to a topic every interval and/or served in the Prometheus format on
+    // a local port, a null topic or a 0 port disables them
+    public String metricsTopic;
+    public long metricsIntervalMillis = 60000;
+    public int metricsPort;
+
+    // Transient failures of a download are retried from its checkpoint with a growing delay,
+    // 0 attempts fails the job at the first error
+    public int retryMaxAttempts = 5;
+    public long retryBaseDelayMillis = 1000;
+    public long retryMaxDelayMillis = 60000;
+
+    // Jobs start only when the object fits in the free space of the destination folder minus
+    // the headroom, the others wait. Preallocation writes the file of a parallel download
+    // before its first part.
+    public boolean diskSpaceCheck;
+    public long diskHeadroomBytes = 100L * 1024 * 1024;
+    public boolean preallocateFiles;
+    // Runs the downloads on virtual threads when the Java runtime has them
+    public boolean virtualThreads;
+
+    // The completed files are deleted once they take more than the quota, the least recently
+    // or least frequently used first. 0 keeps every file.
+    public long storeQuotaBytes;
+    public ManagedStore.Policy storeEviction = ManagedStore.Policy.LRU;
+    // Staged files which no job owns are deleted after this age, 0 keeps them
+    public long stagingMaxAgeHours = 168;
+
+    // The downloaded objects are served to the other cores of the site on this port, 0 doesn't
+    // serve them. The peers, as host:port, are asked for an object before S3. The token must be
+    // the same on every core, it is read from the environment so it doesn't show in the process
+    // list, and the objects aren't served without it.
+    public int peerPort;
+    public List<String> peers = new ArrayList<String>();
+    public String peerToken;
+
+    public ComponentConfig(String downloadTopic, String pauseTopic,
+                String jobUpdateTopic, String destinationFolder){
+        this.downloadTopic = downloadTopic;
+        this.pauseTopic = pauseTopic;
+        this.jobUpdateTopic = jobUpdateTopic;
+        this.destinationFolder = destinationFolder;
+    }
+
+    public static ComponentConfig fromArgs(String[] args){
+        return fromArgs(args, System.getenv());
+    }
+
+    // The secrets are taken from the environment, not from the arguments
+    static ComponentConfig fromArgs(String[] args, Map<String, String> environment){
+        ComponentConfig config = new ComponentConfig(args[0], args[1], args[2], args[3]);
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 4; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator <= 0) {
+                System.err.println("Ignoring malformed argument: " + args[i]);
+                continue;
+            }
+            options.put(args[i].substring(0, separator), args[i].substring(separator + 1).trim());
+        }
+        config.maxConcurrency = positiveInteger(options.get("MAX_CONCURRENCY"));
+        config.targetThroughputGbps = positiveDouble(options.get("TARGET_THROUGHPUT_GBPS"));
+        config.minimumPartSizeBytes = positiveLong(options.get("MINIMUM_PART_SIZE_BYTES"));
+        String controlTopic = options.get("CONTROL_TOPIC");
+        config.controlTopic = controlTopic == null || controlTopic.isEmpty() ? null : controlTopic;
+        String fileReadyTopic = options.get("FILE_READY_TOPIC");
+        config.fileReadyTopic = fileReadyTopic == null || fileReadyTopic.isEmpty() ? null : fileReadyTopic;
+        String streamTopic = options.get("STREAM_TOPIC");
+        config.streamTopic = streamTopic == null || streamTopic.isEmpty() ? null : streamTopic;
+        Long streamStepBytes = positiveLong(options.get("STREAM_STEP_BYTES"));
+        if (streamStepBytes != null) {
+            config.streamStepBytes = streamStepBytes;
+        }
+        String metricsTopic = options.get("METRICS_TOPIC");
+        config.metricsTopic = metricsTopic == null || metricsTopic.isEmpty() ? null : metricsTopic;
+        Long maxBytesPerSecond = positiveLong(options.get("MAX_BYTES_PER_SECOND"));
+        config.maxBytesPerSecond = maxBytesPerSecond == null ? 0 : maxBytesPerSecond;
+        Integer maxActiveDownloads = positiveInteger(options.get("MAX_ACTIVE_DOWNLOADS"));
+        if (maxActiveDownloads != null) {
+            config.maxActiveDownloads = maxActiveDownloads;
+        }
+        Long progressIntervalMillis = positiveLong(options.get("PROGRESS_INTERVAL_MS"));
+        if (progressIntervalMillis != null) {
+            config.progressIntervalMillis = progressIntervalMillis;
+        }
+        Double progressMinDeltaPercent = positiveDouble(options.get("PROGRESS_MIN_DELTA_PERCENT"));
+        if (progressMinDeltaPercent != null) {
+            config.progressMinDeltaPercent = progressMinDeltaPercent;
+        }
+        Integer batchMaxConcurrentObjects = positiveInteger(options.get("BATCH_MAX_CONCURRENT_OBJECTS"));
+        if (batchMaxConcurrentObjects != null) {
+            config.batchMaxConcurrentObjects = batchMaxConcurrentObjects;
+        }
+        config.dedupHardLinks = "true".equalsIgnoreCase(options.get("DEDUP_HARD_LINKS"));
+        config.verifyS3Checksums = "true".equalsIgnoreCase(options.get("VERIFY_S3_CHECKSUMS"));
+        Long parallelPartSizeBytes = positiveLong(options.get("PARALLEL_PART_SIZE_BYTES"));
+        config.parallelPartSizeBytes = parallelPartSizeBytes == null ? 0 : parallelPartSizeBytes;
+        Integer parallelPartsPerObject = positiveInteger(options.get("PARALLEL_PARTS_PER_OBJECT"));
+        if (parallelPartsPerObject != null) {
+            config.parallelPartsPerObject = parallelPartsPerObject;
+        }
+        Long checkpointIntervalMillis = positiveLong(options.get("CHECKPOINT_INTERVAL_MS"));
+        if (checkpointIntervalMillis != null) {
+            config.checkpointIntervalMillis = checkpointIntervalMillis;
+        }
+        Long checkpointIntervalBytes = positiveLong(options.get("CHECKPOINT_INTERVAL_BYTES"));
+        if (checkpointIntervalBytes != null) {
+            config.checkpointIntervalBytes = checkpointIntervalBytes;
+        }
+        Long metricsIntervalMillis = positiveLong(options.get("METRICS_INTERVAL_MS"));
+        if (metricsIntervalMillis != null) {
+            config.metricsIntervalMillis = metricsIntervalMillis;
+        }
+        Integer metricsPort = positiveInteger(options.get("METRICS_PORT"));
+        config.metricsPort = metricsPort == null ? 0 : metricsPort;
+        Integer retryMaxAttempts = positiveInteger(options.get("RETRY_MAX_ATTEMPTS"));
+        if (retryMaxAttempts != null) {
+            config.retryMaxAttempts = retryMaxAttempts;
+        } else if ("0".equals(options.get("RETRY_MAX_ATTEMPTS"))) {
+            config.retryMaxAttempts = 0;
+        }
+        Long retryBaseDelayMillis = positiveLong(options.get("RETRY_BASE_DELAY_MS"));
+        if (retryBaseDelayMillis != null) {
+            config.retryBaseDelayMillis = retryBaseDelayMillis;
+        }
+        Long retryMaxDelayMillis = positiveLong(options.get("RETRY_MAX_DELAY_MS"));
+        if (retryMaxDelayMillis != null) {
+            config.retryMaxDelayMillis = retryMaxDelayMillis;
+        }
+        config.diskSpaceCheck = "true".equalsIgnoreCase(options.get("DISK_SPACE_CHECK"));
+        Long diskHeadroomBytes = positiveLong(options.get("DISK_HEADROOM_BYTES"));
+        if (diskHeadroomBytes != null) {
+            config.diskHeadroomBytes = diskHeadroomBytes;
+        } else if ("0".equals(options.get("DISK_HEADROOM_BYTES"))) {
+            config.diskHeadroomBytes = 0;
+        }
+        config.preallocateFiles = "true".equalsIgnoreCase(options.get("PREALLOCATE_FILES"));
+        config.virtualThreads = "true".equalsIgnoreCase(options.get("VIRTUAL_THREADS"));
+        Long storeQuotaBytes = positiveLong(options.get("STORE_QUOTA_BYTES"));
+        config.storeQuotaBytes = storeQuotaBytes == null ? 0 : storeQuotaBytes;
+        if ("LFU".equalsIgnoreCase(options.get("STORE_EVICTION"))) {
+            config.storeEviction = ManagedStore.Policy.LFU;
+        }
+        Integer peerPort = positiveInteger(options.get("PEER_PORT"));
+        config.peerPort = peerPort == null ? 0 : peerPort;
+        String peers = options.get("PEERS");
+        if (peers != null) {
+            for (String peer : peers.split(",")) {
+                if (!peer.trim().isEmpty()) {
+                    config.peers.add(peer.trim());
+                }
+            }
+        }
+        String peerToken = environment.get("PEER_TOKEN");
+        config.peerToken = peerToken == null || peerToken.isEmpty() ? null : peerToken;
+        Long stagingMaxAgeHours = positiveLong(options.get("STAGING_MAX_AGE_HOURS"));
+        if (stagingMaxAgeHours != null) {
+            config.stagingMaxAgeHours = stagingMaxAgeHours;
+        } else if ("0".equals(options.get("STAGING_MAX_AGE_HOURS"))) {
+            config.stagingMaxAgeHours = 0;
+        }
+        return config;
+    }
+
+    static Integer positiveInteger(String value){
+        Long parsed = positiveLong(value);
+        return parsed == null ? null : Integer.valueOf((int) Math.min(parsed, Integer.MAX_VALUE));
+    }
+
+    static Long positiveLong(String value){
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            long parsed = Long.parseLong(value);
+            return parsed > 0 ? parsed : null;
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid number: " + value);
+            return null;
+        }
+    }
+
+    static Double positiveDouble(String value){
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            double parsed = Double.parseDouble(value);
+            return parsed > 0 ? parsed : null;
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid number: " + value);
+            return null;
+        }
+    }
+}
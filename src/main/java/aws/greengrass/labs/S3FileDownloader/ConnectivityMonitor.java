@@ -0,0 +1,87 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Holds the downloads which lost the network until S3 answers again. Each waiting download
+// probes S3 with a HEAD request of its object, with a growing delay. When one of them gets an
+// answer, all the waiting downloads resume without waiting for their own next probe.
+// It waits on a lock rather than a monitor, a virtual thread blocked in a synchronized block
+// would keep its carrier thread.
+public class ConnectivityMonitor {
+    // Sends one request to S3, any answer from S3 means the network is back
+    public interface Probe {
+        CompletableFuture<?> send();
+    }
+
+    static final long PROBE_TIMEOUT_MILLIS = 10000;
+
+    RetryPolicy retryPolicy;
+    // Number of times the network came back, guarded by lock
+    long recoveries;
+    ReentrantLock lock = new ReentrantLock();
+    Condition recovery = lock.newCondition();
+
+    public ConnectivityMonitor(RetryPolicy retryPolicy){
+        this.retryPolicy = retryPolicy;
+    }
+
+    public boolean reachable(Probe probe) throws InterruptedException {
+        CompletableFuture<?> response = probe.send();
+        try {
+            response.get(PROBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            // An error answered by S3, e.g. 403, still shows that the network works
+            return RetryPolicy.classify(e.getCause()) != RetryPolicy.Failure.CONNECTION;
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            return false;
+        }
+    }
+
+    // Waits until a probe gets an answer, the caller found S3 unreachable
+    public void awaitOnline(Probe probe) throws InterruptedException {
+        long seen;
+        lock.lock();
+        try {
+            seen = recoveries;
+        } finally {
+            lock.unlock();
+        }
+        for (int attempt = 0; ; attempt++) {
+            long deadline = System.currentTimeMillis() + retryPolicy.backoffMillis(RetryPolicy.Failure.CONNECTION, attempt);
+            lock.lock();
+            try {
+                for (long remaining = deadline - System.currentTimeMillis(); recoveries == seen && remaining > 0;
+                        remaining = deadline - System.currentTimeMillis()) {
+                    recovery.await(remaining, TimeUnit.MILLISECONDS);
+                }
+                if (recoveries != seen) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (reachable(probe)) {
+                recovered();
+                return;
+            }
+        }
+    }
+
+    void recovered(){
+        lock.lock();
+        try {
+            recoveries++;
+            recovery.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        System.out.println("S3 is reachable again, resuming the downloads");
+    }
+}
@@ -0,0 +1,14 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+// Runtime settings received on the control topic.
+// Without a jobId the bandwidth limit applies to all downloads together,
+// with a jobId it only applies to that download. 0 removes the limit.
+public class ControlCommand {
+    public String jobId;
+    public Long maxBytesPerSecond;
+
+    public ControlCommand(String jobId, Long maxBytesPerSecond){
+        this.jobId = jobId;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+}
@@ -0,0 +1,203 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+// Downloads a new version of an object by fetching only the blocks which changed. The block
+// signatures of the object come from its BlockManifest. The blocks found in the previous
+// version of the file are copied to the staged file first and listed as completed parts of a
+// ParallelDownload, which then fetches the missing blocks with ranged GETs and can pause and
+// resume like any parallel download. The whole file is checked against the manifest before
+// it replaces the previous version.
+// Without a previous version, a manifest or a staging area, it is a regular download.
+public class DeltaDownloader extends Downloader {
+    // Loaded when the download is seeded or verified
+    BlockManifest manifest;
+    // Checksum given by the job, verified on the assembled file
+    StreamingChecksum expectedChecksum;
+    // Bytes copied from the previous version, -1 when the download wasn't seeded by this run
+    long bytesReused = -1;
+
+    public DeltaDownloader(String jobUpdate, String bucketName, String keyName, String jobId, String filePath,
+                            IoTManager iotManager, S3TransferManager transferManager){
+        super(jobUpdate, bucketName, keyName, jobId, filePath, iotManager, transferManager);
+    }
+
+    @Override
+    void seedWorkFile(String bucket_name, String key_name, String work_path)
+                        throws InterruptedException, ExecutionException, IOException {
+        Path previous = Paths.get(filePath);
+        Path work = Paths.get(work_path);
+        if (ParallelDownload.isResume(work_path) || work.equals(previous) || !Files.exists(previous)) {
+            return;
+        }
+        BlockManifest manifest = manifest(bucket_name, key_name);
+        if (manifest == null) {
+            return;
+        }
+        HeadObjectResponse head = s3Client.headObject(request -> request.bucket(bucket_name).key(key_name)).get();
+        if (head.contentLength() != manifest.size) {
+            System.err.println("The block manifest of " + key_name + " doesn't match the object, downloading all of it");
+            return;
+        }
+
+        // Where each block of the previous version is, by signature
+        Map<String, Long> previousBlocks = new HashMap<String, Long>();
+        byte[] block = new byte[manifest.blockSize];
+        try (InputStream in = new FileInputStream(previous.toFile())) {
+            long position = 0;
+            for (int length = BlockManifest.read(in, block); length > 0; length = BlockManifest.read(in, block)) {
+                checkInterrupted();
+                previousBlocks.putIfAbsent(BlockManifest.hash(block, length), position);
+                position += length;
+            }
+        }
+
+        ParallelDownload.State state = new ParallelDownload.State();
+        state.bucket = bucket_name;
+        state.key = key_name;
+        state.eTag = head.eTag();
+        state.size = manifest.size;
+        state.partSize = manifest.blockSize;
+        long reused = 0;
+        Files.createDirectories(work.getParent());
+        try (RandomAccessFile source = new RandomAccessFile(previous.toFile(), "r");
+                RandomAccessFile target = new RandomAccessFile(work.toFile(), "rw")) {
+            // A staged file left by an interrupted attempt may already have some of the blocks
+            long staged = Math.min(target.length(), manifest.size);
+            target.setLength(manifest.size);
+            for (int i = 0; i < manifest.blockCount(); i++) {
+                checkInterrupted();
+                int length = manifest.blockLength(i);
+                long position = (long) i * manifest.blockSize;
+                if (position + length <= staged) {
+                    target.seek(position);
+                    target.readFully(block, 0, length);
+                    if (BlockManifest.hash(block, length).equals(manifest.blocks.get(i))) {
+                        state.completedParts.add(i);
+                        continue;
+                    }
+                }
+                Long found = previousBlocks.get(manifest.blocks.get(i));
+                if (found != null) {
+                    source.seek(found);
+                    source.readFully(block, 0, length);
+                    target.seek(position);
+                    target.write(block, 0, length);
+                    state.completedParts.add(i);
+                    reused += length;
+                }
+            }
+            target.getFD().sync();
+        }
+        ParallelDownload.saveState(work, state);
+        bytesReused = reused;
+        System.out.println("Delta of " + key_name + ": " + state.completedParts.size() + " of " + manifest.blockCount()
+                            + " blocks already on the device, " + reused + " bytes reused");
+    }
+
+    // The manifest stored next to the object, null when there is none
+    BlockManifest manifest(String bucket_name, String key_name) throws InterruptedException, ExecutionException {
+        if (manifest == null) {
+            try {
+                String json = s3Client.getObject(request -> request.bucket(bucket_name).key(key_name + BlockManifest.SUFFIX),
+                                                    AsyncResponseTransformer.toBytes()).get().asString(StandardCharsets.UTF_8);
+                manifest = BlockManifest.fromJson(json);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof NoSuchKeyException)) {
+                    throw e;
+                }
+                System.out.println("No block manifest for " + key_name + ", downloading all of it");
+            } catch (RuntimeException e) {
+                System.err.println("Could not read the block manifest of " + key_name + ", downloading all of it: " + e);
+            }
+        }
+        return manifest;
+    }
+
+    // The job checksum can't be computed while the blocks arrive out of order, it is checked
+    // on the assembled file instead
+    @Override
+    StreamingChecksum streamingChecksum(String bucket_name, String key_name) throws InterruptedException, ExecutionException {
+        expectedChecksum = StreamingChecksum.expected(checksumAlgorithm, checksum);
+        return null;
+    }
+
+    @Override
+    boolean verified(String work_path) throws IOException {
+        BlockManifest manifest;
+        try {
+            manifest = manifest(bucketName, keyName);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Could not read the block manifest of " + keyName, e);
+        }
+        if (manifest == null && expectedChecksum == null) {
+            return true;
+        }
+        Path work = Paths.get(work_path);
+        if (manifest != null && Files.size(work) != manifest.size) {
+            System.err.println(work_path + " doesn't have the size of the block manifest");
+            return false;
+        }
+        int blockSize = manifest == null ? BlockManifest.DEFAULT_BLOCK_SIZE : manifest.blockSize;
+        byte[] block = new byte[blockSize];
+        if (expectedChecksum != null) {
+            expectedChecksum.restart();
+        }
+        try (InputStream in = new FileInputStream(work.toFile())) {
+            int i = 0;
+            for (int length = BlockManifest.read(in, block); length > 0; length = BlockManifest.read(in, block), i++) {
+                if (manifest != null && !BlockManifest.hash(block, length).equals(manifest.blocks.get(i))) {
+                    System.err.println("Block " + i + " of " + work_path + " doesn't match the block manifest");
+                    return false;
+                }
+                if (expectedChecksum != null) {
+                    expectedChecksum.update(ByteBuffer.wrap(block, 0, length));
+                }
+            }
+        }
+        if (expectedChecksum != null && !expectedChecksum.matches()) {
+            System.err.println("Checksum mismatch " + jobId + ": " + expectedChecksum.algorithm + " " + expectedChecksum.encoded());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    void publishResult(String job_id, String status, String reason, StreamingChecksum streamingChecksum){
+        if (!status.equals("SUCCEEDED") || (bytesReused < 0 && expectedChecksum == null)) {
+            super.publishResult(job_id, status, reason, streamingChecksum);
+            return;
+        }
+        JobUpdate update = new JobUpdate(job_id, status, bytesReused < 0 ? reason : "patched");
+        if (bytesReused >= 0) {
+            update.bytesReused = bytesReused;
+        }
+        if (expectedChecksum != null) {
+            update.checksumAlgorithm = expectedChecksum.algorithm;
+            update.checksum = expectedChecksum.encoded();
+        }
+        iotManager.publishUpdate(update);
+    }
+
+    static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Delta download interrupted");
+        }
+    }
+}
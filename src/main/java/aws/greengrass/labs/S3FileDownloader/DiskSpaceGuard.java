@@ -0,0 +1,88 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+// Admission control of the downloads against the free space of the destination folder.
+// Before it starts, a download reserves the bytes it still has to write. A job which doesn't
+// fit in the usable space minus the headroom and the reservations of the running downloads is
+// deferred, see DownloadScheduler.defer. A reservation shrinks as its download writes, the
+// usable space of the disk goes down by the same amount.
+public class DiskSpaceGuard {
+    public enum Admission { ADMITTED, DEFERRED, TOO_LARGE }
+
+    static class Reservation {
+        long bytes;
+        // Null until the transfer started
+        LongSupplier written;
+        long writtenAtStart;
+
+        Reservation(long bytes){
+            this.bytes = bytes;
+        }
+
+        long outstanding(){
+            return written == null ? bytes : Math.max(0, bytes - (written.getAsLong() - writtenAtStart));
+        }
+    }
+
+    File folder;
+    long headroomBytes;
+    // Reservations by jobId, guarded by this
+    Map<String, Reservation> reservations = new HashMap<String, Reservation>();
+
+    public DiskSpaceGuard(File folder, long headroomBytes){
+        this.folder = folder;
+        this.headroomBytes = headroomBytes;
+        folder.mkdirs();
+    }
+
+    // Reserves the bytes a download still needs. A job larger than the whole disk can never fit.
+    public synchronized Admission reserve(String jobId, long bytes){
+        reservations.remove(jobId);
+        if (bytes > totalSpace() - headroomBytes) {
+            return Admission.TOO_LARGE;
+        }
+        if (bytes > usableSpace() - headroomBytes - outstanding()) {
+            return Admission.DEFERRED;
+        }
+        reservations.put(jobId, new Reservation(bytes));
+        return Admission.ADMITTED;
+    }
+
+    // Called once the transfer started, written returns the bytes written so far
+    public synchronized void track(String jobId, LongSupplier written){
+        Reservation reservation = reservations.get(jobId);
+        if (reservation != null) {
+            reservation.written = written;
+            reservation.writtenAtStart = written.getAsLong();
+        }
+    }
+
+    // The file was preallocated, the disk space is already taken
+    public synchronized void allocated(String jobId){
+        reservations.remove(jobId);
+    }
+
+    public synchronized void release(String jobId){
+        reservations.remove(jobId);
+    }
+
+    long totalSpace(){
+        return folder.getTotalSpace();
+    }
+
+    long usableSpace(){
+        return folder.getUsableSpace();
+    }
+
+    synchronized long outstanding(){
+        long total = 0;
+        for (Reservation reservation : reservations.values()) {
+            total += reservation.outstanding();
+        }
+        return total;
+    }
+}
@@ -1,9 +1,37 @@
 package aws.greengrass.labs.S3FileDownloader;
 
+import java.util.List;
+
 public class DownloadJob {
     public String jobId;
     public String s3Bucket;
     public String key;
+    // Optional, jobs with a higher priority start first when downloads are queued
+    public int priority;
+    // Optional bandwidth limit of this download, 0 means only the global limit applies
+    public long maxBytesPerSecond;
+    // Optional, a batch job downloads these keys and/or every object under the prefix
+    // instead of a single key
+    public List<String> keys;
+    public String prefix;
+    // Optional checksum of the object, CRC32C or SHA256 as base64 or hex. The download fails
+    // and the file is quarantined when it doesn't match.
+    public String checksumAlgorithm;
+    public String checksum;
+    // Optional, extracts a .tar, .tar.gz, .tgz or .zip object to a folder named after it while it
+    // downloads, or decompresses a .gz object. The object itself isn't kept.
+    public boolean extract;
+    // Optional, only fetches the blocks which changed since the previous version of the file,
+    // using the block manifest stored next to the object as <key>.blocks
+    public boolean delta;
+    // Optional, only downloads these byte ranges of the object: "<start>-<end>", "<start>-" or
+    // "-<last bytes>". They are written at their offset in a sparse file of the object size,
+    // or each to its own <key>.<start>-<end> file with rangeFiles.
+    public List<String> ranges;
+    public boolean rangeFiles;
+    // Optional, downloads the object in order and publishes how far its staged file can be
+    // read on the STREAM_TOPIC, so a consumer starts before the download completes
+    public boolean stream;
     
     public DownloadJob(String jobId, String s3Bucket, String key){
         this.jobId = jobId;
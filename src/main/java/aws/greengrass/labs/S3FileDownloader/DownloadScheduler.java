@@ -0,0 +1,104 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs the download jobs on a bounded pool of worker threads, virtual threads when enabled.
+// The pool bounds the number of active downloads, not the number of operating system threads.
+// Jobs that cannot start immediately wait in a pending queue ordered by priority
+// (higher first), jobs with the same priority start in the order they were received.
+// Jobs which don't fit on the disk are set aside and submitted again periodically and whenever
+// a download ends, see DiskSpaceGuard.
+public class DownloadScheduler {
+    static final long DEFERRED_RETRY_MILLIS = 30000;
+
+    // Orders the pending queue, it only ever contains Downloader tasks
+    static final Comparator<Runnable> PRIORITY_ORDER = (a, b) -> {
+        Downloader first = (Downloader) a;
+        Downloader second = (Downloader) b;
+        if (first.priority != second.priority) {
+            return Integer.compare(second.priority, first.priority);
+        }
+        return Long.compare(first.sequence, second.sequence);
+    };
+
+    int maxActiveDownloads;
+    PriorityBlockingQueue<Runnable> pendingQueue;
+    ThreadPoolExecutor executor;
+    AtomicLong sequence = new AtomicLong();
+    Set<Downloader> deferred = ConcurrentHashMap.newKeySet();
+    ScheduledExecutorService deferredTimer;
+
+    public DownloadScheduler(int maxActiveDownloads){
+        this(maxActiveDownloads, false);
+    }
+
+    public DownloadScheduler(int maxActiveDownloads, boolean virtualThreads){
+        this.maxActiveDownloads = maxActiveDownloads;
+        this.pendingQueue = new PriorityBlockingQueue<Runnable>(11, PRIORITY_ORDER);
+        ThreadFactory threadFactory = VirtualThreads.factory("downloader-", virtualThreads);
+        this.executor = new ThreadPoolExecutor(maxActiveDownloads, maxActiveDownloads,
+                                                0L, TimeUnit.MILLISECONDS, pendingQueue, threadFactory);
+        this.deferredTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "deferred-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.deferredTimer.scheduleWithFixedDelay(this::resubmitDeferred, DEFERRED_RETRY_MILLIS, DEFERRED_RETRY_MILLIS,
+                                                    TimeUnit.MILLISECONDS);
+    }
+
+    // Adds the download to the pending queue, it starts as soon as a worker is free
+    public void submit(Downloader downloader){
+        downloader.sequence = sequence.getAndIncrement();
+        executor.execute(downloader);
+    }
+
+    // Sets aside a download which doesn't fit on the disk, it keeps its place in the queue
+    public void defer(Downloader downloader){
+        deferred.add(downloader);
+    }
+
+    // Queues the deferred downloads again, they are checked against the free space when they start
+    public void resubmitDeferred(){
+        for (Downloader downloader : deferred) {
+            if (deferred.remove(downloader) && !executor.isShutdown()) {
+                executor.execute(downloader);
+            }
+        }
+    }
+
+    // Removes a download which has not started yet, returns false if it is already running
+    public boolean remove(Downloader downloader){
+        return executor.remove(downloader) || deferred.remove(downloader);
+    }
+
+    public int queueDepth(){
+        return pendingQueue.size() + deferred.size();
+    }
+
+    public int activeCount(){
+        return executor.getActiveCount();
+    }
+
+    // Stops accepting jobs and waits for the running downloads to finish or pause
+    public void shutdown(long timeoutMillis){
+        deferredTimer.shutdown();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                System.err.println("Downloads did not stop in " + timeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,93 +1,741 @@
 package aws.greengrass.labs.S3FileDownloader;
 
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedDownload;
+import software.amazon.awssdk.transfer.s3.model.CompletedFileDownload;
 import software.amazon.awssdk.transfer.s3.model.ResumableFileDownload;
 import software.amazon.awssdk.transfer.s3.model.FileDownload;
 import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
-import software.amazon.awssdk.transfer.s3.progress.TransferProgress;
+import software.amazon.awssdk.transfer.s3.progress.TransferListener;
 
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.OptionalDouble;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongSupplier;
 
 import java.io.File;
+import java.io.IOException;
 
-public class Downloader extends Thread{
+public class Downloader implements Runnable{
     String bucketName;
     String keyName;
     String jobId;
     String filePath;
     String jobUpdateTopic;
     IoTManager iotManager;
+    S3TransferManager transferManager;
+    // Scheduling order, see DownloadScheduler
+    int priority;
+    long sequence;
+    // The worker thread running this download, null while it is queued or after it ended
+    Thread workerThread;
+    boolean pauseRequested;
+    boolean restartRequested;
+    boolean cancelRequested;
+    // Bandwidth limiters, the global one is shared by all downloads
+    BandwidthLimiter globalLimiter;
+    BandwidthLimiter jobLimiter = new BandwidthLimiter(0);
+    volatile boolean throttled;
+    // Skips unchanged objects, null when the job doesn't use the local cache
+    ObjectCache objectCache;
+    // Objects larger than one part are fetched with parallel ranged GETs, 0 disables it
+    S3AsyncClient s3Client;
+    long partSizeBytes;
+    int partConcurrency;
+    // Rewrites the resume file while the download runs, null disables it
+    Checkpointer checkpointer;
+    // Checksum expected by the job, see StreamingChecksum
+    String checksumAlgorithm;
+    String checksum;
+    // Verifies the objects which have an S3 additional checksum when the job doesn't give one
+    boolean verifyS3Checksums;
+    // Files which failed the verification are moved there, deleted when null
+    Path quarantineFolder;
+    // Partial files are written there, null writes them in place
+    StagingArea staging;
+    // Transient failures are retried from the checkpoint, null fails the job at the first error
+    RetryPolicy retryPolicy;
+    // Holds the download while S3 is unreachable, shared by all downloads
+    ConnectivityMonitor connectivity;
+    // Retries used by the job and the failure which ended the last attempt
+    int attempts;
+    RetryPolicy.Failure lastFailure;
+    // Admission against the free disk space, null starts the downloads without checking it
+    DiskSpaceGuard diskSpace;
+    // Evicts completed files when the job doesn't fit on the disk, null leaves them
+    ManagedStore store;
+    // Other cores of the site which may have the object, null downloads from S3 only
+    PeerSource peers;
+    // Downloads in order and publishes how far the file can be read, see StreamReporter
+    boolean stream;
+    // Writes the whole file of a parallel download before its first part
+    boolean preallocate;
+    // Size of the object once read for the admission, -1 before
+    long objectSize = -1;
+    // Set when the job didn't fit on the disk, see DownloadScheduler.defer
+    boolean deferred;
+    boolean waitingForSpace;
 
-    public Downloader(String jobUpdate, String bucketName, String keyName, String jobId, String filePath, IoTManager iotManager){
-        super(jobId);
+    public Downloader(String jobUpdate, String bucketName, String keyName, String jobId, String filePath,
+                        IoTManager iotManager, S3TransferManager transferManager){
         this.jobId = jobId;
         this.bucketName = bucketName;
         this.keyName = keyName;
         this.filePath = filePath;
         this.jobUpdateTopic = jobUpdate;
         this.iotManager = iotManager;
+        this.transferManager = transferManager;
     }
 
-    // Thread starting point
+    // Starting point when a scheduler worker picks up the job
     public void run(){
-        // Initiate the download job
-        downloadFile(bucketName, keyName, jobId, filePath);
+        synchronized (this) {
+            if (pauseRequested) {
+                // Paused before a worker could start it
+                if (cancelRequested) {
+                    discard();
+                }
+                publishStopped();
+                iotManager.downloadEnd(this);
+                return;
+            }
+            workerThread = Thread.currentThread();
+        }
+        boolean requeue;
+        try {
+            // Initiate the download job
+            download();
+        } finally {
+            synchronized (this) {
+                workerThread = null;
+                requeue = restartRequested;
+            }
+            if (diskSpace != null) {
+                diskSpace.release(jobId);
+            }
+            // Notify the application when a download finished, the worker is released
+            // first so a pause sent to the requeued job can't reach this thread
+            if (requeue) {
+                iotManager.requeue(this);
+            } else if (deferred) {
+                deferred = false;
+                iotManager.defer(this);
+            } else {
+                iotManager.downloadEnd(this);
+            }
+        }
+    }
+
+    // Interrupts the running download, which persists its resume file.
+    // The worker is released once the job ended, so a late pause can't hit the next job.
+    public synchronized void pause(){
+        pauseRequested = true;
+        if (workerThread != null) {
+            workerThread.interrupt();
+        }
+    }
+
+    // Pauses the running download and queues it again, it continues from the resume file.
+    // Used when a bandwidth limit is set for a download that started without one.
+    public synchronized void restart(){
+        if (workerThread != null) {
+            restartRequested = true;
+            pause();
+        }
+    }
+
+    // Stops the download like a pause, then deletes what was downloaded
+    public synchronized void cancel(){
+        cancelRequested = true;
+        pause();
+    }
+
+    // Reports a download stopped by a pause or a cancel. A canceled job ends, a paused
+    // one waits to be sent again.
+    void publishStopped(){
+        if (cancelRequested) {
+            iotManager.publishUpdate(jobId, "CANCELED", "canceled");
+        } else {
+            iotManager.publishUpdate(jobId, "IN_PROGRESS", "paused");
+        }
+    }
+
+    // Deletes the partial file and its resume files of a canceled job
+    void discard(){
+        String path = workingPath();
+        for (String suffix : new String[] {"", ".resume-download", ".resume-parts"}) {
+            try {
+                Files.deleteIfExists(Paths.get(path + suffix));
+            } catch (IOException e) {
+                System.err.println("Could not delete " + path + suffix + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // The paths the job writes or reads with their resume files, the store doesn't evict or
+    // collect anything under them while the job is live
+    List<String> ownedPaths(){
+        List<String> paths = new ArrayList<String>();
+        paths.add(filePath);
+        paths.add(workingPath());
+        return paths;
+    }
+
+    boolean owns(String normalizedPath){
+        for (String path : ownedPaths()) {
+            if (normalizedPath.startsWith(ManagedStore.normalize(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The final path of the file, jobs for the same one share a transfer, see SingleFlight
+    String destinationPath(){
+        return filePath;
+    }
+
+    // The file written while the object downloads
+    String workingPath(){
+        return staging == null ? filePath : staging.path(bucketName, keyName).toString();
+    }
+
+    // Called by the scheduler before the job is queued again
+    synchronized void resetForRequeue(){
+        pauseRequested = false;
+        restartRequested = false;
+    }
+
+    // A download goes through the bandwidth limiters when a limit is set when it starts
+    boolean isThrottled(){
+        return (globalLimiter != null && globalLimiter.isLimited()) || jobLimiter.isLimited();
+    }
+
+    List<BandwidthLimiter> limiters(){
+        List<BandwidthLimiter> limiters = new ArrayList<BandwidthLimiter>();
+        if (globalLimiter != null) {
+            limiters.add(globalLimiter);
+        }
+        limiters.add(jobLimiter);
+        return limiters;
+    }
+
+    // Downloads what the job describes, a single object unless overridden
+    void download(){
+        while (downloadFile(bucketName, keyName, jobId, filePath) && awaitRetry()) {
+            // The next attempt continues from the checkpoint written when the previous one failed
+        }
+    }
+
+    // Decides whether a failed download is tried again, see awaitRetry
+    boolean retryLater(Throwable error){
+        if (retryPolicy == null) {
+            return false;
+        }
+        lastFailure = RetryPolicy.classify(error);
+        // A lost network doesn't use the retry budget
+        return (lastFailure == RetryPolicy.Failure.CONNECTION && connectivity != null)
+                || retryPolicy.retryable(lastFailure, attempts);
+    }
+
+    // Waits before the next attempt of a failed download. While S3 can't be reached the download
+    // waits for the network to come back. Returns false when the job ended meanwhile.
+    boolean awaitRetry(){
+        try {
+            if (lastFailure == RetryPolicy.Failure.CONNECTION && connectivity != null) {
+                ConnectivityMonitor.Probe probe = () -> s3Client.headObject(request -> request.bucket(bucketName).key(keyName));
+                if (!connectivity.reachable(probe)) {
+                    System.out.println("S3 is unreachable, waiting for the network " + jobId);
+                    iotManager.downloadRetried(lastFailure);
+                    iotManager.publishUpdate(jobId, "IN_PROGRESS", "waiting for network");
+                    connectivity.awaitOnline(probe);
+                    return true;
+                }
+                if (!retryPolicy.retryable(lastFailure, attempts)) {
+                    iotManager.publishUpdate(jobId, "FAILED", "fail");
+                    return false;
+                }
+            }
+            long delay = retryPolicy.backoffMillis(lastFailure, attempts++);
+            System.out.println("Retrying " + jobId + " in " + delay + " ms, attempt " + attempts + " after a "
+                                + lastFailure + " failure");
+            iotManager.downloadRetried(lastFailure);
+            iotManager.publishUpdate(jobId, "IN_PROGRESS", "retrying");
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            // Paused or canceled while waiting, the checkpoint is already written
+            if (cancelRequested) {
+                discard();
+            }
+            if (!restartRequested) {
+                publishStopped();
+            }
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     // This method starts downloading a file from an S3 bucket based on the job document.
-    // It uses S3 Transfer Manager to manage downloads. The download runs in its own thread.
-    // The download can be interrupted by the StreamHandler.java onStreamEvent method when there
-    // is a paused state in the shadow document.
-    private void downloadFile(String bucket_name, String key_name, String job_id,
+    // It uses S3 Transfer Manager to manage downloads. The download runs on a scheduler worker thread.
+    // The download can be interrupted by the IoTManager onStreamEvent method when a pause
+    // command is received. Returns true when a transient failure should be retried.
+    private boolean downloadFile(String bucket_name, String key_name, String job_id,
                                     String file_path) {
         System.out.println("Downloading " + bucket_name + " " + key_name);
 
-        new File(file_path).getParentFile().mkdirs();
+        // Written in the staging area with its resume files, moved to file_path once complete
+        String work_path = workingPath();
+        new File(work_path).getParentFile().mkdirs();
 
-        S3TransferManager transferManager = S3TransferManager.create();
+        // The Transfer Manager is shared by all downloads and owned by the application
         FileDownload xfer = null;
+        ThrottledDownload throttledDownload = null;
+        ParallelDownload parallelDownload = null;
+        StreamingChecksum streamingChecksum = null;
+        DownloadFileRequest request = null;
+        CompletableFuture<?> completion;
+        iotManager.downloadStarted(this);
         try {
-            if (isResume(file_path)){ // Resume if it is a resume job
+            // Nothing to download when the file is already up to date
+            if (objectCache != null && !isResume(work_path) && !ParallelDownload.isResume(work_path)
+                    && objectCache.reuse(bucket_name, key_name, file_path)) {
+                iotManager.publishFileReady(job_id, bucket_name, key_name, file_path);
+                iotManager.publishUpdate(job_id, "SUCCEEDED", "cached");
+                return false;
+            }
+            if (diskSpace != null && !admitted(bucket_name, key_name, job_id, work_path)) {
+                return false;
+            }
+            if (peers != null && !isResume(work_path) && !ParallelDownload.isResume(work_path)
+                    && fetchFromPeers(bucket_name, key_name, job_id, work_path, file_path)) {
+                return false;
+            }
+            throttled = isThrottled();
+            streamingChecksum = streamingChecksum(bucket_name, key_name);
+            if (stream && objectSize < 0) {
+                // Announced with the offsets so the consumer knows when the stream ends
+                objectSize = s3Client.headObject(req -> req.bucket(bucket_name).key(key_name)).get().contentLength();
+            }
+            ResumableFileDownload resumableFileDownload = null;
+            if (isResume(work_path)) {
+                resumableFileDownload = validateCheckpoint(
+                                            ResumableFileDownload.fromFile(Paths.get(work_path+".resume-download")), work_path);
+            } else {
+                seedWorkFile(bucket_name, key_name, work_path);
+            }
+            // Large objects are fetched in parallel ranges, unless they are verified or streamed which needs the
+            // bytes in order. A download with completed parts continues that way.
+            if ((partSizeBytes > 0 || ParallelDownload.isResume(work_path)) && resumableFileDownload == null
+                    && streamingChecksum == null && !stream) {
+                parallelDownload = ParallelDownload.open(s3Client, bucket_name, key_name, work_path, partSizeBytes,
+                                        partConcurrency, throttled ? limiters() : null,
+                                        ratio -> iotManager.reportProgress(job_id, ratio), preallocate);
+                if (parallelDownload != null && preallocate && diskSpace != null) {
+                    diskSpace.allocated(job_id);
+                }
+            }
+            if (parallelDownload != null){
+                completion = parallelDownload.completionFuture();
+            } else if (throttled || streamingChecksum != null || retryPolicy != null){
+                // Go through the bandwidth limiters or the checksum. A failed Transfer Manager
+                // download deletes its file, this one keeps the bytes for the next attempt.
+                if (resumableFileDownload != null){
+                    System.out.println("Resuming throttled... " + bucket_name + " " + key_name);
+                    throttledDownload = ThrottledDownload.resume(transferManager, resumableFileDownload,
+                                            throttled ? limiters() : null, streamingChecksum,
+                                            ratio -> iotManager.reportProgress(job_id, ratio));
+                } else {
+                    throttledDownload = ThrottledDownload.start(transferManager,
+                                            downloadFileRequest(bucket_name, key_name, work_path, null),
+                                            throttled ? limiters() : null, streamingChecksum,
+                                            ratio -> iotManager.reportProgress(job_id, ratio));
+                }
+                completion = throttledDownload.completionFuture();
+            } else if (resumableFileDownload != null){ // Resume if it is a resume job
                 System.out.println("Resuming... " + bucket_name + " " + key_name);
-                ResumableFileDownload resumableFileDownload = ResumableFileDownload.fromFile(Paths.get(file_path+".resume-download"));
-                xfer = transferManager.resumeDownloadFile(resumableFileDownload);
+                request = resumableFileDownload.downloadFileRequest();
+                xfer = transferManager.resumeDownloadFile(withProgressListener(resumableFileDownload));
+                completion = xfer.completionFuture();
             } else { // It is a new job, start downloading
-                software.amazon.awssdk.transfer.s3.model.DownloadFileRequest.Builder builder = 
-                                            DownloadFileRequest.builder()
-                                            .getObjectRequest(req -> req.bucket(bucket_name).key
-                                            (key_name))
-                                            .destination(Paths.get(file_path));
-                DownloadFileRequest downloadFileRequest = builder.build();
-                xfer = transferManager.downloadFile(downloadFileRequest);
-            }
-            do {
-                Thread.sleep(1000);
-                TransferProgress progress = xfer.progress();
-                OptionalDouble pct = progress.snapshot().ratioTransferred();
-                System.out.println("Progress "+ pct);
-                iotManager.publishUpdate(job_id, "IN_PROGRESS", Double.toString(pct.orElse(0.0)));
-            } while (xfer.completionFuture().isDone() == false);
-            if (xfer.completionFuture().isCompletedExceptionally()){
+                request = downloadFileRequest(bucket_name, key_name, work_path, null);
+                xfer = transferManager.downloadFile(request.toBuilder().addTransferListener(progressListener()).build());
+                completion = xfer.completionFuture();
+            }
+            iotManager.transferStarted(job_id, bytesWritten(work_path, parallelDownload));
+            if (diskSpace != null) {
+                diskSpace.track(job_id, bytesWritten(work_path, parallelDownload));
+            }
+            if (checkpointer != null) {
+                registerCheckpoint(job_id, work_path, xfer, request, throttledDownload, parallelDownload);
+            }
+            if (stream) {
+                iotManager.streamStarted(this, work_path, objectSize, bytesWritten(work_path, parallelDownload));
+            }
+            // The progress is reported by the transfer listener, wait for the end of the transfer
+            try {
+                Object completed = awaitCompletion(completion, job_id);
+                deleteResumeFile(work_path);
+                if (streamingChecksum != null && !streamingChecksum.matches()) {
+                    System.err.println("Checksum mismatch " + job_id + ": " + streamingChecksum.algorithm + " "
+                                        + streamingChecksum.encoded());
+                    quarantine(work_path);
+                    publishResult(job_id, "FAILED", "checksum mismatch", streamingChecksum);
+                    return false;
+                }
+                if (!verified(work_path)) {
+                    quarantine(work_path);
+                    iotManager.publishUpdate(job_id, "FAILED", "checksum mismatch");
+                    return false;
+                }
+                if (staging != null) {
+                    StagingArea.commit(Paths.get(work_path), Paths.get(file_path));
+                }
+                if (objectCache != null) {
+                    objectCache.recordDownload(bucket_name, key_name, file_path, response(completed));
+                }
+                iotManager.publishFileReady(job_id, bucket_name, key_name, file_path);
+                publishResult(job_id, "SUCCEEDED", "done", streamingChecksum);
+            } catch (ExecutionException e) {
+                System.err.println("Download failed " + job_id + ": " + e.getCause());
+                if (retryLater(e.getCause())) {
+                    // A parallel download already saved its parts
+                    if (throttledDownload != null) {
+                        persistFailedDownload(throttledDownload, work_path);
+                    }
+                    return true;
+                }
                 iotManager.publishUpdate(job_id, "FAILED", "fail");
-            } else if (xfer.completionFuture().isDone()){
-                iotManager.publishUpdate(job_id, "SUCCEEDED", "done");
             }
         } catch (InterruptedException e) {
             // This is called when the thread is interrupted
             // We use it to pause a download
-            pauseAndPersistDownload(xfer, file_path);
-            iotManager.publishUpdate(job_id, "IN_PROGRESS", "paused");
+            if (parallelDownload != null) {
+                pauseAndPersistDownload(parallelDownload, work_path);
+            } else if (throttledDownload != null) {
+                pauseAndPersistDownload(throttledDownload, work_path);
+            } else if (xfer != null) {
+                pauseAndPersistDownload(xfer, work_path);
+            }
+            if (cancelRequested) {
+                discard();
+            }
+            // A restarted download is queued again, see IoTManager.requeue
+            if (!restartRequested) {
+                publishStopped();
+            }
             Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Could not access " + work_path + ": " + e.getMessage());
+            iotManager.publishUpdate(job_id, "FAILED", "fail");
+        } catch (ExecutionException e) {
+            System.err.println("Could not read the object metadata " + job_id + ": " + e.getCause());
+            if (retryLater(e.getCause())) {
+                return true;
+            }
+            iotManager.publishUpdate(job_id, "FAILED", "fail");
         } catch (java.lang.IllegalMonitorStateException e){
             System.out.println("Exception caught : " + e.getMessage());
+        }
+        return false;
+    }
+
+    // Writes what is already known of the object before the transfer starts, nothing unless
+    // overridden. Not called when a Transfer Manager resume file exists.
+    void seedWorkFile(String bucket_name, String key_name, String work_path)
+                        throws InterruptedException, ExecutionException, IOException {
+    }
+
+    // Copies the object from a core of the site which has it, returns false when S3 has to be
+    // used. The peer transfers don't go through the bandwidth limiters, they stay on the LAN.
+    boolean fetchFromPeers(String bucket_name, String key_name, String job_id, String work_path, String file_path)
+                            throws InterruptedException, ExecutionException, IOException {
+        HeadObjectResponse head = s3Client.headObject(request -> request.bucket(bucket_name).key(key_name)).get();
+        long size = head.contentLength();
+        StreamingChecksum peerChecksum = streamingChecksum(bucket_name, key_name);
+        if (!peers.fetch(bucket_name, key_name, head.eTag(), size, Paths.get(work_path), peerChecksum,
+                            bytes -> iotManager.reportProgress(job_id, size == 0 ? 1 : (double) bytes / size))) {
+            return false;
+        }
+        if (staging != null) {
+            StagingArea.commit(Paths.get(work_path), Paths.get(file_path));
+        }
+        if (objectCache != null) {
+            // Recorded like a download from S3, this core can serve it too
+            objectCache.recordDownload(bucket_name, key_name, file_path,
+                GetObjectResponse.builder().eTag(head.eTag()).lastModified(head.lastModified()).build());
+        }
+        iotManager.publishFileReady(job_id, bucket_name, key_name, file_path);
+        publishResult(job_id, "SUCCEEDED", "peer", peerChecksum);
+        return true;
+    }
+
+    // Checks the complete file before it is published, the streaming checksum aside
+    boolean verified(String work_path) throws IOException {
+        return true;
+    }
+
+    // Reserves the disk space the download still needs. Returns false when the job was deferred
+    // until space is freed, or failed because the object can never fit.
+    boolean admitted(String bucket_name, String key_name, String job_id, String work_path)
+                        throws InterruptedException, ExecutionException, IOException {
+        if (objectSize < 0) {
+            objectSize = s3Client.headObject(request -> request.bucket(bucket_name).key(key_name)).get().contentLength();
+        }
+        long needed = Math.max(0, objectSize - bytesOnDisk(work_path));
+        switch (diskSpace.reserve(job_id, needed)) {
+            case ADMITTED:
+                return true;
+            case DEFERRED:
+                // Completed files of the store make room before the job waits
+                if (store != null && store.free(needed) > 0
+                        && diskSpace.reserve(job_id, needed) == DiskSpaceGuard.Admission.ADMITTED) {
+                    return true;
+                }
+                deferred = true;
+                if (!waitingForSpace) {
+                    waitingForSpace = true;
+                    System.out.println("Not enough disk space for " + job_id + ", " + needed + " bytes needed");
+                    iotManager.publishUpdate(job_id, "IN_PROGRESS", "waiting for disk space");
+                }
+                return false;
+            default:
+                System.err.println("Object " + key_name + " of " + objectSize + " bytes can't fit on the disk");
+                iotManager.publishUpdate(job_id, "FAILED", "insufficient disk space");
+                return false;
+        }
+    }
+
+    // The bytes of the object already written by a paused download
+    long bytesOnDisk(String work_path) throws IOException {
+        if (isResume(work_path)) {
+            return Files.exists(Paths.get(work_path)) ? Files.size(Paths.get(work_path)) : 0;
+        }
+        return ParallelDownload.completedBytes(work_path);
+    }
+
+    // The checksum to verify while downloading, null when there is none. The one of the job
+    // comes first, the S3 additional checksum of the object is read with a HEAD request.
+    StreamingChecksum streamingChecksum(String bucket_name, String key_name) throws InterruptedException, ExecutionException {
+        StreamingChecksum expected = StreamingChecksum.expected(checksumAlgorithm, checksum);
+        if (expected != null || !verifyS3Checksums || s3Client == null) {
+            return expected;
+        }
+        return StreamingChecksum.fromObject(s3Client.headObject(request -> request.bucket(bucket_name).key(key_name)
+                                                .checksumMode(ChecksumMode.ENABLED)).get());
+    }
+
+    // Publishes the end of the download, with the checksum when it was verified
+    void publishResult(String job_id, String status, String reason, StreamingChecksum streamingChecksum){
+        if (streamingChecksum == null) {
+            iotManager.publishUpdate(job_id, status, reason);
+            return;
+        }
+        JobUpdate update = new JobUpdate(job_id, status, reason);
+        update.checksumAlgorithm = streamingChecksum.algorithm;
+        update.checksum = streamingChecksum.encoded();
+        iotManager.publishUpdate(update);
+    }
+
+    // Moves a file which failed the verification out of the destination folder
+    void quarantine(String file_path){
+        Path file = Paths.get(file_path);
+        try {
+            if (quarantineFolder == null) {
+                Files.deleteIfExists(file);
+                return;
+            }
+            Path target = quarantineFolder.resolve(keyName);
+            Files.createDirectories(target.getParent());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Quarantined " + file_path + " to " + target);
+        } catch (IOException e) {
+            System.err.println("Could not quarantine " + file_path + ": " + e.getMessage());
+        }
+    }
+
+    // Waits for the end of the transfer, the checkpoints stop before the final resume file is written
+    Object awaitCompletion(CompletableFuture<?> completion, String job_id) throws InterruptedException, ExecutionException {
+        try {
+            // The interrupt of a pause received while the transfer was starting can be cleared by
+            // the file operations on the way, the transfer would then run to its end
+            synchronized (this) {
+                if (pauseRequested) {
+                    throw new InterruptedException("Paused while the transfer was starting");
+                }
+            }
+            return completion.get();
         } finally {
-            //xfer_mgr.shutdownNow();
-            transferManager.close();
-            // Notify the application when a download finished
-            iotManager.downloadEnd(job_id);
+            if (checkpointer != null) {
+                checkpointer.unregister(job_id);
+            }
         }
-        
+    }
+
+    void registerCheckpoint(String job_id, String file_path, FileDownload xfer, DownloadFileRequest request,
+                            ThrottledDownload throttledDownload, ParallelDownload parallelDownload){
+        if (parallelDownload != null) {
+            checkpointer.register(job_id, bytesWritten(file_path, parallelDownload), parallelDownload::checkpoint);
+            return;
+        }
+        checkpointer.register(job_id, bytesWritten(file_path, null), () -> {
+            ResumableFileDownload resumableFileDownload = throttledDownload != null ? throttledDownload.checkpoint()
+                                                                                    : checkpoint(xfer, request, file_path);
+            if (resumableFileDownload != null) {
+                writeResumeFile(resumableFileDownload, file_path);
+            }
+        });
+    }
+
+    // The bytes of the object written so far. The file of a parallel download is preallocated,
+    // the others grow as the bytes arrive.
+    static LongSupplier bytesWritten(String file_path, ParallelDownload parallelDownload){
+        if (parallelDownload != null) {
+            return parallelDownload.transferredBytes::get;
+        }
+        return new File(file_path)::length;
+    }
+
+    // Describes a running Transfer Manager download like pause() does, without stopping it.
+    // The CRT client writes the file in order, the bytes on the disk are a valid prefix.
+    ResumableFileDownload checkpoint(FileDownload xfer, DownloadFileRequest request, String file_path) throws IOException {
+        Optional<SdkResponse> response = xfer.progress().snapshot().sdkResponse();
+        if (!response.isPresent() || !(response.get() instanceof GetObjectResponse)) {
+            // The response headers didn't arrive yet
+            return null;
+        }
+        GetObjectResponse getObjectResponse = (GetObjectResponse) response.get();
+        Path path = Paths.get(file_path);
+        return ResumableFileDownload.builder()
+                        .downloadFileRequest(request)
+                        .bytesTransferred(syncedLength(path))
+                        .totalSizeInBytes(ThrottledDownload.totalSize(getObjectResponse, 0))
+                        .s3ObjectLastModified(getObjectResponse.lastModified())
+                        .fileLastModified(Instant.ofEpochMilli(path.toFile().lastModified()))
+                        .build();
+    }
+
+    // Checks the partial file against the resume file before resuming. A checkpoint may be
+    // older than the file, which is then cut back to the checkpoint. Returns null when the
+    // download has to start over.
+    ResumableFileDownload validateCheckpoint(ResumableFileDownload resumableFileDownload, String file_path){
+        long offset = resumableFileDownload.bytesTransferred();
+        if (offset == 0) {
+            return resumableFileDownload;
+        }
+        Path path = Paths.get(file_path);
+        try {
+            if (!Files.exists(path) || Files.size(path) < offset) {
+                System.out.println("Partial file doesn't match the resume file, starting over " + file_path);
+                deleteResumeFile(file_path);
+                return null;
+            }
+            Instant fileLastModified = Instant.ofEpochMilli(path.toFile().lastModified());
+            if (Files.size(path) > offset || !fileLastModified.equals(resumableFileDownload.fileLastModified())) {
+                // Written after the last checkpoint, the Transfer Manager needs the dates to match
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(offset);
+                }
+                return resumableFileDownload.toBuilder()
+                            .fileLastModified(Instant.ofEpochMilli(path.toFile().lastModified()))
+                            .build();
+            }
+            return resumableFileDownload;
+        } catch (IOException e) {
+            System.err.println("Could not check " + file_path + ", starting over: " + e.getMessage());
+            deleteResumeFile(file_path);
+            return null;
+        }
+    }
+
+    // The length of the file once its content is on the disk
+    static long syncedLength(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long length = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+        return length;
+    }
+
+    // Writes the resume file through a temporary file so a crash can't leave a truncated one
+    static void writeResumeFile(ResumableFileDownload resumableFileDownload, String file_path) throws IOException {
+        Path temp = Paths.get(file_path + ".resume-download.tmp");
+        resumableFileDownload.serializeToFile(temp);
+        Files.move(temp, Paths.get(file_path + ".resume-download"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void deleteResumeFile(String file_path){
+        try {
+            Files.deleteIfExists(Paths.get(file_path + ".resume-download"));
+        } catch (IOException e) {
+            System.err.println("Could not delete the resume file of " + file_path + ": " + e.getMessage());
+        }
+    }
+
+    // Forwards the Transfer Manager progress events to the progress reporter
+    TransferListener progressListener(){
+        return new TransferListener() {
+            @Override
+            public void bytesTransferred(TransferListener.Context.BytesTransferred context) {
+                iotManager.reportProgress(jobId, context.progressSnapshot().ratioTransferred().orElse(0.0));
+            }
+        };
+    }
+
+    // Listeners are not part of the resume file, add ours to the request it describes
+    ResumableFileDownload withProgressListener(ResumableFileDownload resumableFileDownload){
+        return withListener(resumableFileDownload, progressListener());
+    }
+
+    ResumableFileDownload withListener(ResumableFileDownload resumableFileDownload, TransferListener listener){
+        DownloadFileRequest request = resumableFileDownload.downloadFileRequest().toBuilder()
+                                        .addTransferListener(listener)
+                                        .build();
+        return resumableFileDownload.toBuilder().downloadFileRequest(request).build();
+    }
+
+    DownloadFileRequest downloadFileRequest(String bucket_name, String key_name, String file_path,
+                                            TransferListener listener){
+        software.amazon.awssdk.transfer.s3.model.DownloadFileRequest.Builder builder = 
+                                    DownloadFileRequest.builder()
+                                    .getObjectRequest(req -> req.bucket(bucket_name).key
+                                    (key_name))
+                                    .destination(Paths.get(file_path));
+        if (listener != null) {
+            builder.addTransferListener(listener);
+        }
+        return builder.build();
+    }
+
+    // The response of the GET request which completed the download
+    GetObjectResponse response(Object completed){
+        if (completed instanceof CompletedFileDownload) {
+            return ((CompletedFileDownload) completed).response();
+        } else if (completed instanceof CompletedDownload && ((CompletedDownload<?>) completed).result() instanceof GetObjectResponse) {
+            return (GetObjectResponse) ((CompletedDownload<?>) completed).result();
+        } else if (completed instanceof GetObjectResponse) {
+            // A parallel download completes with the metadata of the object, see ParallelDownload
+            return (GetObjectResponse) completed;
+        }
+        return null;
     }
 
     // We detect if the incoming job is a resume job by checking the disk for an existing <MEDIAFILE>.resume-download file
@@ -102,11 +750,46 @@ public class Downloader extends Thread{
         System.out.println("Pausing download...");
         // The download is written to a persistent file
         ResumableFileDownload resumableFileDownload = xfer.pause();
-        resumableFileDownload.serializeToFile(Paths.get(file_path + ".resume-download"));
-        System.out.println("Resume file written!");
+        try {
+            writeResumeFile(resumableFileDownload, file_path);
+            System.out.println("Resume file written!");
+        } catch (IOException e) {
+            System.err.println("Could not write the resume file of " + file_path + ": " + e.getMessage());
+        }
         
     }
 
+    // Same as above for a download going through the bandwidth limiters
+    void pauseAndPersistDownload(ThrottledDownload throttledDownload, String file_path){
+        System.out.println("Pausing throttled download...");
+        try {
+            ResumableFileDownload resumableFileDownload = throttledDownload.pause();
+            writeResumeFile(resumableFileDownload, file_path);
+            System.out.println("Resume file written!");
+        } catch (IOException e) {
+            System.err.println("Could not write the resume file of " + file_path + ": " + e.getMessage());
+        }
+    }
+
+    // Writes the resume file of a download which failed, the bytes it received are kept
+    void persistFailedDownload(ThrottledDownload throttledDownload, String file_path){
+        try {
+            ResumableFileDownload resumableFileDownload = throttledDownload.checkpoint();
+            if (resumableFileDownload != null) {
+                writeResumeFile(resumableFileDownload, file_path);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write the resume file of " + file_path + ": " + e.getMessage());
+        }
+    }
+
+    // Same as above for a parallel download, only the missing parts are fetched on resume
+    void pauseAndPersistDownload(ParallelDownload parallelDownload, String file_path){
+        System.out.println("Pausing parallel download...");
+        parallelDownload.pause();
+        System.out.println("Resume file written!");
+    }
+
     
 
 }
@@ -0,0 +1,18 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+// Published on the FILE_READY_TOPIC local topic once a downloaded file is at its final path
+public class FileReady {
+    public String jobId;
+    public String s3Bucket;
+    public String key;
+    public String path;
+    public long size;
+
+    public FileReady(String jobId, String s3Bucket, String key, String path, long size){
+        this.jobId = jobId;
+        this.s3Bucket = s3Bucket;
+        this.key = key;
+        this.path = path;
+        this.size = size;
+    }
+}
@@ -0,0 +1,166 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands the response body to a thread reading an InputStream, e.g. to extract an archive while
+// it downloads. At most BUFFERS buffers are waiting, the S3 client is asked for the next one
+// when the reader took the previous one, so a slow reader slows the connection down.
+// The result completes once the whole body was received, the reader may still be reading it.
+public class InputStreamTransformer<ResponseT> implements AsyncResponseTransformer<ResponseT, ResponseT> {
+    static final int BUFFERS = 8;
+    // Queued after the last buffer
+    static final Object END = new Object();
+
+    // A failure of the transfer, as opposed to a failure of the reader
+    public static class TransferException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TransferException(Throwable cause){
+            super(cause);
+        }
+    }
+
+    // ByteBuffer, END or the Throwable which ended the transfer
+    BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+    CompletableFuture<ResponseT> result;
+    volatile ResponseT response;
+    volatile Subscription subscription;
+    // Bytes taken by the reader
+    AtomicLong bytesRead = new AtomicLong();
+
+    @Override
+    public CompletableFuture<ResponseT> prepare(){
+        // Called again when the SDK retries the request, the reader didn't get any byte yet
+        queue.clear();
+        result = new CompletableFuture<ResponseT>();
+        return result;
+    }
+
+    @Override
+    public void onResponse(ResponseT response){
+        this.response = response;
+    }
+
+    @Override
+    public void onStream(SdkPublisher<ByteBuffer> publisher){
+        publisher.subscribe(new Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Subscription subscription){
+                InputStreamTransformer.this.subscription = subscription;
+                subscription.request(BUFFERS);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer){
+                queue.add(buffer);
+            }
+
+            @Override
+            public void onError(Throwable error){
+                fail(error);
+            }
+
+            @Override
+            public void onComplete(){
+                queue.add(END);
+                result.complete(response);
+            }
+        });
+    }
+
+    @Override
+    public void exceptionOccurred(Throwable error){
+        fail(error);
+    }
+
+    // Ends the stream with an error, also used when the transfer itself failed or was canceled
+    public void fail(Throwable error){
+        queue.add(error);
+        if (result != null) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    public ResponseT getResponse(){
+        return response;
+    }
+
+    // The body of the response, to be read by a single thread. A read blocks until the next
+    // buffer arrives, an interrupt raises an InterruptedIOException.
+    public InputStream stream(){
+        return new InputStream() {
+            ByteBuffer current;
+            boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                while (current == null || !current.hasRemaining()) {
+                    if (ended) {
+                        return -1;
+                    }
+                    next();
+                }
+                int read = Math.min(length, current.remaining());
+                current.get(bytes, offset, read);
+                bytesRead.addAndGet(read);
+                return read;
+            }
+
+            void next() throws IOException {
+                Object item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the response body");
+                }
+                if (item == END) {
+                    ended = true;
+                    current = null;
+                } else if (item instanceof Throwable) {
+                    // Seen again by a later read
+                    queue.add(item);
+                    throw new TransferException((Throwable) item);
+                } else {
+                    current = (ByteBuffer) item;
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public int available(){
+                return current == null ? 0 : current.remaining();
+            }
+
+            @Override
+            public void close(){
+                if (!ended && subscription != null) {
+                    subscription.cancel();
+                }
+                ended = true;
+            }
+        };
+    }
+}
@@ -1,36 +1,153 @@
 package aws.greengrass.labs.S3FileDownloader;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 import software.amazon.awssdk.aws.greengrass.GreengrassCoreIPCClientV2;
+import software.amazon.awssdk.aws.greengrass.model.BinaryMessage;
 import software.amazon.awssdk.aws.greengrass.model.IoTCoreMessage;
 import software.amazon.awssdk.aws.greengrass.model.MQTTMessage;
+import software.amazon.awssdk.aws.greengrass.model.PublishMessage;
 import software.amazon.awssdk.aws.greengrass.model.PublishToIoTCoreRequest;
-import software.amazon.awssdk.aws.greengrass.model.PublishToIoTCoreResponse;
+import software.amazon.awssdk.aws.greengrass.model.PublishToTopicRequest;
 import software.amazon.awssdk.aws.greengrass.model.QOS;
-import software.amazon.awssdk.aws.greengrass.model.UnauthorizedError;
 import software.amazon.awssdk.eventstreamrpc.StreamResponseHandler;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
 public class IoTManager implements StreamResponseHandler<IoTCoreMessage>{
+    // The staging area is checked for orphaned files this often
+    static final long COLLECT_INTERVAL_MILLIS = 60 * 60 * 1000;
+    // The bytes written by the streaming jobs are checked this often
+    static final long STREAM_INTERVAL_MILLIS = 100;
     GreengrassCoreIPCClientV2 ipcClient; 
     String downloadTopic;
     String pauseTopic;
+    String controlTopic;
     String jobUpdateTopic;
+    // Local topic for the other components of the device, null when not used
+    String fileReadyTopic;
+    // Local topic of the streaming jobs, null when streaming isn't enabled
+    String streamTopic;
+    StreamReporter streamReporter;
     String destinationFolder;
-    List<Thread> downloaderThreadList = new ArrayList<Thread>();
+    S3TransferManager transferManager;
+    // Used to list the objects under the prefix of a batch job
+    S3AsyncClient s3Client;
+    int batchMaxConcurrentObjects;
+    DownloadScheduler scheduler;
+    // Bandwidth shared by all the downloads
+    BandwidthLimiter globalLimiter;
+    ProgressReporter progressReporter;
+    Metrics metrics = new Metrics();
+    // Sends the messages from its own thread, see UpdatePublisher
+    UpdatePublisher publisher;
+    Gson gson = new Gson();
+    MetricsReporter metricsReporter;
+    // Index of the downloaded files, skips objects which didn't change
+    ObjectCache objectCache;
+    // Keeps the completed files under the quota and collects the orphaned staged files
+    ManagedStore store;
+    // Serves the downloaded objects to the other cores of the site, null when disabled
+    PeerServer peerServer;
+    // Other cores of the site asked for an object before S3, null when there are none
+    PeerSource peerSource;
+    // Rewrites the resume files of the running downloads
+    Checkpointer checkpointer;
+    // Partial files are kept out of the destination folder until they complete
+    StagingArea staging;
+    // Null when the failed downloads are not retried
+    RetryPolicy retryPolicy;
+    ConnectivityMonitor connectivity;
+    // Null when the downloads start without checking the free space
+    DiskSpaceGuard diskSpace;
+    boolean preallocate;
+    // Survives restarts, null when the jobs are not journaled
+    JobJournal journal;
+    volatile boolean shuttingDown;
+    long partSizeBytes;
+    int partConcurrency;
+    boolean verifyS3Checksums;
+    // Live jobs by jobId, used from the IPC thread and the download workers
+    JobRegistry jobs = new JobRegistry();
+    // Jobs for a file which another live job downloads follow it
+    SingleFlight singleFlight = new SingleFlight();
 
-    public IoTManager(GreengrassCoreIPCClientV2 ipcClient, 
-                String downloadTopic, String pauseTopic, 
-                String jobUpdateTopic, String destinationFolder){
+    public IoTManager(GreengrassCoreIPCClientV2 ipcClient, ComponentConfig config,
+                SharedTransferClient transferClient){
         this.ipcClient = ipcClient;
-        this.downloadTopic = downloadTopic;
-        this.pauseTopic = pauseTopic;
-        this.jobUpdateTopic = jobUpdateTopic;
-        this.destinationFolder = destinationFolder;
+        this.publisher = new UpdatePublisher(this, config.jobUpdateTopic);
+        this.publisher.start();
+        this.downloadTopic = config.downloadTopic;
+        this.pauseTopic = config.pauseTopic;
+        this.controlTopic = config.controlTopic;
+        this.jobUpdateTopic = config.jobUpdateTopic;
+        this.fileReadyTopic = config.fileReadyTopic;
+        this.destinationFolder = config.destinationFolder;
+        this.transferManager = transferClient.getTransferManager();
+        this.s3Client = transferClient.getS3Client();
+        this.batchMaxConcurrentObjects = config.batchMaxConcurrentObjects;
+        this.partSizeBytes = config.parallelPartSizeBytes;
+        this.partConcurrency = config.parallelPartsPerObject;
+        this.verifyS3Checksums = config.verifyS3Checksums;
+        this.scheduler = new DownloadScheduler(config.maxActiveDownloads, config.virtualThreads);
+        this.globalLimiter = new BandwidthLimiter(config.maxBytesPerSecond);
+        this.progressReporter = new ProgressReporter(this, config.progressIntervalMillis, config.progressMinDeltaPercent);
+        this.progressReporter.metrics = metrics;
+        this.progressReporter.start();
+        if (config.streamTopic != null) {
+            this.streamTopic = config.streamTopic;
+            this.streamReporter = new StreamReporter(this, STREAM_INTERVAL_MILLIS, config.streamStepBytes);
+            this.streamReporter.start();
+        }
+        this.metrics.transferClientStartupMillis = transferClient.startupMillis;
+        this.metricsReporter = new MetricsReporter(this, metrics, config.metricsTopic, config.metricsIntervalMillis,
+                                                    config.metricsPort);
+        this.metricsReporter.start();
+        this.objectCache = new ObjectCache(Paths.get(destinationFolder, ".object-index.json"), s3Client,
+                                            config.dedupHardLinks);
+        this.store = new ManagedStore(Paths.get(destinationFolder, ".store-index.json"), Paths.get(destinationFolder),
+                                        config.storeQuotaBytes, config.storeEviction, config.stagingMaxAgeHours * 3600 * 1000);
+        this.store.objectCache = objectCache;
+        this.store.pinned = this::pinned;
+        if (config.peerPort > 0 && config.peerToken == null) {
+            // Any host which reaches the port could read the downloaded objects
+            System.err.println("Not serving the objects to the peers on port " + config.peerPort + ", PEER_TOKEN isn't set");
+        } else if (config.peerPort > 0) {
+            this.peerServer = new PeerServer(destinationFolder, objectCache, config.peerPort, config.peerToken);
+            try {
+                this.peerServer.start();
+            } catch (IOException e) {
+                System.err.println("Could not serve the objects to the peers on port " + config.peerPort + ": " + e.getMessage());
+                this.peerServer = null;
+            }
+        }
+        if (!config.peers.isEmpty()) {
+            this.peerSource = new PeerSource(config.peers, config.peerToken);
+        }
+        this.checkpointer = new Checkpointer(config.checkpointIntervalMillis, config.checkpointIntervalBytes);
+        this.checkpointer.start();
+        this.staging = new StagingArea(Paths.get(destinationFolder, ".staging"));
+        if (config.diskSpaceCheck) {
+            this.diskSpace = new DiskSpaceGuard(new File(destinationFolder), config.diskHeadroomBytes);
+        }
+        this.preallocate = config.preallocateFiles;
+        if (config.retryMaxAttempts > 0) {
+            this.retryPolicy = new RetryPolicy(config.retryMaxAttempts, config.retryBaseDelayMillis,
+                                                config.retryMaxDelayMillis);
+            this.connectivity = new ConnectivityMonitor(retryPolicy);
+        }
     }
 
     @Override
@@ -40,30 +157,25 @@ public class IoTManager implements StreamResponseHandler<IoTCoreMessage>{
             String topic = mqttMessage.getTopicName();
             String message = new String(mqttMessage.getPayload(), StandardCharsets.UTF_8);
             System.out.printf("Received new message on topic %s: %s%n", topic, message);
-            Gson gson = new Gson();
             if (topic.equals(downloadTopic)){ // It is a download job
                 System.out.printf("Download job %s: %s%n", topic, message);
                 DownloadJob job = gson.fromJson(message, DownloadJob.class);
-                for (Thread t : downloaderThreadList) {
-                    if (t.getName().equals(job.jobId)){
-                        System.out.println("This job is already being processed. jobId: " + job.jobId);
-                        return;
+                try {
+                    if (accept(job, false)) {
+                        publishUpdate(job.jobId, "QUEUED", "queued", scheduler.queueDepth(), scheduler.activeCount());
                     }
+                } catch (IllegalArgumentException e) {
+                    reject(job, e);
                 }
-                // We create a download thread for this job
-                Downloader downloader = new Downloader(jobUpdateTopic, job.s3Bucket, 
-                                        job.key, job.jobId, destinationFolder + job.s3Bucket + "/" + job.key, this);
-                downloaderThreadList.add(downloader);
-                downloader.start();
             } else if (topic.equals(pauseTopic)){ // It is a pause command
-                // We go through all the Downloader threads and send a thread interrupt
-                // This will kill all the threads. However, the Downloader class catches 
-                // the interrupted exception and writes the persistent download files to 
-                // the disk to continue later.
-                for (Thread t : downloaderThreadList) {
-                    t.interrupt();
+                PauseCommand command = parsePauseCommand(gson, message);
+                if (command.jobId == null) {
+                    pauseAll();
+                } else if (!pause(command.jobId, command.cancel)) {
+                    System.out.println("No queued or running job to stop. jobId: " + command.jobId);
                 }
-                downloaderThreadList.clear();
+            } else if (topic.equals(controlTopic)){ // It is a runtime settings change
+                applyControl(gson.fromJson(message, ControlCommand.class));
             }
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -71,6 +183,194 @@ public class IoTManager implements StreamResponseHandler<IoTCoreMessage>{
         }
     }
 
+    // Creates a downloader for the job and queues it in the scheduler. The job is journaled
+    // before it is queued so its end can't be recorded first.
+    boolean accept(DownloadJob job, boolean restored) {
+        // The messages are delivered at least once, the message of a job which ended can come again
+        if (jobs.recentlyEnded(job.jobId)) {
+            System.out.println("This job already ended, dropping the message. jobId: " + job.jobId);
+            return false;
+        }
+        if (job.stream && (streamTopic == null || job.keys != null || job.prefix != null || job.ranges != null
+                            || job.extract || job.delta)) {
+            throw new IllegalArgumentException("Can't stream " + job.key + ", streaming needs the STREAM_TOPIC "
+                                                + "and a single object downloaded whole");
+        }
+        Downloader downloader;
+        if (job.keys != null || job.prefix != null) { // Several objects in one job
+            downloader = new BatchDownloader(jobUpdateTopic, job.s3Bucket, job.keys, job.prefix,
+                                job.jobId, destinationFolder + job.s3Bucket + "/", this,
+                                transferManager, s3Client, batchMaxConcurrentObjects);
+            downloader.objectCache = objectCache;
+        } else {
+            // Rejects an unsupported algorithm or a malformed value before the job is queued
+            StreamingChecksum.expected(job.checksumAlgorithm, job.checksum);
+            if (job.ranges != null) {
+                if (job.extract || job.delta || job.checksum != null) {
+                    throw new IllegalArgumentException("Can't extract, patch or verify the byte ranges of " + job.key);
+                }
+                // Rejects a malformed range before the job is queued, the object size is checked when it starts
+                RangeDownloader.resolve(job.ranges, Long.MAX_VALUE);
+                downloader = new RangeDownloader(jobUpdateTopic, job.s3Bucket,
+                                    job.key, job.jobId, destinationFolder + job.s3Bucket + "/" + job.key, this,
+                                    transferManager, job.ranges, job.rangeFiles);
+                downloader.partConcurrency = partConcurrency;
+            } else if (job.extract) {
+                ArchiveExtractor.Format format = ArchiveExtractor.format(job.key);
+                if (format == null) {
+                    throw new IllegalArgumentException("Can't extract " + job.key + ", not a .tar, .tar.gz, .tgz, .zip or .gz object");
+                }
+                downloader = new ArchiveDownloader(jobUpdateTopic, job.s3Bucket,
+                                    job.key, job.jobId, destinationFolder + job.s3Bucket + "/" + job.key, this,
+                                    transferManager, format);
+            } else {
+                if (job.delta) {
+                    // An unchanged object isn't patched, a changed one keeps its previous version to build from
+                    downloader = new DeltaDownloader(jobUpdateTopic, job.s3Bucket,
+                                        job.key, job.jobId, destinationFolder + job.s3Bucket + "/" + job.key, this,
+                                        transferManager);
+                    downloader.objectCache = objectCache;
+                } else {
+                    downloader = new Downloader(jobUpdateTopic, job.s3Bucket, 
+                                        job.key, job.jobId, destinationFolder + job.s3Bucket + "/" + job.key, this,
+                                        transferManager);
+                    downloader.objectCache = objectCache;
+                    downloader.peers = peerSource;
+                    downloader.stream = job.stream;
+                }
+                downloader.partSizeBytes = partSizeBytes;
+                downloader.partConcurrency = partConcurrency;
+                downloader.checkpointer = checkpointer;
+                downloader.quarantineFolder = Paths.get(destinationFolder, ".quarantine", job.s3Bucket);
+                downloader.preallocate = preallocate;
+            }
+            downloader.s3Client = s3Client;
+            downloader.checksumAlgorithm = job.checksumAlgorithm;
+            downloader.checksum = job.checksum;
+            downloader.verifyS3Checksums = verifyS3Checksums;
+            downloader.retryPolicy = retryPolicy;
+            downloader.connectivity = connectivity;
+            downloader.diskSpace = diskSpace;
+            downloader.store = store;
+        }
+        downloader.staging = staging;
+        downloader.priority = job.priority;
+        downloader.globalLimiter = globalLimiter;
+        downloader.jobLimiter.setBytesPerSecond(job.maxBytesPerSecond);
+        if (jobs.get(job.jobId) != null || singleFlight.isFollowing(job.jobId)) {
+            System.out.println("This job is already being processed. jobId: " + job.jobId);
+            return false;
+        }
+        checkOverlap(downloader);
+        Downloader leader = singleFlight.join(downloader);
+        if (leader == null && !jobs.add(downloader)) {
+            singleFlight.remove(downloader);
+            System.out.println("This job is already being processed. jobId: " + job.jobId);
+            return false;
+        }
+        metrics.jobAccepted(job.jobId);
+        if (journal != null && !restored) {
+            journal.accepted(job);
+        }
+        if (leader != null) {
+            System.out.println("Job " + job.jobId + " follows job " + leader.jobId + " downloading the same file");
+            return true;
+        }
+        scheduler.submit(downloader);
+        return true;
+    }
+
+    // A range job writes its sparse file in place, it would race a job downloading the same file.
+    // The two don't share a transfer, the one received second is rejected.
+    void checkOverlap(Downloader downloader) {
+        for (String jobId : jobs.jobIds()) {
+            Downloader live = jobs.get(jobId);
+            if (live != null && (writesInPlace(live, downloader) || writesInPlace(downloader, live))) {
+                throw new IllegalArgumentException("Job " + downloader.jobId + " and job " + live.jobId
+                                                    + " write the same file " + downloader.filePath);
+            }
+        }
+    }
+
+    // True when the range job writes in place the file the other job downloads whole
+    static boolean writesInPlace(Downloader range, Downloader other) {
+        return range instanceof RangeDownloader && !((RangeDownloader) range).rangeFiles
+                && !(other instanceof RangeDownloader) && other.destinationPath() != null
+                && ManagedStore.normalize(other.destinationPath()).equals(ManagedStore.normalize(range.filePath));
+    }
+
+    // A job which can't be run ends with FAILED, the sender would otherwise wait for it forever.
+    // A live job with the same id keeps running, a message sent again doesn't end it.
+    void reject(DownloadJob job, IllegalArgumentException e) {
+        System.err.println("Rejected job " + job.jobId + ": " + e.getMessage());
+        if (job.jobId == null || jobs.get(job.jobId) != null || singleFlight.isFollowing(job.jobId)) {
+            return;
+        }
+        publishUpdate(job.jobId, "FAILED", "invalid job: " + e.getMessage());
+    }
+
+    // A job stopped without a final update, the first job following it continues the transfer
+    void handOver(Downloader downloader) {
+        if (shuttingDown) {
+            // The followers are restored with the journal
+            return;
+        }
+        Downloader next = singleFlight.handOver(downloader);
+        if (next == null) {
+            return;
+        }
+        if (!jobs.add(next)) {
+            System.err.println("Job " + next.jobId + " can't take over, a job with the same id is live");
+            return;
+        }
+        System.out.println("Job " + next.jobId + " takes over the download of job " + downloader.jobId);
+        scheduler.submit(next);
+        publishUpdate(next.jobId, "QUEUED", "took over", scheduler.queueDepth(), scheduler.activeCount());
+    }
+
+    // The jobs which follow a live job
+    List<String> followers(String jobId, boolean end) {
+        Downloader d = jobs.get(jobId);
+        return d == null ? Collections.<String>emptyList() : singleFlight.followers(d, end);
+    }
+
+    JobUpdate copy(JobUpdate update, String jobId) {
+        JobUpdate copy = gson.fromJson(gson.toJson(update), JobUpdate.class);
+        copy.jobId = jobId;
+        return copy;
+    }
+
+    // Queues the jobs which were not finished when the component stopped, their
+    // downloads continue from the resume files. Further state changes are journaled.
+    public void restoreJobs(JobJournal journal) {
+        List<DownloadJob> jobs = journal.replay();
+        this.journal = journal;
+        journal.start();
+        for (DownloadJob job : jobs) {
+            // The settings may have changed since the job was accepted
+            try {
+                if (accept(job, true)) {
+                    publishUpdate(job.jobId, "QUEUED", "restored", scheduler.queueDepth(), scheduler.activeCount());
+                }
+            } catch (IllegalArgumentException e) {
+                reject(job, e);
+            }
+        }
+        // The restored jobs own their staged files by now
+        store.start(staging.root, COLLECT_INTERVAL_MILLIS);
+    }
+
+    // True when a live job writes or reads the path, the store leaves it alone
+    boolean pinned(String normalizedPath) {
+        for (String jobId : jobs.jobIds()) {
+            Downloader d = jobs.get(jobId);
+            if (d != null && d.owns(normalizedPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public boolean onStreamError(Throwable error) {
         System.err.println("Received a stream error.");
@@ -82,38 +382,302 @@ public class IoTManager implements StreamResponseHandler<IoTCoreMessage>{
         System.out.println("Subscribe to topic stream closed.");
     }
 
-    public void downloadEnd(String jobId) {
-        System.out.printf("Download task ended %s %n", jobId);
-        // Remove the finished download thread from the list
-        downloaderThreadList.removeIf(t -> (t.getName().equals(jobId)));
+    // Called by a Downloader when its transfer starts
+    public void downloadStarted(Downloader downloader) {
+        jobs.transition(downloader, JobRegistry.State.QUEUED, JobRegistry.State.RUNNING);
+        progressReporter.track(downloader.jobId);
+    }
+
+    // Called once the transfer started, bytes returns what it transferred so far
+    public void transferStarted(String jobId, LongSupplier bytes) {
+        metrics.track(jobId, bytes);
+    }
+
+    // Called once the transfer of a streaming job started writing to path in order
+    public void streamStarted(Downloader downloader, String path, long size, LongSupplier bytes) {
+        if (streamReporter != null) {
+            streamReporter.track(downloader, path, size, bytes);
+        }
+    }
+
+    // Called when a failed download is tried again or waits for the network
+    public void downloadRetried(RetryPolicy.Failure failure) {
+        metrics.retry(failure);
+    }
+
+    // Called by the transfer listeners of the running downloads
+    public void reportProgress(String jobId, double ratio) {
+        progressReporter.progress(jobId, ratio);
+    }
+
+    public void downloadEnd(Downloader downloader) {
+        System.out.printf("Download task ended %s %n", downloader.jobId);
+        progressReporter.untrack(downloader.jobId);
+        streamStopped(downloader);
+        metrics.untrack(downloader.jobId);
+        jobs.remove(downloader);
+        handOver(downloader);
+        // The download may have released disk space
+        scheduler.resubmitDeferred();
+    }
+
+    void streamStopped(Downloader downloader) {
+        if (streamReporter != null) {
+            streamReporter.untrack(downloader.jobId);
+        }
+    }
+
+    // Sets aside a download which doesn't fit on the disk, see DownloadScheduler.defer
+    public void defer(Downloader downloader) {
+        progressReporter.untrack(downloader.jobId);
+        streamStopped(downloader);
+        metrics.untrack(downloader.jobId);
+        if (!jobs.transition(downloader, JobRegistry.State.RUNNING, JobRegistry.State.QUEUED)) {
+            // Paused or canceled while it was checked
+            downloader.publishStopped();
+            return;
+        }
+        scheduler.defer(downloader);
+    }
+
+    // Puts a download restarted by Downloader.restart back in the queue
+    public void requeue(Downloader downloader) {
+        progressReporter.untrack(downloader.jobId);
+        streamStopped(downloader);
+        metrics.untrack(downloader.jobId);
+        // A restart can interrupt the download before it reported its start
+        if (!jobs.transition(downloader, JobRegistry.State.RUNNING, JobRegistry.State.QUEUED)
+                && !jobs.transition(downloader, JobRegistry.State.QUEUED, JobRegistry.State.QUEUED)) {
+            // Paused or canceled while it was restarting
+            downloader.publishStopped();
+            return;
+        }
+        downloader.resetForRequeue();
+        scheduler.submit(downloader);
+        publishUpdate(downloader.jobId, "QUEUED", "requeued", scheduler.queueDepth(), scheduler.activeCount());
+    }
+
+    // Changes the global or a per job bandwidth limit. Running downloads which started
+    // without a limit are paused and queued again so they continue through the limiters.
+    void applyControl(ControlCommand command) {
+        if (command.maxBytesPerSecond == null) {
+            System.err.println("Control command without maxBytesPerSecond, ignoring it.");
+            return;
+        }
+        if (command.jobId != null) {
+            Downloader d = jobs.get(command.jobId);
+            if (d == null) {
+                System.out.println("No live job to limit. jobId: " + command.jobId);
+                return;
+            }
+            System.out.println("Setting bandwidth limit of " + d.jobId + " to " + command.maxBytesPerSecond + " bytes/s");
+            d.jobLimiter.setBytesPerSecond(command.maxBytesPerSecond);
+            restartIfThrottled(d);
+            return;
+        }
+        System.out.println("Setting global bandwidth limit to " + command.maxBytesPerSecond + " bytes/s");
+        globalLimiter.setBytesPerSecond(command.maxBytesPerSecond);
+        for (String jobId : jobs.jobIds()) {
+            Downloader d = jobs.get(jobId);
+            if (d != null) {
+                restartIfThrottled(d);
+            }
+        }
+    }
+
+    void restartIfThrottled(Downloader d) {
+        if (!d.throttled && d.isThrottled()) {
+            d.restart();
+        }
+    }
+
+    // A payload which is not a pause command, like the empty one, pauses every download
+    PauseCommand parsePauseCommand(Gson gson, String message) {
+        try {
+            PauseCommand command = gson.fromJson(message, PauseCommand.class);
+            if (command != null) {
+                return command;
+            }
+        } catch (JsonParseException e) {
+            System.out.println("Pause payload is not a command, pausing every download.");
+        }
+        return new PauseCommand(null, false);
+    }
+
+    // Pauses or cancels one job. A queued job is taken out of the scheduler, a running one
+    // is interrupted. The Downloader class catches the interrupted exception and writes the
+    // persistent download files to the disk to continue later, or deletes them on cancel.
+    // Returns false when the job is not live or already stopping.
+    boolean pause(String jobId, boolean cancel) {
+        // A follower leaves the transfer, it goes on for the others
+        if (singleFlight.leave(jobId)) {
+            publishUpdate(jobId, cancel ? "CANCELED" : "IN_PROGRESS", cancel ? "canceled" : "paused");
+            return true;
+        }
+        Downloader d = jobs.stop(jobId);
+        if (d == null) {
+            return false;
+        }
+        if (scheduler.remove(d)) {
+            if (cancel) {
+                d.discard();
+                publishUpdate(d.jobId, "CANCELED", "canceled");
+            } else {
+                publishUpdate(d.jobId, "IN_PROGRESS", "paused");
+            }
+            handOver(d);
+        } else if (cancel) {
+            d.cancel();
+        } else {
+            d.pause();
+        }
+        return true;
+    }
+
+    // Pauses every download
+    void pauseAll() {
+        // Followers first, they would take over from their paused leader. On shutdown they stay
+        // in the journal.
+        if (!shuttingDown) {
+            for (String jobId : singleFlight.followerIds()) {
+                pause(jobId, false);
+            }
+        }
+        for (String jobId : jobs.jobIds()) {
+            pause(jobId, false);
+        }
+    }
+
+    // Called when the component stops, running downloads persist their resume files
+    // Those pauses are not journaled, the jobs are restored on the next start.
+    public void shutdown(long timeoutMillis) {
+        shuttingDown = true;
+        pauseAll();
+        scheduler.shutdown(timeoutMillis);
+        progressReporter.stop();
+        if (streamReporter != null) {
+            streamReporter.stop();
+        }
+        metricsReporter.stop();
+        checkpointer.stop();
+        store.stop();
+        if (peerServer != null) {
+            peerServer.stop();
+        }
+        publisher.stop(timeoutMillis);
+        if (journal != null) {
+            journal.close();
+        }
     }
 
     // Publishes job status update to the job update topic
     public void publishUpdate(String job_id, String status, String reason){
-        String topic = jobUpdateTopic; // See JOB_FEEDBACK_TOPIC parameter in the receipe file
+        publishUpdate(job_id, status, reason, null, null);
+    }
+
+    // Publishes job status update with the scheduler state to the job update topic
+    public void publishUpdate(String job_id, String status, String reason,
+                                Integer queueDepth, Integer activeDownloads){
         JobUpdate update = new JobUpdate(job_id, status, reason);
-        Gson gson = new Gson();
-        String message = gson.toJson(update);
-        try{
-            publishMessageToTopic(topic, message);
-            System.out.println("Successfully published to topic: " + topic + " - " + message);
-        } catch (InterruptedException e){
-            System.err.println("Interrupted during IPC publish! " + e.getMessage());
-            Thread.currentThread().interrupt();
-        } catch (UnauthorizedError e) {
-            System.err.println("Unauthorized error while publishing to topic: " + topic);
-        } catch (Exception e){
-            System.err.println("Exception occurred when using IPC.");
-        }
-    }
-
-    // Publishes a payload to a local IPC topic
-    public PublishToIoTCoreResponse publishMessageToTopic(String topic, String message) throws InterruptedException {
+        update.queueDepth = queueDepth;
+        update.activeDownloads = activeDownloads;
+        publishUpdate(update);
+    }
+
+    // Publishes a job status update built by the caller to the job update topic.
+    // The message is queued, the final states are sent until the nucleus accepts them.
+    public void publishUpdate(JobUpdate update){
+        journal(update);
+        metrics.jobUpdate(update.jobId, update.status, update.reason);
+        if (update.status.equals("SUCCEEDED") || update.status.equals("CANCELED")) {
+            jobs.ended(update.jobId);
+        }
+        // See JOB_FEEDBACK_TOPIC parameter in the receipe file
+        publisher.publish(jobUpdateTopic, update, update.isFinal());
+        // The jobs following this one get the same update, the final one ends the flight
+        for (String follower : followers(update.jobId, update.isFinal())) {
+            publishUpdate(copy(update, follower));
+        }
+    }
+
+    // Records the end of a job or a pause command in the journal
+    void journal(JobUpdate update){
+        if (journal == null) {
+            return;
+        }
+        if (update.isFinal()) {
+            journal.ended(update.jobId, update.status);
+        } else if ("paused".equals(update.reason) && !shuttingDown) {
+            journal.paused(update.jobId);
+        }
+    }
+
+    // Publishes the progress of several jobs in a single message, a single update
+    // keeps the format of publishUpdate. Replaces the progress not published yet.
+    public void publishUpdates(List<JobUpdate> updates){
+        List<JobUpdate> all = new ArrayList<JobUpdate>(updates);
+        for (JobUpdate update : updates) {
+            for (String follower : followers(update.jobId, false)) {
+                all.add(copy(update, follower));
+            }
+        }
+        publisher.progress(all);
+    }
+
+    // Tells the other components of the device that a file is at its final path
+    public void publishFileReady(String job_id, String bucket, String key, String path){
+        store.used(path);
+        long size;
+        try {
+            size = Files.size(Paths.get(path));
+        } catch (IOException e) {
+            size = -1;
+        }
+        Downloader downloader = jobs.get(job_id);
+        if (streamReporter != null && downloader != null && downloader.stream) {
+            streamReporter.complete(downloader, path, size);
+        }
+        if (fileReadyTopic == null) {
+            return;
+        }
+        publisher.publishLocal(fileReadyTopic, new FileReady(job_id, bucket, key, path, size), true);
+        for (String follower : followers(job_id, false)) {
+            publisher.publishLocal(fileReadyTopic, new FileReady(follower, bucket, key, path, size), true);
+        }
+    }
+
+    // Publishes how far the file of a streaming job can be read, and to the jobs following it
+    public void publishStreamOffset(Downloader downloader, StreamOffset offset, boolean critical){
+        publisher.publishLocal(streamTopic, offset, critical);
+        for (String follower : followers(downloader.jobId, false)) {
+            publisher.publishLocal(streamTopic, new StreamOffset(follower, offset.s3Bucket, offset.key, offset.path,
+                                                    offset.offset, offset.size, offset.complete), critical);
+        }
+    }
+
+    // Publishes a payload to a topic of the local publish/subscribe, not forwarded to AWS IoT Core
+    public CompletableFuture<?> publishLocalMessageAsync(String topic, String message){
+        PublishToTopicRequest publishToTopicRequest = new PublishToTopicRequest();
+        publishToTopicRequest.setTopic(topic);
+        publishToTopicRequest.setPublishMessage(new PublishMessage().withBinaryMessage(
+                                    new BinaryMessage().withMessage(message.getBytes(StandardCharsets.UTF_8))));
+        return ipcClient.publishToTopicAsync(publishToTopicRequest);
+    }
+
+    // Publishes the metrics message, see MetricsReporter
+    public void publishMetrics(String topic, String message){
+        publisher.publish(topic, message, false);
+    }
+
+    // Publishes a payload to an AWS IoT Core topic, completes once the nucleus accepted it
+    public CompletableFuture<?> publishMessageToTopicAsync(String topic, String message){
         PublishToIoTCoreRequest publishToTopicRequest = new PublishToIoTCoreRequest();
         publishToTopicRequest.setTopicName(topic);
         publishToTopicRequest.setPayload(message.getBytes(StandardCharsets.UTF_8));
         publishToTopicRequest.setQos(QOS.AT_LEAST_ONCE);
-        return ipcClient.publishToIoTCore(publishToTopicRequest);
+        long start = System.nanoTime();
+        return ipcClient.publishToIoTCoreAsync(publishToTopicRequest)
+                    .whenComplete((response, error) -> metrics.ipcPublished(System.nanoTime() - start, error != null));
     }
     
 }
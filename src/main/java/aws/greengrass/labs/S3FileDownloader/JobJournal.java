@@ -0,0 +1,263 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only journal of the accepted jobs and their state changes, one JSON record per line.
+// The component replays it on startup to queue the jobs which were not finished when it
+// stopped, the downloads continue from their resume files.
+// Records are buffered and written by a background thread with one fsync per batch, and the
+// journal is rewritten with only the unfinished jobs once enough finished ones piled up.
+public class JobJournal {
+    static final long FLUSH_INTERVAL_MILLIS = 200;
+    // Records written since the last rewrite before the journal is compacted
+    static final int COMPACT_AFTER_RECORDS = 1000;
+
+    static final String ACCEPTED = "ACCEPTED";
+    static final String PAUSED = "PAUSED";
+    static final String ENDED = "ENDED";
+
+    static class JournalRecord {
+        String type;
+        String jobId;
+        // Only set on ACCEPTED records
+        DownloadJob job;
+        // Status which ended the job
+        String status;
+
+        JournalRecord(String type, String jobId){
+            this.type = type;
+            this.jobId = jobId;
+        }
+    }
+
+    // A job which didn't end yet
+    static class LiveJob {
+        DownloadJob job;
+        // Paused with the pause command, it waits for the job to be sent again
+        boolean paused;
+
+        LiveJob(DownloadJob job){
+            this.job = job;
+        }
+    }
+
+    Path journalFile;
+    Gson gson = new Gson();
+    ScheduledExecutorService timer;
+
+    // Guarded by this
+    Map<String, LiveJob> liveJobs = new LinkedHashMap<String, LiveJob>();
+    List<String> pending = new ArrayList<String>();
+    int recordsSinceCompaction;
+
+    // Guarded by writeLock, only the flush thread and close write the file
+    final Object writeLock = new Object();
+    FileChannel channel;
+
+    public JobJournal(Path journalFile){
+        this.journalFile = journalFile;
+    }
+
+    // Reads the journal and returns the jobs to queue again, the paused ones stay in the
+    // journal until they are sent again. The journal is compacted on the way.
+    public List<DownloadJob> replay(){
+        if (Files.exists(journalFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        JournalRecord record = gson.fromJson(line, JournalRecord.class);
+                        if (record != null && record.jobId != null) {
+                            synchronized (this) {
+                                apply(record);
+                            }
+                        }
+                    } catch (JsonParseException e) {
+                        // A torn write at the end of the file when the device lost power
+                        System.err.println("Skipping corrupted journal record: " + line);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read the job journal " + journalFile + ": " + e.getMessage());
+            }
+        }
+        List<DownloadJob> jobs = new ArrayList<DownloadJob>();
+        List<String> snapshot;
+        synchronized (this) {
+            for (LiveJob liveJob : liveJobs.values()) {
+                if (!liveJob.paused) {
+                    jobs.add(liveJob.job);
+                }
+            }
+            snapshot = compactedRecords();
+        }
+        synchronized (writeLock) {
+            rewrite(snapshot);
+        }
+        System.out.println("Job journal replayed, " + jobs.size() + " jobs to resume");
+        return jobs;
+    }
+
+    public void start(){
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes the buffered records and closes the journal
+    public void close(){
+        if (timer != null) {
+            timer.shutdown();
+            try {
+                timer.awaitTermination(FLUSH_INTERVAL_MILLIS * 5, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        synchronized (writeLock) {
+            closeChannel();
+        }
+    }
+
+    public void accepted(DownloadJob job){
+        JournalRecord record = new JournalRecord(ACCEPTED, job.jobId);
+        record.job = job;
+        append(record);
+    }
+
+    public void paused(String jobId){
+        append(new JournalRecord(PAUSED, jobId));
+    }
+
+    public void ended(String jobId, String status){
+        JournalRecord record = new JournalRecord(ENDED, jobId);
+        record.status = status;
+        append(record);
+    }
+
+    synchronized void append(JournalRecord record){
+        if (record.type.equals(ACCEPTED) || liveJobs.containsKey(record.jobId)) {
+            apply(record);
+            pending.add(gson.toJson(record));
+        }
+    }
+
+    // Guarded by this
+    void apply(JournalRecord record){
+        if (record.type.equals(ACCEPTED) && record.job != null) {
+            liveJobs.put(record.jobId, new LiveJob(record.job));
+        } else if (record.type.equals(PAUSED) && liveJobs.containsKey(record.jobId)) {
+            liveJobs.get(record.jobId).paused = true;
+        } else if (record.type.equals(ENDED)) {
+            liveJobs.remove(record.jobId);
+        }
+    }
+
+    // The records describing the unfinished jobs, guarded by this
+    List<String> compactedRecords(){
+        List<String> records = new ArrayList<String>();
+        for (LiveJob liveJob : liveJobs.values()) {
+            JournalRecord accepted = new JournalRecord(ACCEPTED, liveJob.job.jobId);
+            accepted.job = liveJob.job;
+            records.add(gson.toJson(accepted));
+            if (liveJob.paused) {
+                records.add(gson.toJson(new JournalRecord(PAUSED, liveJob.job.jobId)));
+            }
+        }
+        recordsSinceCompaction = 0;
+        return records;
+    }
+
+    // Writes the pending records with a single fsync, then compacts when needed
+    void flush(){
+        synchronized (writeLock) {
+            List<String> batch;
+            List<String> snapshot = null;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<String>();
+                recordsSinceCompaction += batch.size();
+                // The snapshot includes the batch, later records go to the new file
+                if (recordsSinceCompaction >= COMPACT_AFTER_RECORDS && recordsSinceCompaction > 2 * liveJobs.size()) {
+                    snapshot = compactedRecords();
+                }
+            }
+            try {
+                if (snapshot != null) {
+                    rewrite(snapshot);
+                    return;
+                }
+                if (channel == null) {
+                    channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.APPEND);
+                }
+                channel.write(ByteBuffer.wrap(lines(batch)));
+                channel.force(false);
+            } catch (IOException e) {
+                System.err.println("Could not write the job journal " + journalFile + ": " + e.getMessage());
+                closeChannel();
+            }
+        }
+    }
+
+    // Replaces the journal with the given records, guarded by writeLock
+    void rewrite(List<String> records){
+        closeChannel();
+        Path temp = Paths.get(journalFile + ".tmp");
+        try {
+            try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+                tempChannel.write(ByteBuffer.wrap(lines(records)));
+                tempChannel.force(false);
+            }
+            Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not compact the job journal " + journalFile + ": " + e.getMessage());
+        }
+    }
+
+    byte[] lines(List<String> records){
+        StringBuilder builder = new StringBuilder();
+        for (String record : records) {
+            builder.append(record).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    void closeChannel(){
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the job journal: " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
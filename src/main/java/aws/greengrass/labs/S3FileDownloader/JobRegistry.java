@@ -0,0 +1,108 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The live jobs keyed by jobId. It is used from the IPC callback thread, the scheduler
+// workers and the shutdown hook, lookups don't lock. The state of a job only changes with
+// compare-and-set, so when a pause, a cancel and the end of the download race only one wins.
+public class JobRegistry {
+    public enum State { QUEUED, RUNNING, PAUSED, DONE }
+    // A message delivered again after its job ended is dropped if the job is among the last ones
+    static final int RECENTLY_ENDED = 1024;
+
+    static class Job {
+        final Downloader downloader;
+        final AtomicReference<State> state = new AtomicReference<State>(State.QUEUED);
+
+        Job(Downloader downloader){
+            this.downloader = downloader;
+        }
+    }
+
+    ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+    // Ids of the jobs which succeeded or were canceled lately, the oldest are forgotten first
+    Set<String> ended = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENTLY_ENDED;
+        }
+    }));
+
+    // Adds a queued job, returns false when a job with the same id is still live
+    public boolean add(Downloader downloader){
+        return jobs.putIfAbsent(downloader.jobId, new Job(downloader)) == null;
+    }
+
+    // Null when the job is unknown or already ended
+    public Downloader get(String jobId){
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.downloader;
+    }
+
+    public State state(String jobId){
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.state.get();
+    }
+
+    // Returns false when the job is not in the expected state anymore. The downloader must
+    // match, a paused job may already have been sent again under the same id.
+    public boolean transition(Downloader downloader, State from, State to){
+        Job job = jobs.get(downloader.jobId);
+        return job != null && job.downloader == downloader && job.state.compareAndSet(from, to);
+    }
+
+    // Moves a queued or running job to PAUSED and takes it out of the registry, the same
+    // job can be sent again right away. Returns the downloader to stop, or null when the
+    // job is unknown or another caller already stopped it.
+    public Downloader stop(String jobId){
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return null;
+        }
+        while (true) {
+            State state = job.state.get();
+            if (state == State.PAUSED || state == State.DONE) {
+                return null;
+            }
+            if (job.state.compareAndSet(state, State.PAUSED)) {
+                jobs.remove(jobId, job);
+                return job.downloader;
+            }
+        }
+    }
+
+    // Called when the download ended, the job is only removed if it still belongs to this downloader
+    public void remove(Downloader downloader){
+        Job job = jobs.get(downloader.jobId);
+        if (job != null && job.downloader == downloader && jobs.remove(downloader.jobId, job)) {
+            job.state.set(State.DONE);
+        }
+    }
+
+    public void ended(String jobId){
+        ended.add(jobId);
+    }
+
+    public boolean recentlyEnded(String jobId){
+        return ended.contains(jobId);
+    }
+
+    // Weakly consistent view, jobs added or removed while iterating may be missed
+    public Collection<String> jobIds(){
+        return jobs.keySet();
+    }
+
+    public int size(){
+        return jobs.size();
+    }
+
+    public boolean isEmpty(){
+        return jobs.isEmpty();
+    }
+}
@@ -1,9 +1,25 @@
 package aws.greengrass.labs.S3FileDownloader;
 
+import java.util.List;
+
 public class JobUpdate {
     public String jobId;
     public String status;
     public String reason;
+    // Scheduler state, only set on QUEUED updates
+    public Integer queueDepth;
+    public Integer activeDownloads;
+    // Keys which could not be downloaded, only set on the final update of a batch job
+    public List<String> failedKeys;
+    // Checksum computed while downloading, only set on the final update of a verified job
+    public String checksumAlgorithm;
+    public String checksum;
+    // Number of files written, only set on the final update of a job which extracted an archive
+    public Long extractedFiles;
+    // Bytes taken from the previous version of the file, only set on the final update of a delta job
+    public Long bytesReused;
+    // The byte range fetched, only set on the "range done" updates of a range job
+    public String range;
 
     public JobUpdate(String jobId, String status, String reason){
         this.jobId = jobId;
@@ -11,4 +27,10 @@ public class JobUpdate {
         this.reason = reason;
     }
 
+    // The job ended, SUCCEEDED, PARTIALLY_SUCCEEDED, FAILED or CANCELED
+    public boolean isFinal(){
+        return status.equals("SUCCEEDED") || status.equals("FAILED")
+                || status.equals("PARTIALLY_SUCCEEDED") || status.equals("CANCELED");
+    }
+
 }
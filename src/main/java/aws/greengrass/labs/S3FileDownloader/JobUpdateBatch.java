@@ -0,0 +1,12 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.List;
+
+// Progress updates of several jobs published in a single message
+public class JobUpdateBatch {
+    public List<JobUpdate> updates;
+
+    public JobUpdateBatch(List<JobUpdate> updates){
+        this.updates = updates;
+    }
+}
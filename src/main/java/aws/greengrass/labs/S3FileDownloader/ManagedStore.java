@@ -0,0 +1,350 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+// Keeps the completed downloads of the destination folder under a byte quota. Every file or
+// extracted folder published by a job is indexed with its size, its last use and its number of
+// uses. Once the indexed bytes exceed the quota, the least recently (LRU) or least frequently
+// (LFU) used ones are deleted, except what a live job is writing or reading. The index is kept
+// sorted in eviction order, the next file to delete is found without walking the folder.
+// The staging area is collected separately: resume files and partial downloads which no live
+// job owns are deleted once they didn't change for the maximum age, a paused job can be sent
+// again until then.
+// The index is guarded by a lock rather than a monitor, the download threads evict and save
+// under it and a virtual thread doing file I/O in a synchronized block would keep its carrier.
+public class ManagedStore {
+    public enum Policy { LRU, LFU }
+
+    static class Entry {
+        // As published, the object index knows the file under this path
+        String path;
+        long size;
+        long lastUsed;
+        long uses;
+    }
+
+    Path indexFile;
+    Path destination;
+    long quotaBytes;
+    Policy policy;
+    long maxStagedAgeMillis;
+    Gson gson = new Gson();
+    // Keyed by normalized path, guarded by lock. The set holds the same entries in eviction
+    // order, an entry is taken out of it before it changes.
+    Map<String, Entry> entries = new HashMap<String, Entry>();
+    TreeSet<Entry> order;
+    long usedBytes;
+    ReentrantLock lock = new ReentrantLock();
+    // True when a live job owns the normalized path, see Downloader.owns
+    Predicate<String> pinned = path -> false;
+    // The evicted files are dropped from the object index too
+    ObjectCache objectCache;
+    LongSupplier clock = System::currentTimeMillis;
+    ScheduledExecutorService timer;
+
+    public ManagedStore(Path indexFile, Path destination, long quotaBytes, Policy policy, long maxStagedAgeMillis){
+        this.indexFile = indexFile;
+        this.destination = destination;
+        this.quotaBytes = quotaBytes;
+        this.policy = policy;
+        this.maxStagedAgeMillis = maxStagedAgeMillis;
+        this.order = new TreeSet<Entry>(comparator(policy));
+        if (quotaBytes > 0) {
+            load();
+        }
+    }
+
+    static Comparator<Entry> comparator(Policy policy){
+        Comparator<Entry> byRecency = Comparator.comparingLong((Entry entry) -> entry.lastUsed);
+        Comparator<Entry> first = policy == Policy.LFU
+            ? Comparator.comparingLong((Entry entry) -> entry.uses).thenComparing(byRecency) : byRecency;
+        return first.thenComparing(entry -> entry.path);
+    }
+
+    static String normalize(String path){
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
+    // Collects the staging area now and then every interval
+    public void start(Path stagingRoot, long intervalMillis){
+        if (maxStagedAgeMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "store-collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(() -> collect(stagingRoot), 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(){
+        if (timer != null) {
+            timer.shutdown();
+        }
+    }
+
+    // Called when a job published a file or folder, it becomes the most recently used one.
+    // Evicts other files when the store is over its quota.
+    public void used(String path){
+        if (quotaBytes <= 0) {
+            return;
+        }
+        long size;
+        try {
+            size = sizeOf(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Could not measure " + path + ", it isn't managed: " + e.getMessage());
+            return;
+        }
+        lock.lock();
+        try {
+            String key = normalize(path);
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entry.path = path;
+                entries.put(key, entry);
+            } else {
+                order.remove(entry);
+                usedBytes -= entry.size;
+            }
+            entry.size = size;
+            entry.lastUsed = clock.getAsLong();
+            entry.uses++;
+            order.add(entry);
+            usedBytes += size;
+            evict(Math.max(0, usedBytes - quotaBytes));
+            save();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Evicts up to the given bytes beyond the quota when a download doesn't fit on the disk.
+    // Returns the bytes freed.
+    public long free(long bytes){
+        if (quotaBytes <= 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            long freed = evict(bytes);
+            if (freed > 0) {
+                save();
+            }
+            return freed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Deletes the first unpinned entries in eviction order until the bytes are freed
+    long evict(long bytes){
+        long freed = 0;
+        lock.lock();
+        try {
+            Iterator<Entry> candidates = order.iterator();
+            while (freed < bytes && candidates.hasNext()) {
+                Entry entry = candidates.next();
+                String key = normalize(entry.path);
+                if (pinned.test(key)) {
+                    continue;
+                }
+                try {
+                    StagingArea.deleteRecursively(Paths.get(entry.path));
+                } catch (IOException e) {
+                    System.err.println("Could not evict " + entry.path + ": " + e.getMessage());
+                    continue;
+                }
+                candidates.remove();
+                entries.remove(key);
+                usedBytes -= entry.size;
+                freed += entry.size;
+                if (objectCache != null) {
+                    objectCache.forget(entry.path);
+                }
+                System.out.println("Evicted " + entry.path + ", " + entry.size + " bytes, used " + entry.uses + " times");
+            }
+        } finally {
+            lock.unlock();
+        }
+        return freed;
+    }
+
+    // Deletes the staged files and folders no live job owns which are older than the maximum
+    // age, then the folders left empty. Returns the number of files deleted.
+    public int collect(Path stagingRoot){
+        if (!Files.isDirectory(stagingRoot)) {
+            return 0;
+        }
+        long oldest = clock.getAsLong() - maxStagedAgeMillis;
+        AtomicLong deleted = new AtomicLong();
+        try {
+            Files.walkFileTree(stagingRoot, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.lastModifiedTime().toMillis() < oldest && !pinned.test(normalize(file.toString()))) {
+                        try {
+                            Files.deleteIfExists(file);
+                            deleted.incrementAndGet();
+                        } catch (IOException e) {
+                            System.err.println("Could not delete " + file + ": " + e.getMessage());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Deleted by a download while walking
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path folder, IOException e) {
+                    if (!folder.equals(stagingRoot) && isEmpty(folder) && !pinned.test(normalize(folder.toString()))) {
+                        try {
+                            Files.deleteIfExists(folder);
+                        } catch (IOException ignored) {
+                            // A download created a file in it meanwhile
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Could not collect the staging area " + stagingRoot + ": " + e.getMessage());
+        }
+        if (deleted.get() > 0) {
+            System.out.println("Deleted " + deleted.get() + " orphaned staged files from " + stagingRoot);
+        }
+        return (int) deleted.get();
+    }
+
+    static boolean isEmpty(Path folder){
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(folder)) {
+            return !children.iterator().hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static long sizeOf(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Files.size(path);
+        }
+        AtomicLong size = new AtomicLong();
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                size.addAndGet(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    // Without an index, the files already in the destination folder are taken over with their
+    // modification time as last use. The folders of the component, like the staging area, start
+    // with a dot and are left out. Called by the constructor, before the index is shared.
+    void load(){
+        if (!Files.exists(indexFile)) {
+            adopt();
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            Map<String, Entry> loaded = gson.fromJson(reader, new TypeToken<Map<String, Entry>>(){}.getType());
+            if (loaded != null) {
+                for (Map.Entry<String, Entry> entry : loaded.entrySet()) {
+                    entries.put(entry.getKey(), entry.getValue());
+                    order.add(entry.getValue());
+                    usedBytes += entry.getValue().size;
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Could not read the store index " + indexFile + ": " + e.getMessage());
+            entries.clear();
+            order.clear();
+            usedBytes = 0;
+            adopt();
+        }
+    }
+
+    void adopt(){
+        if (!Files.isDirectory(destination)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path folder, BasicFileAttributes attributes) {
+                    return !folder.equals(destination) && folder.getFileName().toString().startsWith(".")
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (!file.getFileName().toString().startsWith(".") && attributes.isRegularFile()) {
+                        Entry entry = new Entry();
+                        entry.path = file.toString();
+                        entry.size = attributes.size();
+                        entry.lastUsed = attributes.lastModifiedTime().toMillis();
+                        entries.put(normalize(entry.path), entry);
+                        order.add(entry);
+                        usedBytes += entry.size;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Could not index the destination folder " + destination + ": " + e.getMessage());
+        }
+        System.out.println("Indexed " + entries.size() + " files of " + usedBytes + " bytes in " + destination);
+        save();
+    }
+
+    // Written to a temporary file first so a crash can't leave a truncated index
+    void save(){
+        Path temp = Paths.get(indexFile + ".tmp");
+        lock.lock();
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(entries, writer);
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write the store index " + indexFile + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
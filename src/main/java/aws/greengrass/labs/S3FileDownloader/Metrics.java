@@ -0,0 +1,148 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters describing the transfers, the job queue and the IPC publishes. The methods called
+// by the downloads only add to LongAdders and don't allocate. The transferred bytes are not
+// counted per buffer: every download registers how to read its byte count and the rates are
+// computed from samples taken every SAMPLE_INTERVAL_MILLIS, see MetricsReporter.
+public class Metrics {
+    static final long SAMPLE_INTERVAL_MILLIS = 5000;
+    static final String[] FINAL_STATUSES = {"SUCCEEDED", "PARTIALLY_SUCCEEDED", "FAILED", "CANCELED"};
+
+    // Byte count of one running download
+    static class JobMeter {
+        LongSupplier bytes;
+        long lastBytes;
+        long lastNanos;
+        volatile double bytesPerSecond;
+
+        JobMeter(LongSupplier bytes){
+            this.bytes = bytes;
+            this.lastBytes = bytes.getAsLong();
+            this.lastNanos = System.nanoTime();
+        }
+    }
+
+    Map<String, JobMeter> jobs = new ConcurrentHashMap<String, JobMeter>();
+    Set<String> pausedJobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    LongAdder bytesTotal = new LongAdder();
+    Map<String, LongAdder> jobsFinished = new LinkedHashMap<String, LongAdder>();
+    // Time from the start of a download to its first bytes
+    LongAdder firstByteCount = new LongAdder();
+    LongAdder firstByteNanos = new LongAdder();
+    AtomicLong firstByteMaxNanos = new AtomicLong();
+    // Publishes to AWS IoT Core through IPC
+    LongAdder ipcPublishCount = new LongAdder();
+    LongAdder ipcPublishNanos = new LongAdder();
+    AtomicLong ipcPublishMaxNanos = new AtomicLong();
+    LongAdder ipcPublishFailures = new LongAdder();
+    volatile long transferClientStartupMillis;
+    // Failed downloads tried again, by failure
+    Map<RetryPolicy.Failure, LongAdder> retries = new EnumMap<RetryPolicy.Failure, LongAdder>(RetryPolicy.Failure.class);
+
+    public Metrics(){
+        for (String status : FINAL_STATUSES) {
+            jobsFinished.put(status, new LongAdder());
+        }
+        for (RetryPolicy.Failure failure : RetryPolicy.Failure.values()) {
+            if (failure != RetryPolicy.Failure.FATAL) {
+                retries.put(failure, new LongAdder());
+            }
+        }
+    }
+
+    // Starts metering a download, bytes returns what it transferred so far
+    public void track(String jobId, LongSupplier bytes){
+        jobs.put(jobId, new JobMeter(bytes));
+    }
+
+    // Stops metering a download, the bytes since the last sample are still counted
+    public void untrack(String jobId){
+        JobMeter meter = jobs.remove(jobId);
+        if (meter != null) {
+            synchronized (meter) {
+                bytesTotal.add(Math.max(0, meter.bytes.getAsLong() - meter.lastBytes));
+                meter.lastBytes = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    // Updates the transfer rates, called by the reporter thread
+    void sample(){
+        long now = System.nanoTime();
+        for (JobMeter meter : jobs.values()) {
+            synchronized (meter) {
+                if (meter.lastBytes == Long.MAX_VALUE) {
+                    continue;
+                }
+                long bytes = meter.bytes.getAsLong();
+                // A restarted download may truncate its file back to the last checkpoint
+                long delta = Math.max(0, bytes - meter.lastBytes);
+                bytesTotal.add(delta);
+                meter.bytesPerSecond = now > meter.lastNanos ? delta * 1e9 / (now - meter.lastNanos) : 0;
+                meter.lastBytes = bytes;
+                meter.lastNanos = now;
+            }
+        }
+    }
+
+    public void firstByte(long nanos){
+        firstByteCount.increment();
+        firstByteNanos.add(nanos);
+        firstByteMaxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void ipcPublished(long nanos, boolean failed){
+        ipcPublishCount.increment();
+        ipcPublishNanos.add(nanos);
+        ipcPublishMaxNanos.accumulateAndGet(nanos, Math::max);
+        if (failed) {
+            ipcPublishFailures.increment();
+        }
+    }
+
+    public void retry(RetryPolicy.Failure failure){
+        retries.get(failure).increment();
+    }
+
+    // Follows the status updates of the jobs
+    public void jobUpdate(String jobId, String status, String reason){
+        LongAdder finished = jobsFinished.get(status);
+        if (finished != null) {
+            finished.increment();
+            pausedJobs.remove(jobId);
+        } else if ("paused".equals(reason)) {
+            pausedJobs.add(jobId);
+        }
+    }
+
+    // A paused job was sent again
+    public void jobAccepted(String jobId){
+        pausedJobs.remove(jobId);
+    }
+
+    public double bytesPerSecond(){
+        double total = 0;
+        for (JobMeter meter : jobs.values()) {
+            total += meter.bytesPerSecond;
+        }
+        return total;
+    }
+
+    public Map<String, Double> jobBytesPerSecond(){
+        Map<String, Double> rates = new LinkedHashMap<String, Double>();
+        for (Map.Entry<String, JobMeter> entry : jobs.entrySet()) {
+            rates.put(entry.getKey(), entry.getValue().bytesPerSecond);
+        }
+        return rates;
+    }
+}
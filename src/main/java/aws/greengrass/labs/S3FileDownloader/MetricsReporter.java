@@ -0,0 +1,236 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Exports the metrics in two ways: a compact JSON message published to METRICS_TOPIC every
+// METRICS_INTERVAL_MS, and a Prometheus text endpoint on http://127.0.0.1:METRICS_PORT/metrics.
+// Both are optional, the transfer rates are sampled as long as one of them is enabled.
+public class MetricsReporter {
+    static final String PREFIX = "s3filedownloader_";
+
+    // Content of the metrics message
+    static class MetricsMessage {
+        long timestamp;
+        double bytesPerSecond;
+        long bytesTotal;
+        int activeJobs;
+        int queuedJobs;
+        int pausedJobs;
+        Map<String, Double> jobBytesPerSecond;
+        Map<String, Long> jobsFinished = new LinkedHashMap<String, Long>();
+        Map<String, Long> retries = new LinkedHashMap<String, Long>();
+        // Over the interval since the previous message
+        long firstByteCount;
+        double firstByteAvgMillis;
+        double firstByteMaxMillis;
+        long ipcPublishes;
+        long ipcFailures;
+        double ipcAvgMillis;
+        double ipcMaxMillis;
+        long transferClientStartupMillis;
+    }
+
+    IoTManager iotManager;
+    Metrics metrics;
+    String topic;
+    long intervalMillis;
+    int port;
+    ScheduledExecutorService timer;
+    HttpServer server;
+    Gson gson = new Gson();
+    // Counts at the previous message, only used by the timer thread
+    long lastFirstByteCount;
+    long lastFirstByteNanos;
+    long lastIpcCount;
+    long lastIpcNanos;
+    long lastIpcFailures;
+
+    public MetricsReporter(IoTManager iotManager, Metrics metrics, String topic, long intervalMillis, int port){
+        this.iotManager = iotManager;
+        this.metrics = metrics;
+        this.topic = topic;
+        this.intervalMillis = intervalMillis;
+        this.port = port;
+    }
+
+    public void start(){
+        if (topic == null && port <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::sample, Metrics.SAMPLE_INTERVAL_MILLIS, Metrics.SAMPLE_INTERVAL_MILLIS,
+                                        TimeUnit.MILLISECONDS);
+        if (topic != null) {
+            timer.scheduleWithFixedDelay(this::publish, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (port > 0) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                server.createContext("/metrics", this::serve);
+                server.start();
+                System.out.println("Metrics available on http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Could not start the metrics endpoint on port " + port + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public void stop(){
+        if (timer != null) {
+            timer.shutdown();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    void sample(){
+        try {
+            metrics.sample();
+        } catch (RuntimeException e) {
+            // Keep the timer running
+            System.err.println("Exception occurred while sampling metrics: " + e.getMessage());
+        }
+    }
+
+    void publish(){
+        try {
+            iotManager.publishMetrics(topic, gson.toJson(message()));
+        } catch (RuntimeException e) {
+            System.err.println("Exception occurred while publishing metrics: " + e.getMessage());
+        }
+    }
+
+    MetricsMessage message(){
+        MetricsMessage message = new MetricsMessage();
+        message.timestamp = System.currentTimeMillis();
+        message.bytesPerSecond = metrics.bytesPerSecond();
+        message.bytesTotal = metrics.bytesTotal.sum();
+        message.activeJobs = iotManager.scheduler.activeCount();
+        message.queuedJobs = iotManager.scheduler.queueDepth();
+        message.pausedJobs = metrics.pausedJobs.size();
+        message.jobBytesPerSecond = metrics.jobBytesPerSecond();
+        for (Map.Entry<String, LongAdder> entry : metrics.jobsFinished.entrySet()) {
+            message.jobsFinished.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<RetryPolicy.Failure, LongAdder> entry : metrics.retries.entrySet()) {
+            message.retries.put(reason(entry.getKey()), entry.getValue().sum());
+        }
+        long firstByteCount = metrics.firstByteCount.sum();
+        long firstByteNanos = metrics.firstByteNanos.sum();
+        message.firstByteCount = firstByteCount - lastFirstByteCount;
+        message.firstByteAvgMillis = average(firstByteNanos - lastFirstByteNanos, message.firstByteCount);
+        message.firstByteMaxMillis = metrics.firstByteMaxNanos.getAndSet(0) / 1e6;
+        lastFirstByteCount = firstByteCount;
+        lastFirstByteNanos = firstByteNanos;
+        long ipcCount = metrics.ipcPublishCount.sum();
+        long ipcNanos = metrics.ipcPublishNanos.sum();
+        long ipcFailures = metrics.ipcPublishFailures.sum();
+        message.ipcPublishes = ipcCount - lastIpcCount;
+        message.ipcFailures = ipcFailures - lastIpcFailures;
+        message.ipcAvgMillis = average(ipcNanos - lastIpcNanos, message.ipcPublishes);
+        message.ipcMaxMillis = metrics.ipcPublishMaxNanos.getAndSet(0) / 1e6;
+        lastIpcCount = ipcCount;
+        lastIpcNanos = ipcNanos;
+        lastIpcFailures = ipcFailures;
+        message.transferClientStartupMillis = metrics.transferClientStartupMillis;
+        return message;
+    }
+
+    static double average(long nanos, long count){
+        return count == 0 ? 0 : nanos / 1e6 / count;
+    }
+
+    void serve(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Prometheus text exposition format, the counters are totals since the component started
+    String prometheusText(){
+        StringBuilder text = new StringBuilder();
+        metric(text, "bytes_total", "counter", "Bytes downloaded", metrics.bytesTotal.sum());
+        metric(text, "bytes_per_second", "gauge", "Download rate of all the jobs", metrics.bytesPerSecond());
+        header(text, "job_bytes_per_second", "gauge", "Download rate of a running job");
+        for (Map.Entry<String, Double> entry : metrics.jobBytesPerSecond().entrySet()) {
+            sample(text, "job_bytes_per_second{job=\"" + escape(entry.getKey()) + "\"}", entry.getValue());
+        }
+        header(text, "jobs", "gauge", "Jobs by state");
+        sample(text, "jobs{state=\"active\"}", iotManager.scheduler.activeCount());
+        sample(text, "jobs{state=\"queued\"}", iotManager.scheduler.queueDepth());
+        sample(text, "jobs{state=\"paused\"}", metrics.pausedJobs.size());
+        header(text, "jobs_finished_total", "counter", "Jobs which ended, by status");
+        for (Map.Entry<String, LongAdder> entry : metrics.jobsFinished.entrySet()) {
+            sample(text, "jobs_finished_total{status=\"" + entry.getKey() + "\"}", entry.getValue().sum());
+        }
+        header(text, "retries_total", "counter", "Failed downloads tried again, by failure");
+        for (Map.Entry<RetryPolicy.Failure, LongAdder> entry : metrics.retries.entrySet()) {
+            sample(text, "retries_total{reason=\"" + reason(entry.getKey()) + "\"}", entry.getValue().sum());
+        }
+        header(text, "time_to_first_byte_seconds", "summary", "Time from the start of a download to its first bytes");
+        sample(text, "time_to_first_byte_seconds_sum", metrics.firstByteNanos.sum() / 1e9);
+        sample(text, "time_to_first_byte_seconds_count", metrics.firstByteCount.sum());
+        header(text, "ipc_publish_seconds", "summary", "Duration of the publishes to AWS IoT Core");
+        sample(text, "ipc_publish_seconds_sum", metrics.ipcPublishNanos.sum() / 1e9);
+        sample(text, "ipc_publish_seconds_count", metrics.ipcPublishCount.sum());
+        metric(text, "ipc_publish_failures_total", "counter", "Publishes to AWS IoT Core which failed",
+                metrics.ipcPublishFailures.sum());
+        metric(text, "transfer_client_startup_seconds", "gauge", "Time to create the S3 client and Transfer Manager",
+                metrics.transferClientStartupMillis / 1e3);
+        return text.toString();
+    }
+
+    static void metric(StringBuilder text, String name, String type, String help, double value){
+        header(text, name, type, help);
+        sample(text, name, value);
+    }
+
+    static void header(StringBuilder text, String name, String type, String help){
+        text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    static void sample(StringBuilder text, String series, double value){
+        text.append(PREFIX).append(series).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            text.append((long) value);
+        } else {
+            text.append(value);
+        }
+        text.append('\n');
+    }
+
+    static String reason(RetryPolicy.Failure failure){
+        return failure.name().toLowerCase();
+    }
+
+    static String escape(String label){
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,285 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Remembers what was downloaded to each local path so an unchanged object isn't fetched again.
+// The index is a JSON file in the destination folder with the ETag, size and last modified
+// date of every downloaded file. A job whose file is still intact sends a HEAD request with
+// If-None-Match and S3 answers 304 Not Modified when the object didn't change.
+// With hard links enabled, a file with the same content as another key is linked instead of
+// being downloaded or stored twice.
+// The index is guarded by a lock rather than a monitor, it is read and written from the
+// download threads and a virtual thread doing file I/O in a synchronized block would keep its
+// carrier thread.
+public class ObjectCache {
+    static class Entry {
+        String bucket;
+        String key;
+        String eTag;
+        long size;
+        long lastModified;
+        // Modification time of the local file when it was recorded, detects local changes
+        long fileLastModified;
+        // SHA-256 of the content, only computed when hard links are enabled
+        String sha256;
+    }
+
+    Path indexFile;
+    S3AsyncClient s3Client;
+    boolean hardLinks;
+    Gson gson = new Gson();
+    // Keyed by local path, guarded by lock
+    Map<String, Entry> entries = new HashMap<String, Entry>();
+    ReentrantLock lock = new ReentrantLock();
+
+    public ObjectCache(Path indexFile, S3AsyncClient s3Client, boolean hardLinks){
+        this.indexFile = indexFile;
+        this.s3Client = s3Client;
+        this.hardLinks = hardLinks;
+        load();
+    }
+
+    // Returns true when the file at filePath already has the content of the object, either
+    // because it didn't change since the last download or because another file had it.
+    // Otherwise the file stays in place until the staged download replaces it.
+    public boolean reuse(String bucket, String key, String filePath) throws InterruptedException {
+        Entry entry = intactEntry(filePath);
+        if (entry != null && !(bucket.equals(entry.bucket) && key.equals(entry.key))) {
+            entry = null;
+        }
+        if (entry == null && !hardLinks) {
+            forget(filePath);
+            return false;
+        }
+        String knownETag = entry == null ? null : entry.eTag;
+        HeadObjectResponse head;
+        try {
+            head = s3Client.headObject(request -> request.bucket(bucket).key(key).ifNoneMatch(knownETag)).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof S3Exception && ((S3Exception) e.getCause()).statusCode() == 304) {
+                System.out.println("Object unchanged since the last download: " + filePath);
+                return true;
+            }
+            // Offline or S3 unavailable, the file and its entry are kept in case the download fails too
+            System.err.println("Could not check " + key + ", downloading it: " + e.getCause());
+            return false;
+        }
+        forget(filePath);
+        if (hardLinks) {
+            String source = findContent(head.eTag(), head.contentLength(), null, filePath);
+            Entry sourceEntry = source == null ? null : entry(source);
+            if (sourceEntry != null && link(source, filePath)) {
+                Entry linked = copy(sourceEntry);
+                linked.bucket = bucket;
+                linked.key = key;
+                try {
+                    record(filePath, linked);
+                } catch (IOException e) {
+                    System.err.println("Could not index " + filePath + ": " + e.getMessage());
+                }
+                System.out.println("Linked " + filePath + " to " + source + ", same content");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Records a completed download, the response is the last GET of the download
+    public void recordDownload(String bucket, String key, String filePath, GetObjectResponse response){
+        if (response == null || response.eTag() == null) {
+            return;
+        }
+        try {
+            Entry entry = new Entry();
+            entry.bucket = bucket;
+            entry.key = key;
+            entry.eTag = response.eTag();
+            entry.size = Files.size(Paths.get(filePath));
+            entry.lastModified = response.lastModified() == null ? 0 : response.lastModified().toEpochMilli();
+            if (hardLinks) {
+                entry.sha256 = sha256(Paths.get(filePath));
+                // Keep a single copy of identical files
+                String source = findContent(null, entry.size, entry.sha256, filePath);
+                if (source != null && link(source, filePath)) {
+                    System.out.println("Linked " + filePath + " to " + source + ", same content");
+                }
+            }
+            record(filePath, entry);
+        } catch (IOException e) {
+            System.err.println("Could not index " + filePath + ": " + e.getMessage());
+        }
+    }
+
+    // The index entry of a file which wasn't changed since it was recorded
+    Entry intactEntry(String filePath){
+        lock.lock();
+        try {
+            Entry entry = entries.get(filePath);
+            return entry != null && isIntact(filePath, entry) ? entry : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Entry entry(String filePath){
+        lock.lock();
+        try {
+            return entries.get(filePath);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Another intact file with the same ETag or checksum and size
+    String findContent(String eTag, long size, String sha256, String excludedPath){
+        lock.lock();
+        try {
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                Entry entry = candidate.getValue();
+                boolean sameContent = (eTag != null && eTag.equals(entry.eTag))
+                                        || (sha256 != null && sha256.equals(entry.sha256));
+                if (sameContent && entry.size == size && !candidate.getKey().equals(excludedPath)
+                        && isIntact(candidate.getKey(), entry)) {
+                    return candidate.getKey();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isIntact(String filePath, Entry entry){
+        try {
+            Path path = Paths.get(filePath);
+            return Files.isRegularFile(path) && Files.size(path) == entry.size
+                    && Files.getLastModifiedTime(path).toMillis() == entry.fileLastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Replaces filePath with a hard link to source
+    boolean link(String source, String filePath){
+        Path path = Paths.get(filePath);
+        Path temp = Paths.get(filePath + ".link");
+        try {
+            Files.createDirectories(path.getParent());
+            Files.deleteIfExists(temp);
+            Files.createLink(temp, Paths.get(source));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Could not link " + filePath + " to " + source + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Drops the entry of a file which is about to be downloaded again or was deleted. The file
+    // is left alone: the download is staged and StagingArea.commit renames it over the path,
+    // which replaces a hard link without changing the other key.
+    void forget(String filePath){
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.remove(filePath);
+        } finally {
+            lock.unlock();
+        }
+        if (entry != null) {
+            save();
+        }
+    }
+
+    void record(String filePath, Entry entry) throws IOException {
+        entry.fileLastModified = Files.getLastModifiedTime(Paths.get(filePath)).toMillis();
+        lock.lock();
+        try {
+            entries.put(filePath, entry);
+        } finally {
+            lock.unlock();
+        }
+        save();
+    }
+
+    Entry copy(Entry entry){
+        return gson.fromJson(gson.toJson(entry), Entry.class);
+    }
+
+    static String sha256(Path path) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1024 * 1024];
+            try (InputStream input = Files.newInputStream(path)) {
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Called by the constructor, before the index is shared
+    void load(){
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            Map<String, Entry> loaded = gson.fromJson(reader, new TypeToken<Map<String, Entry>>(){}.getType());
+            if (loaded != null) {
+                entries.putAll(loaded);
+            }
+        } catch (IOException | JsonParseException e) {
+            // The index is only an optimization, start with an empty one
+            System.err.println("Could not read the object index " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    // Written to a temporary file first so a crash can't leave a truncated index. The lock keeps
+    // two saves from writing the temporary file at once.
+    void save(){
+        Path temp = Paths.get(indexFile + ".tmp");
+        lock.lock();
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(entries, writer);
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write the object index " + indexFile + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
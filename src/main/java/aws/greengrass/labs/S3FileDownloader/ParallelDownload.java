@@ -0,0 +1,352 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleConsumer;
+
+// Downloads a large object with several ranged GET requests in flight. The file is
+// preallocated to the object size and every part is written at its offset with positional
+// FileChannel writes, see PositionalWriter. The completed parts are listed in a
+// <MEDIAFILE>.resume-parts file when the download is paused or fails, so resuming only
+// fetches the missing ranges.
+// Every part is requested with If-Match, the download fails if the object changes midway.
+// The state is guarded by a lock rather than a monitor, the pause and the checkpoints write
+// the file under it and a virtual thread in a synchronized block would keep its carrier.
+public class ParallelDownload {
+    // Content of the .resume-parts file
+    static class State {
+        String bucket;
+        String key;
+        String eTag;
+        long size;
+        long partSize;
+        List<Integer> completedParts = new ArrayList<Integer>();
+    }
+
+    static final Gson GSON = new Gson();
+    static final int ZEROS_SIZE = 1024 * 1024;
+
+    S3AsyncClient s3Client;
+    String bucket;
+    String key;
+    Path destination;
+    String eTag;
+    Instant lastModified;
+    long size;
+    long partSize;
+    int partCount;
+    int concurrency;
+    // Null when the download isn't throttled
+    List<BandwidthLimiter> limiters;
+    DoubleConsumer progressListener;
+    AtomicLong transferredBytes = new AtomicLong();
+    CompletableFuture<GetObjectResponse> completion = new CompletableFuture<GetObjectResponse>();
+
+    // All the fields below are guarded by lock, which is reentrant: a part which completes right
+    // away or is cancelled calls partDone on the thread holding it
+    ReentrantLock lock = new ReentrantLock();
+    FileChannel channel;
+    BitSet completedParts = new BitSet();
+    Map<Integer, CompletableFuture<GetObjectResponse>> inFlight = new HashMap<Integer, CompletableFuture<GetObjectResponse>>();
+    int nextPart;
+    boolean stopped;
+
+    ParallelDownload(S3AsyncClient s3Client, String bucket, String key, Path destination, HeadObjectResponse head,
+                        long partSize, int concurrency, List<BandwidthLimiter> limiters, DoubleConsumer progressListener){
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.destination = destination;
+        this.eTag = head.eTag();
+        this.lastModified = head.lastModified();
+        this.size = head.contentLength();
+        this.partSize = partSize;
+        this.partCount = (int) ((size + partSize - 1) / partSize);
+        this.concurrency = concurrency;
+        this.limiters = limiters;
+        this.progressListener = progressListener;
+    }
+
+    // Starts or resumes a parallel download. Returns null when the object fits in a single part
+    // and isn't being resumed, the caller then uses a regular download.
+    public static ParallelDownload open(S3AsyncClient s3Client, String bucket, String key, String filePath,
+                                        long partSize, int concurrency, List<BandwidthLimiter> limiters,
+                                        DoubleConsumer progressListener) throws InterruptedException, ExecutionException, IOException {
+        return open(s3Client, bucket, key, filePath, partSize, concurrency, limiters, progressListener, false);
+    }
+
+    // Same as above, preallocate writes the whole file before the first part instead of
+    // leaving a sparse file, so the disk space is taken and contiguous from the start
+    public static ParallelDownload open(S3AsyncClient s3Client, String bucket, String key, String filePath,
+                                        long partSize, int concurrency, List<BandwidthLimiter> limiters,
+                                        DoubleConsumer progressListener, boolean preallocate)
+                                        throws InterruptedException, ExecutionException, IOException {
+        Path destination = Paths.get(filePath);
+        State state = loadState(destination);
+        HeadObjectResponse head = s3Client.headObject(request -> request.bucket(bucket).key(key)).get();
+        if (state != null && !(bucket.equals(state.bucket) && key.equals(state.key) && head.eTag().equals(state.eTag)
+                                && head.contentLength() == state.size && Files.exists(destination)
+                                && Files.size(destination) == state.size)) {
+            System.out.println("Object or file changed since the pause, starting over " + filePath);
+            state = null;
+        }
+        if (state == null && head.contentLength() <= partSize) {
+            return null;
+        }
+        ParallelDownload download = new ParallelDownload(s3Client, bucket, key, destination, head,
+                                        state == null ? partSize : state.partSize, concurrency, limiters, progressListener);
+        download.begin(state, preallocate);
+        return download;
+    }
+
+    // Writes zeros up to size, Java has no portable fallocate
+    static void preallocate(Path destination, long size) throws IOException, InterruptedException {
+        ByteBuffer zeros = ByteBuffer.allocate(ZEROS_SIZE);
+        try (FileChannel channel = FileChannel.open(destination, StandardOpenOption.CREATE,
+                                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (long position = 0; position < size; position += ZEROS_SIZE) {
+                zeros.clear().limit((int) Math.min(ZEROS_SIZE, size - position));
+                while (zeros.hasRemaining()) {
+                    channel.write(zeros, position + zeros.position());
+                }
+            }
+            channel.force(false);
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException("Preallocation of " + destination + " interrupted");
+        }
+    }
+
+    // Bytes of the object already in the file of a paused download, 0 when there is none
+    public static long completedBytes(String filePath){
+        State state = loadState(Paths.get(filePath));
+        if (state == null) {
+            return 0;
+        }
+        // The last part is usually shorter than the others
+        long bytes = 0;
+        for (int part : state.completedParts) {
+            bytes += Math.min(state.partSize, state.size - (long) part * state.partSize);
+        }
+        return bytes;
+    }
+
+    public static boolean isResume(String filePath){
+        return Files.exists(resumeFile(Paths.get(filePath)));
+    }
+
+    static Path resumeFile(Path destination){
+        return Paths.get(destination + ".resume-parts");
+    }
+
+    // The file is prepared before taking the lock, writing the zeros of a large object takes long
+    // and the checkpoints and pauses wait on this lock
+    void begin(State state, boolean preallocate) throws IOException, InterruptedException {
+        if (state == null) {
+            Files.deleteIfExists(destination);
+            if (preallocate) {
+                preallocate(destination, size);
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+            // Reserve the whole file up front, the parts are written at their offset
+            file.setLength(size);
+        }
+        FileChannel opened = FileChannel.open(destination, StandardOpenOption.WRITE);
+        lock.lock();
+        try {
+            if (state != null) {
+                for (int part : state.completedParts) {
+                    completedParts.set(part);
+                    transferredBytes.addAndGet(partLength(part));
+                }
+                System.out.println("Resuming " + destination + ", " + completedParts.cardinality() + " of " + partCount + " parts done");
+            }
+            channel = opened;
+            launchParts();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CompletableFuture<GetObjectResponse> completionFuture(){
+        return completion;
+    }
+
+    // Keeps up to concurrency parts in flight and completes the download after the last one
+    void launchParts(){
+        lock.lock();
+        try {
+            while (!stopped && inFlight.size() < concurrency && nextPart < partCount) {
+                int part = nextPart++;
+                if (!completedParts.get(part)) {
+                    startPart(part);
+                }
+            }
+            if (!stopped && inFlight.isEmpty() && nextPart >= partCount) {
+                stopped = true;
+                try {
+                    channel.force(false);
+                    channel.close();
+                    Files.deleteIfExists(resumeFile(destination));
+                    completion.complete(GetObjectResponse.builder().eTag(eTag).lastModified(lastModified)
+                                            .contentLength(size).build());
+                } catch (IOException e) {
+                    completion.completeExceptionally(e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void startPart(int part){
+        long start = (long) part * partSize;
+        long end = start + partLength(part) - 1;
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key)
+                                        .range("bytes=" + start + "-" + end).ifMatch(eTag).build();
+        AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> transformer = new PositionalWriter(channel, start,
+                length -> progressListener.accept((double) transferredBytes.addAndGet(length) / size));
+        if (limiters != null) {
+            transformer = new ThrottledResponseTransformer<GetObjectResponse, GetObjectResponse>(transformer, limiters);
+        }
+        CompletableFuture<GetObjectResponse> future = s3Client.getObject(request, transformer);
+        inFlight.put(part, future);
+        future.whenComplete((response, error) -> partDone(part, error));
+    }
+
+    void partDone(int part, Throwable error){
+        lock.lock();
+        try {
+            if (stopped || inFlight.remove(part) == null) {
+                return;
+            }
+            if (error == null) {
+                completedParts.set(part);
+                launchParts();
+            } else {
+                // Keep what was downloaded, a new job continues from the completed parts
+                System.err.println("Part " + part + " of " + destination + " failed: " + error);
+                stop();
+                completion.completeExceptionally(error);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long partLength(int part){
+        return Math.min(partSize, size - (long) part * partSize);
+    }
+
+    // Cancels the parts in flight and writes the resume file
+    public void pause(){
+        lock.lock();
+        try {
+            if (!stopped) {
+                stop();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Makes the completed parts durable and lists them in the resume file, the download goes on
+    public void checkpoint() throws IOException {
+        lock.lock();
+        try {
+            if (!stopped) {
+                channel.force(false);
+                saveState();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Cancelling a part completes its future on this thread, partDone ignores it once stopped
+    void stop(){
+        lock.lock();
+        try {
+            stopped = true;
+            for (CompletableFuture<GetObjectResponse> future : inFlight.values()) {
+                future.cancel(true);
+            }
+            inFlight.clear();
+            try {
+                // The completed parts must be on the disk before the resume file says so
+                channel.force(false);
+                channel.close();
+                saveState();
+            } catch (IOException e) {
+                System.err.println("Could not write the resume file of " + destination + ": " + e.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void saveState() throws IOException {
+        State state = new State();
+        state.bucket = bucket;
+        state.key = key;
+        state.eTag = eTag;
+        state.size = size;
+        state.partSize = partSize;
+        for (int part = completedParts.nextSetBit(0); part >= 0; part = completedParts.nextSetBit(part + 1)) {
+            state.completedParts.add(part);
+        }
+        saveState(destination, state);
+    }
+
+    // Also used to start a download from the parts already in the file, see DeltaDownloader
+    static void saveState(Path destination, State state) throws IOException {
+        Path temp = Paths.get(resumeFile(destination) + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            GSON.toJson(state, writer);
+        }
+        Files.move(temp, resumeFile(destination), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static State loadState(Path destination){
+        Path resumeFile = resumeFile(destination);
+        if (!Files.exists(resumeFile)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(resumeFile, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, State.class);
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Could not read " + resumeFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+// Command received on the pause topic. Without a jobId every download is paused,
+// with a jobId only that job is paused, or canceled when cancel is true.
+public class PauseCommand {
+    public String jobId;
+    public boolean cancel;
+
+    public PauseCommand(String jobId, boolean cancel){
+        this.jobId = jobId;
+        this.cancel = cancel;
+    }
+}
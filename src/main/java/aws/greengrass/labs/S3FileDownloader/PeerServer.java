@@ -0,0 +1,177 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the objects this core downloaded to the other cores of the site, see PeerSource.
+// GET /objects/<bucket>/<key> answers with the file when the object index has it intact, with
+// the ETag given in If-Match. Ranges are supported so a transfer cut midway continues from
+// another core. Only the files in the object index are served, with the shared token when one
+// is configured. IoTManager doesn't start it without a token.
+public class PeerServer {
+    static final String PATH = "/objects/";
+    static final String TOKEN_HEADER = "X-Peer-Token";
+    // Transfers served at the same time, the other requests wait
+    static final int THREADS = 4;
+
+    String destinationFolder;
+    ObjectCache objectCache;
+    int port;
+    String token;
+    HttpServer server;
+    ExecutorService executor;
+
+    public PeerServer(String destinationFolder, ObjectCache objectCache, int port, String token){
+        this.destinationFolder = destinationFolder;
+        this.objectCache = objectCache;
+        this.port = port;
+        this.token = token;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, this::serve);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "peer-server" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+        System.out.println("Serving the downloaded objects to the peers on port " + port());
+    }
+
+    public void stop(){
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    // The port it listens on, chosen by the system when 0 was configured
+    public int port(){
+        return server.getAddress().getPort();
+    }
+
+    // Compared in constant time, the time to reject a token doesn't tell how much of it matched
+    boolean authorized(String requestToken){
+        return requestToken != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                                                                requestToken.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void serve(HttpExchange exchange) throws IOException {
+        try {
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            if (!head && !exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (token != null && !authorized(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+            String object = exchange.getRequestURI().getPath().substring(PATH.length());
+            int separator = object.indexOf('/');
+            if (separator <= 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String bucket = object.substring(0, separator);
+            String key = object.substring(separator + 1);
+            String filePath = destinationFolder + bucket + "/" + key;
+            ObjectCache.Entry entry = objectCache.intactEntry(filePath);
+            if (entry == null || !bucket.equals(entry.bucket) || !key.equals(entry.key)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+            if (ifMatch != null && !ifMatch.equals(entry.eTag)) {
+                exchange.sendResponseHeaders(412, -1);
+                return;
+            }
+            long start = 0;
+            long end = entry.size - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                long[] bounds = parseRange(range, entry.size);
+                if (bounds == null) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + entry.size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                start = bounds[0];
+                end = bounds[1];
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + entry.size);
+            }
+            exchange.getResponseHeaders().set("ETag", entry.eTag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            long length = end - start + 1;
+            exchange.sendResponseHeaders(range == null ? 200 : 206, head || length == 0 ? -1 : length);
+            if (!head && length > 0) {
+                send(filePath, start, length, exchange.getResponseBody());
+                System.out.println("Served " + length + " bytes of " + key + " to " + exchange.getRemoteAddress());
+            }
+        } catch (IOException e) {
+            System.err.println("Could not serve " + exchange.getRequestURI() + " to a peer: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static void send(String filePath, long start, long length, OutputStream body) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+                WritableByteChannel out = Channels.newChannel(body)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int read = file.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException(filePath + " is shorter than the index says");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                position += read;
+                remaining -= read;
+            }
+        }
+    }
+
+    // A single range "bytes=<start>-[<end>]", null when it can't be served
+    static long[] parseRange(String range, long size){
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-", -1);
+        try {
+            if (bounds.length != 2 || bounds[0].isEmpty()) {
+                return null;
+            }
+            long start = Long.parseLong(bounds[0]);
+            long end = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+            return start <= end ? new long[] {start, end} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
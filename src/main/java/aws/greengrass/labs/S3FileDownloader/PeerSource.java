@@ -0,0 +1,159 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+// Fetches an object from the other cores of the site before it is downloaded from S3, see
+// PeerServer. The peers are asked in random order to spread the load of a site. A peer which
+// doesn't have the object with the current ETag answers 404 or 412 and the next one is asked.
+// A transfer cut midway continues from the next peer with a Range request.
+// The file is checked against the checksum of the job or of the object, or against the ETag
+// when it is the MD5 of the content. An object none of them can verify, e.g. uploaded in parts
+// without a checksum, isn't fetched from the peers, a matching size doesn't prove the content.
+public class PeerSource {
+    List<String> peers;
+    String token;
+    int timeoutMillis = 5000;
+
+    // Peers as host:port
+    public PeerSource(List<String> peers, String token){
+        this.peers = peers;
+        this.token = token;
+    }
+
+    // Writes the object to target, progress gets the bytes written. Returns false when no peer
+    // had it, it failed the verification or it can't be verified, target is deleted then.
+    public boolean fetch(String bucket, String key, String eTag, long size, Path target,
+                            StreamingChecksum checksum, LongConsumer progress) throws InterruptedException {
+        MessageDigest md5 = checksum == null ? md5(eTag) : null;
+        if (checksum == null && md5 == null) {
+            System.out.println("No checksum can verify a copy of " + key + " from the peers, downloading it from S3");
+            return false;
+        }
+        long written = 0;
+        try {
+            Files.createDirectories(target.getParent());
+            try (OutputStream out = Files.newOutputStream(target)) {
+                for (String peer : order()) {
+                    if (written == size) {
+                        break;
+                    }
+                    written = fetchFrom(peer, bucket, key, eTag, size, written, out, checksum, md5, progress);
+                }
+            }
+            if (written != size) {
+                Files.deleteIfExists(target);
+                return false;
+            }
+            boolean verified = checksum != null ? checksum.matches()
+                                : MessageDigest.isEqual(md5.digest(), StreamingChecksum.decode(unquoted(eTag)));
+            if (!verified) {
+                System.err.println("The copy of " + key + " from the peers doesn't match its checksum, downloading it from S3");
+                Files.deleteIfExists(target);
+            }
+            return verified;
+        } catch (IOException e) {
+            System.err.println("Could not write " + target + ": " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            // Paused, the next attempt starts over
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException ignored) {
+                // Overwritten by the next attempt
+            }
+            throw e;
+        }
+    }
+
+    // Continues the transfer from one peer at offset, returns the bytes written after it
+    long fetchFrom(String peer, String bucket, String key, String eTag, long size, long offset, OutputStream out,
+                    StreamingChecksum checksum, MessageDigest md5, LongConsumer progress) throws InterruptedException {
+        long written = offset;
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URI("http", peer, PeerServer.PATH + bucket + "/" + key, null, null)
+                                                .toURL().openConnection();
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("If-Match", eTag);
+            if (token != null) {
+                connection.setRequestProperty(PeerServer.TOKEN_HEADER, token);
+            }
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+            int status = connection.getResponseCode();
+            if (status != (offset > 0 ? 206 : 200)) {
+                if (status != 404) {
+                    System.out.println("Peer " + peer + " can't serve " + key + ", status " + status);
+                }
+                return written;
+            }
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = connection.getInputStream()) {
+                for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException("Peer transfer interrupted");
+                    }
+                    if (written + read > size) {
+                        throw new IOException("Peer sent more than the " + size + " bytes of the object");
+                    }
+                    out.write(buffer, 0, read);
+                    if (checksum != null) {
+                        checksum.update(ByteBuffer.wrap(buffer, 0, read));
+                    } else if (md5 != null) {
+                        md5.update(buffer, 0, read);
+                    }
+                    written += read;
+                    progress.accept(written);
+                }
+            }
+            System.out.println("Fetched " + (written - offset) + " bytes of " + key + " from peer " + peer);
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            System.err.println("Transfer of " + key + " from peer " + peer + " failed: " + e.getMessage());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        return written;
+    }
+
+    // The peers in random order
+    List<String> order(){
+        List<String> order = new ArrayList<String>(peers);
+        Collections.shuffle(order);
+        return order;
+    }
+
+    // The ETag of an object uploaded in one part is the MD5 of its content, the ETag of an
+    // object uploaded in parts ends with -<parts>
+    static MessageDigest md5(String eTag){
+        if (eTag == null || !unquoted(eTag).matches("[0-9a-fA-F]{32}")) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    static String unquoted(String eTag){
+        return eTag.replace("\"", "");
+    }
+}
@@ -0,0 +1,86 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+
+// Writes the body of a ranged GET at its offset in a file with positional FileChannel writes,
+// so several ranges can be written to the same file at once. Used for the parts of a
+// ParallelDownload and the ranges of a RangeDownloader.
+public class PositionalWriter implements AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> {
+    FileChannel channel;
+    long position;
+    // Gets the length of every buffer once written
+    LongConsumer written;
+    GetObjectResponse response;
+    CompletableFuture<GetObjectResponse> future;
+
+    public PositionalWriter(FileChannel channel, long position, LongConsumer written){
+        this.channel = channel;
+        this.position = position;
+        this.written = written;
+    }
+
+    @Override
+    public CompletableFuture<GetObjectResponse> prepare(){
+        future = new CompletableFuture<GetObjectResponse>();
+        return future;
+    }
+
+    @Override
+    public void onResponse(GetObjectResponse response){
+        this.response = response;
+    }
+
+    @Override
+    public void onStream(SdkPublisher<ByteBuffer> publisher){
+        publisher.subscribe(new Subscriber<ByteBuffer>() {
+            Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription){
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer){
+                try {
+                    int length = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    written.accept(length);
+                    subscription.request(1);
+                } catch (IOException e) {
+                    subscription.cancel();
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error){
+                future.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete(){
+                future.complete(response);
+            }
+        });
+    }
+
+    @Override
+    public void exceptionOccurred(Throwable error){
+        future.completeExceptionally(error);
+    }
+}
@@ -0,0 +1,107 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Collects the progress of the running downloads and publishes it periodically.
+// The transfer listeners only store the latest ratio, which is cheap enough to do for every
+// chunk received. Every interval the jobs which progressed at least the minimum delta since
+// their last update are published together in a single message.
+public class ProgressReporter {
+    static class JobProgress {
+        volatile double latest;
+        double published = -1;
+        long startNanos = System.nanoTime();
+        volatile boolean receiving;
+    }
+
+    IoTManager iotManager;
+    long intervalMillis;
+    double minDelta;
+    Map<String, JobProgress> jobs = new ConcurrentHashMap<String, JobProgress>();
+    ScheduledExecutorService timer;
+    // Records the time to first byte, null when not measured
+    Metrics metrics;
+
+    public ProgressReporter(IoTManager iotManager, long intervalMillis, double minDeltaPercent){
+        this.iotManager = iotManager;
+        this.intervalMillis = intervalMillis;
+        this.minDelta = minDeltaPercent / 100;
+    }
+
+    public void start(){
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(){
+        if (timer != null) {
+            timer.shutdown();
+        }
+    }
+
+    // Starts reporting a download, its first update is sent with the next flush
+    public void track(String jobId){
+        jobs.put(jobId, new JobProgress());
+    }
+
+    // Stops reporting a download, its final state is published by the downloader
+    public void untrack(String jobId){
+        jobs.remove(jobId);
+    }
+
+    // Called by the transfer listeners, must stay cheap
+    public void progress(String jobId, double ratio){
+        JobProgress progress = jobs.get(jobId);
+        if (progress != null) {
+            progress.latest = ratio;
+            if (!progress.receiving) {
+                firstByte(progress);
+            }
+        }
+    }
+
+    // The first progress event of a download comes with its first bytes
+    void firstByte(JobProgress progress){
+        synchronized (progress) {
+            if (progress.receiving) {
+                return;
+            }
+            progress.receiving = true;
+        }
+        if (metrics != null) {
+            metrics.firstByte(System.nanoTime() - progress.startNanos);
+        }
+    }
+
+    // Publishes the jobs which progressed enough since their last update
+    void flush(){
+        try {
+            List<JobUpdate> updates = new ArrayList<JobUpdate>();
+            for (Map.Entry<String, JobProgress> entry : jobs.entrySet()) {
+                JobProgress progress = entry.getValue();
+                double latest = progress.latest;
+                if (progress.published < 0 || latest - progress.published >= minDelta
+                        || (latest >= 1.0 && progress.published < 1.0)) {
+                    progress.published = latest;
+                    updates.add(new JobUpdate(entry.getKey(), "IN_PROGRESS", Double.toString(latest)));
+                }
+            }
+            if (!updates.isEmpty()) {
+                iotManager.publishUpdates(updates);
+            }
+        } catch (RuntimeException e) {
+            // Keep the timer running
+            System.err.println("Exception occurred while publishing progress: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Downloads only some byte ranges of an object, e.g. the index at the end of a large archive,
+// so a device pulls the parts it uses when it needs them. The ranges are fetched in parallel
+// with ranged GETs and written at their offset in a sparse file of the object size, or each
+// to its own <MEDIAFILE>.<start>-<end> file. Every completed range is published on its own.
+// The ranges fetched from the current version of the object are listed in <MEDIAFILE>.ranges,
+// a range listed there isn't fetched again and the list starts over when the object changes.
+// Only the listed ranges of a sparse file hold content, the rest reads as zeros or as an
+// older version. The sparse file is written in place, IoTManager doesn't run it together with
+// a job downloading the whole file.
+public class RangeDownloader extends Downloader {
+    // Content of the .ranges file
+    static class Manifest {
+        String eTag;
+        long size;
+        List<long[]> ranges = new ArrayList<long[]>();
+
+        boolean has(long[] range){
+            for (long[] fetched : ranges) {
+                if (fetched[0] <= range[0] && range[1] <= fetched[1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // One range in flight, written at position in path
+    class Part {
+        long[] range;
+        Path path;
+        Path work;
+        FileChannel channel;
+        // The GET request, and the range once written and published
+        CompletableFuture<GetObjectResponse> response;
+        CompletableFuture<GetObjectResponse> future;
+
+        Part(long[] range){
+            this.range = range;
+            this.path = rangePath(range);
+            this.work = rangeFiles ? Paths.get(workingPath() + suffix(range)) : path;
+        }
+
+        long length(){
+            return range[1] - range[0] + 1;
+        }
+    }
+
+    static final Gson GSON = new Gson();
+    // Jobs for the ranges of the same object update its manifest one at a time
+    static final Object MANIFESTS = new Object();
+
+    // As in the HTTP Range header without the unit: "<start>-<end>", "<start>-" or "-<last bytes>"
+    List<String> ranges;
+    // Writes every range to its own file instead of a sparse file
+    boolean rangeFiles;
+    // Bytes of the ranges written by this attempt
+    AtomicLong transferredBytes = new AtomicLong();
+
+    public RangeDownloader(String jobUpdate, String bucketName, String keyName, String jobId, String filePath,
+                            IoTManager iotManager, S3TransferManager transferManager, List<String> ranges,
+                            boolean rangeFiles){
+        super(jobUpdate, bucketName, keyName, jobId, filePath, iotManager, transferManager);
+        this.ranges = ranges;
+        this.rangeFiles = rangeFiles;
+    }
+
+    @Override
+    void download(){
+        while (fetchRanges() && awaitRetry()) {
+            // The next attempt only fetches the ranges which aren't in the manifest yet
+        }
+    }
+
+    // Jobs for other ranges of the same object must not follow each other
+    @Override
+    String destinationPath(){
+        return null;
+    }
+
+    // The fetched ranges are complete, a canceled job keeps them
+    @Override
+    void discard(){
+    }
+
+    // The inclusive bounds of the ranges in an object of size bytes, a range ending after
+    // the object is cut at its end like S3 does
+    static List<long[]> resolve(List<String> ranges, long size){
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("No byte range given");
+        }
+        List<long[]> resolved = new ArrayList<long[]>();
+        for (String range : ranges) {
+            String[] bounds = range.trim().split("-", -1);
+            try {
+                if (bounds.length != 2 || (bounds[0].isEmpty() && bounds[1].isEmpty())) {
+                    throw new IllegalArgumentException("Invalid byte range " + range);
+                }
+                long start;
+                long end;
+                if (bounds[0].isEmpty()) {
+                    start = Math.max(0, size - Long.parseLong(bounds[1]));
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(bounds[0]);
+                    end = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+                }
+                if (start < 0 || start > end) {
+                    throw new IllegalArgumentException("Byte range " + range + " is outside of the object");
+                }
+                resolved.add(new long[] {start, end});
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid byte range " + range);
+            }
+        }
+        return resolved;
+    }
+
+    static String suffix(long[] range){
+        return "." + range[0] + "-" + range[1];
+    }
+
+    // Where a range is published
+    Path rangePath(long[] range){
+        return Paths.get(rangeFiles ? filePath + suffix(range) : filePath);
+    }
+
+    Path manifestPath(){
+        return Paths.get(filePath + ".ranges");
+    }
+
+    // Returns true when a transient failure should be retried
+    boolean fetchRanges(){
+        System.out.println("Downloading " + ranges.size() + " ranges of " + bucketName + " " + keyName);
+        iotManager.downloadStarted(this);
+        List<Part> parts = new ArrayList<Part>();
+        FileChannel sparse = null;
+        try {
+            HeadObjectResponse head = s3Client.headObject(request -> request.bucket(bucketName).key(keyName)).get();
+            List<long[]> resolved;
+            try {
+                resolved = resolve(ranges, head.contentLength());
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage() + ", " + keyName + " has " + head.contentLength() + " bytes");
+                iotManager.publishUpdate(jobId, "FAILED", "invalid range");
+                return false;
+            }
+            Manifest manifest = loadManifest(head);
+            long missingBytes = 0;
+            for (long[] range : resolved) {
+                if (manifest.has(range) && Files.exists(rangePath(range))) {
+                    if (rangeFiles) {
+                        iotManager.publishFileReady(jobId, bucketName, keyName, rangePath(range).toString());
+                    }
+                } else {
+                    Part part = new Part(range);
+                    parts.add(part);
+                    missingBytes += part.length();
+                }
+            }
+            if (parts.isEmpty()) {
+                System.out.println("All the ranges of " + keyName + " are already on the device");
+                if (!rangeFiles) {
+                    iotManager.publishFileReady(jobId, bucketName, keyName, filePath);
+                }
+                iotManager.publishUpdate(jobId, "SUCCEEDED", "cached");
+                return false;
+            }
+            // A sparse file only takes the space of the ranges written to it
+            objectSize = missingBytes;
+            if (diskSpace != null && !admitted(bucketName, keyName, jobId, workingPath())) {
+                return false;
+            }
+            throttled = isThrottled();
+            if (!rangeFiles) {
+                sparse = openSparse(Paths.get(filePath), head.contentLength());
+            }
+            transferredBytes.set(0);
+            iotManager.transferStarted(jobId, transferredBytes::get);
+            Semaphore slots = new Semaphore(Math.max(1, partConcurrency));
+            for (Part part : parts) {
+                slots.acquire();
+                for (Part started : parts) {
+                    // No new range once one failed
+                    if (started.future != null && started.future.isCompletedExceptionally()) {
+                        started.future.get();
+                    }
+                }
+                start(part, head, sparse, missingBytes, slots);
+            }
+            for (Part part : parts) {
+                part.future.get();
+            }
+            if (!rangeFiles) {
+                iotManager.publishFileReady(jobId, bucketName, keyName, filePath);
+            }
+            iotManager.publishUpdate(jobId, "SUCCEEDED", "done");
+        } catch (InterruptedException e) {
+            // Paused or canceled, the completed ranges are already in the manifest
+            stop(parts);
+            if (!restartRequested) {
+                publishStopped();
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            stop(parts);
+            if (e.getCause() instanceof UncheckedIOException) {
+                System.err.println("Could not write the ranges of " + keyName + ": " + e.getCause().getMessage());
+                iotManager.publishUpdate(jobId, "FAILED", "fail");
+                return false;
+            }
+            System.err.println("Download failed " + jobId + ": " + e.getCause());
+            if (retryLater(e.getCause())) {
+                return true;
+            }
+            iotManager.publishUpdate(jobId, "FAILED", "fail");
+        } catch (IOException e) {
+            stop(parts);
+            System.err.println("Could not write the ranges of " + keyName + ": " + e.getMessage());
+            iotManager.publishUpdate(jobId, "FAILED", "fail");
+        } finally {
+            close(sparse);
+        }
+        return false;
+    }
+
+    // The file keeps what it has, its length is set to the object size for the positional writes
+    static FileChannel openSparse(Path file, long size) throws IOException {
+        Files.createDirectories(file.getParent());
+        breakLink(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+        }
+        return FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    // A file which the object cache hard linked to another key gets its own copy first, the
+    // ranges must not change the other key. File systems without the unix view report no links.
+    static void breakLink(Path file) throws IOException {
+        Object links;
+        try {
+            links = Files.exists(file) ? Files.getAttribute(file, "unix:nlink") : null;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return;
+        }
+        if (links instanceof Integer && (Integer) links > 1) {
+            Path copy = Paths.get(file + ".copy");
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // Sends the GET of a range, the slot is released when it ends
+    void start(Part part, HeadObjectResponse head, FileChannel sparse, long totalBytes, Semaphore slots)
+                throws IOException {
+        if (rangeFiles) {
+            Files.createDirectories(part.work.getParent());
+            part.channel = FileChannel.open(part.work, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.WRITE);
+        }
+        FileChannel channel = rangeFiles ? part.channel : sparse;
+        long position = rangeFiles ? 0 : part.range[0];
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucketName).key(keyName)
+                                        .range("bytes=" + part.range[0] + "-" + part.range[1]).ifMatch(head.eTag()).build();
+        AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> transformer = new PositionalWriter(channel, position,
+                length -> iotManager.reportProgress(jobId, (double) transferredBytes.addAndGet(length) / totalBytes));
+        if (throttled) {
+            transformer = new ThrottledResponseTransformer<GetObjectResponse, GetObjectResponse>(transformer, limiters());
+        }
+        part.response = s3Client.getObject(request, transformer);
+        part.response.whenComplete((completed, error) -> slots.release());
+        part.future = part.response.thenApply(completed -> {
+            try {
+                completed(part, head, channel);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return completed;
+        });
+    }
+
+    // Makes a range durable, lists it in the manifest and publishes it
+    void completed(Part part, HeadObjectResponse head, FileChannel channel) throws IOException {
+        channel.force(false);
+        if (rangeFiles) {
+            part.channel.close();
+            if (!part.work.equals(part.path)) {
+                StagingArea.commit(part.work, part.path);
+            }
+        }
+        synchronized (MANIFESTS) {
+            // Other jobs may have listed their ranges meanwhile
+            Manifest manifest = loadManifest(head);
+            manifest.ranges.add(part.range);
+            saveManifest(manifest);
+        }
+        System.out.println("Fetched bytes " + part.range[0] + "-" + part.range[1] + " of " + keyName);
+        if (rangeFiles) {
+            iotManager.publishFileReady(jobId, bucketName, keyName, part.path.toString());
+        }
+        JobUpdate update = new JobUpdate(jobId, "IN_PROGRESS", "range done");
+        update.range = part.range[0] + "-" + part.range[1];
+        iotManager.publishUpdate(update);
+    }
+
+    // Cancels the ranges in flight, a range file which isn't complete is deleted
+    void stop(List<Part> parts){
+        for (Part part : parts) {
+            if (part.future == null || (part.future.isDone() && !part.future.isCompletedExceptionally())) {
+                continue;
+            }
+            part.response.cancel(true);
+            part.future.cancel(true);
+            if (rangeFiles) {
+                close(part.channel);
+                try {
+                    Files.deleteIfExists(part.work);
+                } catch (IOException e) {
+                    System.err.println("Could not delete " + part.work + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static void close(FileChannel channel){
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close a range file: " + e.getMessage());
+        }
+    }
+
+    // The ranges already fetched from this version of the object
+    Manifest loadManifest(HeadObjectResponse head){
+        Manifest manifest = null;
+        Path path = manifestPath();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                manifest = GSON.fromJson(reader, Manifest.class);
+            } catch (IOException | JsonParseException e) {
+                System.err.println("Could not read " + path + ", fetching the ranges again: " + e.getMessage());
+            }
+        }
+        if (manifest == null || manifest.ranges == null || !head.eTag().equals(manifest.eTag)
+                || manifest.size != head.contentLength()) {
+            manifest = new Manifest();
+            manifest.eTag = head.eTag();
+            manifest.size = head.contentLength();
+        }
+        return manifest;
+    }
+
+    void saveManifest(Manifest manifest) throws IOException {
+        Path path = manifestPath();
+        Files.createDirectories(path.getParent());
+        Path temp = Paths.get(path + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            GSON.toJson(manifest, writer);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
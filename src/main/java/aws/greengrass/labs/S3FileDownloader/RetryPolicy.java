@@ -0,0 +1,102 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+// Decides whether a failed download is tried again and how long to wait before. Failures are
+// classified from the exception chain, only the transient ones are retried, up to maxAttempts
+// times per job. The delay grows exponentially with a random half to spread the retries of
+// the downloads which failed together.
+public class RetryPolicy {
+    public enum Failure { THROTTLING, SERVER_ERROR, CONNECTION, CREDENTIALS, FATAL }
+
+    // Temporary credentials which expired, the Token Exchange Service hands out new ones
+    static final Set<String> CREDENTIAL_ERRORS = new HashSet<String>(Arrays.asList(
+                    "ExpiredToken", "ExpiredTokenException", "TokenRefreshRequired", "RequestExpired", "InvalidToken"));
+    static final Set<String> THROTTLING_ERRORS = new HashSet<String>(Arrays.asList(
+                    "SlowDown", "Throttling", "ThrottlingException", "RequestLimitExceeded"));
+    // Messages of the local disk errors which don't come as a FileSystemException, e.g. from a FileChannel write
+    static final String[] DISK_ERRORS = {"no space left on device", "disk quota exceeded", "permission denied",
+                                            "read-only file system"};
+
+    int maxAttempts;
+    long baseDelayMillis;
+    long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis){
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+    }
+
+    public static Failure classify(Throwable error){
+        // A full or read-only disk fails the next attempt the same way, even wrapped in a client error
+        if (isDiskError(error)) {
+            return Failure.FATAL;
+        }
+        for (int depth = 0; error != null && depth < 10; depth++, error = error.getCause()) {
+            if (error instanceof SdkServiceException) {
+                return classify((SdkServiceException) error);
+            } else if (error instanceof SdkClientException) {
+                // Raised by the client before or without a response, mostly network errors
+                String message = String.valueOf(error.getMessage()).toLowerCase();
+                return message.contains("credentials") ? Failure.CREDENTIALS : Failure.CONNECTION;
+            } else if (error instanceof IOException || error instanceof TimeoutException) {
+                return Failure.CONNECTION;
+            }
+        }
+        return Failure.FATAL;
+    }
+
+    static boolean isDiskError(Throwable error){
+        for (int depth = 0; error != null && depth < 10; depth++, error = error.getCause()) {
+            if (error instanceof FileSystemException) {
+                return true;
+            }
+            if (error instanceof IOException) {
+                String message = String.valueOf(error.getMessage()).toLowerCase();
+                for (String diskError : DISK_ERRORS) {
+                    if (message.contains(diskError)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    static Failure classify(SdkServiceException error){
+        String code = error instanceof AwsServiceException && ((AwsServiceException) error).awsErrorDetails() != null
+                        ? ((AwsServiceException) error).awsErrorDetails().errorCode() : null;
+        if (error.isThrottlingException() || error.statusCode() == 503 || THROTTLING_ERRORS.contains(code)) {
+            return Failure.THROTTLING;
+        } else if (CREDENTIAL_ERRORS.contains(code)) {
+            return Failure.CREDENTIALS;
+        } else if (error.statusCode() >= 500) {
+            return Failure.SERVER_ERROR;
+        }
+        // Missing object, access denied, object changed since the pause...
+        return Failure.FATAL;
+    }
+
+    // attempts is the number of retries the job already used
+    public boolean retryable(Failure failure, int attempts){
+        return failure != Failure.FATAL && attempts < maxAttempts;
+    }
+
+    public long backoffMillis(Failure failure, int attempt){
+        // S3 asks to slow down, start further
+        int exponent = Math.min(attempt + (failure == Failure.THROTTLING ? 2 : 0), 20);
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << exponent);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+}
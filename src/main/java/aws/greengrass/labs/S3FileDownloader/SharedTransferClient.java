@@ -0,0 +1,57 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3CrtAsyncClientBuilder;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+// Owns the CRT based S3 client and the S3 Transfer Manager built on top of it.
+// Creating them is expensive (event loop group, TLS context, credentials chain and
+// connection pool), so a single instance is created at startup and shared by all downloads.
+public class SharedTransferClient implements AutoCloseable {
+    S3AsyncClient s3Client;
+    S3TransferManager transferManager;
+    // Time create took, reported in the metrics
+    long startupMillis;
+
+    public SharedTransferClient(S3AsyncClient s3Client, S3TransferManager transferManager){
+        this.s3Client = s3Client;
+        this.transferManager = transferManager;
+    }
+
+    public static SharedTransferClient create(ComponentConfig config){
+        long start = System.currentTimeMillis();
+        S3CrtAsyncClientBuilder builder = S3AsyncClient.crtBuilder();
+        if (config.maxConcurrency != null) {
+            builder.maxConcurrency(config.maxConcurrency);
+        }
+        if (config.targetThroughputGbps != null) {
+            builder.targetThroughputInGbps(config.targetThroughputGbps);
+        }
+        if (config.minimumPartSizeBytes != null) {
+            builder.minimumPartSizeInBytes(config.minimumPartSizeBytes);
+        }
+        S3AsyncClient s3Client = builder.build();
+        S3TransferManager transferManager = S3TransferManager.builder().s3Client(s3Client).build();
+        SharedTransferClient transferClient = new SharedTransferClient(s3Client, transferManager);
+        transferClient.startupMillis = System.currentTimeMillis() - start;
+        System.out.println("S3 Transfer Manager created in " + transferClient.startupMillis + " ms");
+        return transferClient;
+    }
+
+    public S3AsyncClient getS3Client(){
+        return s3Client;
+    }
+
+    public S3TransferManager getTransferManager(){
+        return transferManager;
+    }
+
+    // The Transfer Manager does not close a client that was passed to its builder,
+    // so both are closed here.
+    @Override
+    public void close(){
+        System.out.println("Closing S3 Transfer Manager...");
+        transferManager.close();
+        s3Client.close();
+    }
+}
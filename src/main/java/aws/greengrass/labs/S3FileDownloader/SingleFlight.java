@@ -0,0 +1,123 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A job received for a file which a live job is already downloading follows that job instead
+// of starting a second transfer to the same path. A follower gets a copy of every update of the
+// job it follows under its own jobId, up to the final one. When the followed job is paused or
+// canceled, its first follower takes over the transfer from the resume files and the others
+// follow it. Batch jobs write many files and range jobs only part of one, they neither lead
+// nor follow.
+public class SingleFlight {
+    static class Flight {
+        Downloader leader;
+        // In arrival order, with the downloader which takes over when the leader stops
+        LinkedHashMap<String, Downloader> followers = new LinkedHashMap<String, Downloader>();
+    }
+
+    // By normalized destination path, guarded by this
+    Map<String, Flight> flights = new HashMap<String, Flight>();
+    // The flight of each follower by jobId, guarded by this
+    Map<String, Flight> following = new HashMap<String, Flight>();
+
+    static String key(Downloader downloader){
+        String path = downloader.destinationPath();
+        return path == null ? null : ManagedStore.normalize(path);
+    }
+
+    // Returns the job the downloader now follows, or null when it leads a new flight. A job which
+    // expects another checksum than the running one, or streams a file downloaded without
+    // streaming, can't share its transfer.
+    public synchronized Downloader join(Downloader downloader){
+        String key = key(downloader);
+        if (key == null) {
+            return null;
+        }
+        Flight flight = flights.get(key);
+        if (flight == null) {
+            flight = new Flight();
+            flight.leader = downloader;
+            flights.put(key, flight);
+            return null;
+        }
+        Downloader leader = flight.leader;
+        if (downloader.checksum != null && leader.checksum != null && !downloader.checksum.equals(leader.checksum)) {
+            throw new IllegalArgumentException("Job " + downloader.jobId + " expects another checksum than job "
+                                                + leader.jobId + " downloading the same file");
+        }
+        if (downloader.stream && !leader.stream) {
+            throw new IllegalArgumentException("Job " + downloader.jobId + " streams the file which job "
+                                                + leader.jobId + " downloads without streaming");
+        }
+        flight.followers.put(downloader.jobId, downloader);
+        following.put(downloader.jobId, flight);
+        return leader;
+    }
+
+    public synchronized boolean isFollowing(String jobId){
+        return following.containsKey(jobId);
+    }
+
+    public synchronized List<String> followerIds(){
+        return new ArrayList<String>(following.keySet());
+    }
+
+    // The followers which get a copy of an update of the leader. The flight ends with the final update.
+    public synchronized List<String> followers(Downloader leader, boolean end){
+        String key = key(leader);
+        Flight flight = key == null ? null : flights.get(key);
+        if (flight == null || flight.leader != leader) {
+            return Collections.emptyList();
+        }
+        List<String> followers = new ArrayList<String>(flight.followers.keySet());
+        if (end) {
+            flights.remove(key);
+            following.keySet().removeAll(followers);
+        }
+        return followers;
+    }
+
+    // Takes a follower out of its flight, returns false when the job doesn't follow another one
+    public synchronized boolean leave(String jobId){
+        Flight flight = following.remove(jobId);
+        if (flight == null) {
+            return false;
+        }
+        flight.followers.remove(jobId);
+        return true;
+    }
+
+    // Called when the leader stopped without a final update. Returns the follower which takes
+    // over the transfer, or null when there is none and the flight ends.
+    public synchronized Downloader handOver(Downloader leader){
+        String key = key(leader);
+        Flight flight = key == null ? null : flights.get(key);
+        if (flight == null || flight.leader != leader) {
+            return null;
+        }
+        Iterator<Downloader> followers = flight.followers.values().iterator();
+        if (!followers.hasNext()) {
+            flights.remove(key);
+            return null;
+        }
+        Downloader next = followers.next();
+        followers.remove();
+        following.remove(next.jobId);
+        flight.leader = next;
+        return next;
+    }
+
+    // Ends the flight of a leader which couldn't be queued
+    public synchronized void remove(Downloader leader){
+        String key = key(leader);
+        if (key != null && flights.get(key) != null && flights.get(key).leader == leader) {
+            flights.remove(key);
+        }
+    }
+}
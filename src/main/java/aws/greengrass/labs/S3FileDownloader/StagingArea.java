@@ -0,0 +1,85 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Folder where the files are written while they download, with their resume files. It is
+// inside the destination folder so it is on the same file system, a completed file is synced
+// and renamed to its final path in one step. Programs watching the destination folder never
+// see a partial file.
+public class StagingArea {
+    Path root;
+
+    public StagingArea(Path root){
+        this.root = root;
+    }
+
+    // Where the object is written until it completes
+    public Path path(String bucket, String key){
+        return root.resolve(bucket).resolve(key);
+    }
+
+    // Moves a completed file to its final path. The content is on the disk before the
+    // rename, and the rename is on the disk before this returns.
+    public static void commit(Path staged, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // The destination folder spans several file systems, e.g. a bucket folder is a mount point
+            System.err.println("Could not rename " + staged + " atomically, moving it: " + e.getMessage());
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncFolder(target.getParent());
+    }
+
+    // Moves a completed folder, e.g. an extracted archive, to its final path. A folder can't
+    // replace another one in one rename, the previous version is moved aside and deleted after.
+    public static void commitFolder(Path staged, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path previous = null;
+        if (Files.exists(target)) {
+            previous = staged.resolveSibling(staged.getFileName() + ".previous");
+            deleteRecursively(previous);
+            Files.move(target, previous, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+        syncFolder(target.getParent());
+        if (previous != null) {
+            deleteRecursively(previous);
+        }
+    }
+
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+
+    // Makes a rename durable, not supported on every platform
+    static void syncFolder(Path folder){
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows can't open a folder, the rename is still atomic
+        }
+    }
+}
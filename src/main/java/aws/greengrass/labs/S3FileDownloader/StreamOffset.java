@@ -0,0 +1,26 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+// Published on the STREAM_TOPIC local topic while a streaming job downloads, see StreamReporter.
+// The bytes of the object before offset are in the file at path and a consumer can read them
+// in order while the rest arrives. The last message is complete, with the final path.
+public class StreamOffset {
+    public String jobId;
+    public String s3Bucket;
+    public String key;
+    public String path;
+    public long offset;
+    // Size of the object, -1 when it isn't known yet
+    public long size;
+    public boolean complete;
+
+    public StreamOffset(String jobId, String s3Bucket, String key, String path, long offset, long size,
+                        boolean complete){
+        this.jobId = jobId;
+        this.s3Bucket = s3Bucket;
+        this.key = key;
+        this.path = path;
+        this.offset = offset;
+        this.size = size;
+        this.complete = complete;
+    }
+}
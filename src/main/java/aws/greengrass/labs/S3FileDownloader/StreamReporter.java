@@ -0,0 +1,96 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Tells local consumers how far the file of a streaming job can be read while it downloads, so
+// a video or a log replay starts after the first megabyte instead of after the last. A
+// streaming job is downloaded in order to its staged file, the bytes written are polled every
+// interval and a StreamOffset is published each time they advanced by the step. A consumer
+// opens the path of the first message and reads up to the latest offset, its open file keeps
+// working when the complete file is renamed to its final path.
+public class StreamReporter {
+    static class Stream {
+        Downloader downloader;
+        String path;
+        long size;
+        LongSupplier bytes;
+        long published = -1;
+    }
+
+    IoTManager iotManager;
+    long intervalMillis;
+    long stepBytes;
+    Map<String, Stream> streams = new ConcurrentHashMap<String, Stream>();
+    ScheduledExecutorService timer;
+
+    public StreamReporter(IoTManager iotManager, long intervalMillis, long stepBytes){
+        this.iotManager = iotManager;
+        this.intervalMillis = intervalMillis;
+        this.stepBytes = stepBytes;
+    }
+
+    public void start(){
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(){
+        if (timer != null) {
+            timer.shutdown();
+        }
+    }
+
+    // Starts publishing the offsets of a transfer writing to path, size is -1 when not known
+    public void track(Downloader downloader, String path, long size, LongSupplier bytes){
+        Stream stream = new Stream();
+        stream.downloader = downloader;
+        stream.path = path;
+        stream.size = size;
+        stream.bytes = bytes;
+        streams.put(downloader.jobId, stream);
+    }
+
+    // Stops publishing the offsets of a job which stopped, a resumed job is tracked again
+    public void untrack(String jobId){
+        streams.remove(jobId);
+    }
+
+    // The file is complete at its final path, the consumers read the rest from there
+    public void complete(Downloader downloader, String path, long size){
+        streams.remove(downloader.jobId);
+        iotManager.publishStreamOffset(downloader, new StreamOffset(downloader.jobId, downloader.bucketName,
+                                        downloader.keyName, path, size, size, true), true);
+    }
+
+    // Publishes the streams which advanced by a step since their last offset
+    void flush(){
+        try {
+            for (Stream stream : streams.values()) {
+                long offset = stream.bytes.getAsLong();
+                if (stream.size >= 0) {
+                    offset = Math.min(offset, stream.size);
+                }
+                if (offset > stream.published && (stream.published < 0 || offset - stream.published >= stepBytes
+                                                    || offset == stream.size)) {
+                    stream.published = offset;
+                    Downloader downloader = stream.downloader;
+                    // The next offset replaces this one, it can be dropped when IPC is slow
+                    iotManager.publishStreamOffset(downloader, new StreamOffset(downloader.jobId, downloader.bucketName,
+                                                    downloader.keyName, stream.path, offset, stream.size, false), false);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Keep the timer running
+            System.err.println("Exception occurred while publishing stream offsets: " + e.getMessage());
+        }
+    }
+}
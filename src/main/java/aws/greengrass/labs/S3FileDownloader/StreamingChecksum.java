@@ -0,0 +1,119 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.core.checksums.Algorithm;
+import software.amazon.awssdk.core.checksums.SdkChecksum;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+// Checksum of a download computed while the bytes are written to the file, so the file
+// doesn't have to be read again once it is complete. It uses the algorithms of the S3
+// additional checksums, the expected value comes from the job or from the object metadata.
+public class StreamingChecksum {
+    String algorithm;
+    byte[] expected;
+    SdkChecksum checksum;
+    // Set once the download completed
+    byte[] value;
+
+    StreamingChecksum(Algorithm algorithm, byte[] expected){
+        this.algorithm = algorithm.name();
+        this.expected = expected;
+        this.checksum = SdkChecksum.forAlgorithm(algorithm);
+    }
+
+    // The checksum expected by a job, null when the job doesn't ask for one. The value is
+    // base64 like the S3 checksums or hex like the output of sha256sum.
+    public static StreamingChecksum expected(String algorithm, String value){
+        if (algorithm == null || value == null) {
+            return null;
+        }
+        Algorithm parsed = algorithm(algorithm);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm);
+        }
+        return new StreamingChecksum(parsed, decode(value));
+    }
+
+    // The full object checksum S3 stored with the object. Objects uploaded in parts only have
+    // a checksum of the part checksums ("...-N"), they can't be checked this way.
+    public static StreamingChecksum fromObject(HeadObjectResponse head){
+        if (head.checksumCRC32C() != null && !head.checksumCRC32C().contains("-")) {
+            return new StreamingChecksum(Algorithm.CRC32C, decode(head.checksumCRC32C()));
+        }
+        if (head.checksumSHA256() != null && !head.checksumSHA256().contains("-")) {
+            return new StreamingChecksum(Algorithm.SHA256, decode(head.checksumSHA256()));
+        }
+        return null;
+    }
+
+    static Algorithm algorithm(String name){
+        String normalized = name.replace("-", "").toUpperCase();
+        if (normalized.equals("CRC32C")) {
+            return Algorithm.CRC32C;
+        } else if (normalized.equals("SHA256")) {
+            return Algorithm.SHA256;
+        }
+        return null;
+    }
+
+    static byte[] decode(String value){
+        if (value.length() % 2 == 0 && value.matches("[0-9a-fA-F]+")) {
+            byte[] bytes = new byte[value.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+            }
+            return bytes;
+        }
+        return Base64.getDecoder().decode(value);
+    }
+
+    // Called with every buffer of the response body, in order
+    public synchronized void update(ByteBuffer buffer){
+        checksum.update(buffer.duplicate());
+    }
+
+    // Adds the first bytes of a file, when a download resumes after them
+    public synchronized void update(Path file, long length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = length;
+        try (InputStream in = Files.newInputStream(file)) {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException(file + " is shorter than " + length + " bytes");
+                }
+                checksum.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        checksum.mark(Integer.MAX_VALUE);
+    }
+
+    // Goes back to the start of the response body when the request is sent again
+    public synchronized void restart(){
+        checksum.reset();
+    }
+
+    public synchronized boolean matches(){
+        return MessageDigest.isEqual(value(), expected);
+    }
+
+    // Base64 like the S3 checksums
+    public String encoded(){
+        return Base64.getEncoder().encodeToString(value());
+    }
+
+    synchronized byte[] value(){
+        if (value == null) {
+            value = checksum.getChecksumBytes();
+        }
+        return value;
+    }
+}
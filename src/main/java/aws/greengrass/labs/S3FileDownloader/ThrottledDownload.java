@@ -0,0 +1,173 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.core.FileTransformerConfiguration;
+import software.amazon.awssdk.core.FileTransformerConfiguration.FailureBehavior;
+import software.amazon.awssdk.core.FileTransformerConfiguration.FileWriteOption;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.Download;
+import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
+import software.amazon.awssdk.transfer.s3.model.DownloadRequest;
+import software.amazon.awssdk.transfer.s3.model.ResumableFileDownload;
+import software.amazon.awssdk.transfer.s3.progress.TransferListener;
+import software.amazon.awssdk.transfer.s3.progress.TransferProgressSnapshot;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.OptionalDouble;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
+
+// Downloads an object to a file through a ThrottledResponseTransformer, and a ChecksumTransformer
+// when the download is verified. The Transfer Manager can't pause a download with a custom response transformer, so pausing
+// and resuming is done here with ranged GET requests. The resume file has the same format as
+// the one written by the Transfer Manager, a download paused on one path can continue on the other.
+public class ThrottledDownload {
+    DownloadFileRequest downloadFileRequest;
+    long offset;
+    Instant s3ObjectLastModified;
+    ThrottledResponseTransformer<GetObjectResponse, GetObjectResponse> transformer;
+    // Null when the download isn't verified
+    StreamingChecksum checksum;
+    Download<GetObjectResponse> download;
+
+    ThrottledDownload(DownloadFileRequest downloadFileRequest, long offset, Instant s3ObjectLastModified){
+        this.downloadFileRequest = downloadFileRequest;
+        this.offset = offset;
+        this.s3ObjectLastModified = s3ObjectLastModified;
+    }
+
+    // Starts a new download, limiters and checksum are null when not used
+    public static ThrottledDownload start(S3TransferManager transferManager, DownloadFileRequest downloadFileRequest,
+                                            List<BandwidthLimiter> limiters, StreamingChecksum checksum,
+                                            DoubleConsumer progressListener){
+        ThrottledDownload throttledDownload = new ThrottledDownload(downloadFileRequest, 0, null);
+        throttledDownload.checksum = checksum;
+        throttledDownload.begin(transferManager, limiters, progressListener);
+        return throttledDownload;
+    }
+
+    // Continues a paused download from the last byte written to the file.
+    // The download starts over when the file doesn't match the resume file. The bytes already
+    // in the file are added to the checksum first, only this prefix is read again.
+    public static ThrottledDownload resume(S3TransferManager transferManager, ResumableFileDownload resumableFileDownload,
+                                            List<BandwidthLimiter> limiters, StreamingChecksum checksum,
+                                            DoubleConsumer progressListener) throws IOException {
+        DownloadFileRequest downloadFileRequest = resumableFileDownload.downloadFileRequest();
+        Path destination = downloadFileRequest.destination();
+        long offset = resumableFileDownload.bytesTransferred();
+        long total = resumableFileDownload.totalSizeInBytes().orElse(Long.MAX_VALUE);
+        if (!Files.exists(destination) || Files.size(destination) < offset || offset >= total) {
+            System.out.println("Resume file doesn't match " + destination + ", starting over");
+            offset = 0;
+        } else {
+            // Drop whatever was written after the resume file was created
+            try (FileChannel channel = FileChannel.open(destination, StandardOpenOption.WRITE)) {
+                channel.truncate(offset);
+            }
+            if (checksum != null) {
+                checksum.update(destination, offset);
+            }
+        }
+        ThrottledDownload throttledDownload = new ThrottledDownload(downloadFileRequest, offset,
+                                                    offset > 0 ? resumableFileDownload.s3ObjectLastModified().orElse(null) : null);
+        throttledDownload.checksum = checksum;
+        throttledDownload.begin(transferManager, limiters, progressListener);
+        return throttledDownload;
+    }
+
+    void begin(S3TransferManager transferManager, List<BandwidthLimiter> limiters, DoubleConsumer progressListener){
+        // The partial file must survive a pause, which cancels the request
+        FileTransformerConfiguration fileConfiguration = FileTransformerConfiguration.builder()
+                        .fileWriteOption(offset > 0 ? FileWriteOption.CREATE_OR_APPEND_TO_EXISTING
+                                                    : FileWriteOption.CREATE_OR_REPLACE_EXISTING)
+                        .failureBehavior(FailureBehavior.LEAVE)
+                        .build();
+        AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> fileTransformer =
+                        AsyncResponseTransformer.toFile(downloadFileRequest.destination(), fileConfiguration);
+        if (checksum != null) {
+            fileTransformer = new ChecksumTransformer<GetObjectResponse, GetObjectResponse>(fileTransformer, checksum);
+        }
+        transformer = new ThrottledResponseTransformer<GetObjectResponse, GetObjectResponse>(fileTransformer, limiters);
+        GetObjectRequest.Builder getObjectRequest = downloadFileRequest.getObjectRequest().toBuilder();
+        if (offset > 0) {
+            getObjectRequest.range("bytes=" + offset + "-");
+            // S3 answers 412 Precondition Failed when the object changed since the pause
+            if (s3ObjectLastModified != null) {
+                getObjectRequest.ifUnmodifiedSince(s3ObjectLastModified);
+            }
+        }
+        download = transferManager.download(DownloadRequest.builder()
+                        .getObjectRequest(getObjectRequest.build())
+                        .responseTransformer(transformer)
+                        .addTransferListener(new TransferListener() {
+                            @Override
+                            public void bytesTransferred(TransferListener.Context.BytesTransferred context) {
+                                progressListener.accept(ratioTransferred(context.progressSnapshot()).orElse(0.0));
+                            }
+                        })
+                        .build());
+    }
+
+    public CompletableFuture<?> completionFuture(){
+        return download.completionFuture();
+    }
+
+    // Progress of the whole object, including the bytes downloaded before a resume
+    OptionalDouble ratioTransferred(TransferProgressSnapshot snapshot){
+        if (!snapshot.totalBytes().isPresent()) {
+            return OptionalDouble.empty();
+        }
+        long total = offset + snapshot.totalBytes().getAsLong();
+        return total == 0 ? OptionalDouble.of(1.0)
+                          : OptionalDouble.of((double) (offset + snapshot.transferredBytes()) / total);
+    }
+
+    // Cancels the request and describes what has been written so far
+    public ResumableFileDownload pause() throws IOException {
+        download.completionFuture().cancel(true);
+        return describe();
+    }
+
+    // Describes what has been written so far while the download goes on
+    public ResumableFileDownload checkpoint() throws IOException {
+        return describe();
+    }
+
+    ResumableFileDownload describe() throws IOException {
+        Path destination = downloadFileRequest.destination();
+        long bytesTransferred = Downloader.syncedLength(destination);
+        ResumableFileDownload.Builder builder = ResumableFileDownload.builder()
+                        .downloadFileRequest(downloadFileRequest)
+                        .bytesTransferred(bytesTransferred)
+                        .fileLastModified(Files.exists(destination) ? Instant.ofEpochMilli(destination.toFile().lastModified())
+                                                                    : Instant.now());
+        GetObjectResponse response = transformer.getResponse();
+        if (response != null) {
+            builder.s3ObjectLastModified(response.lastModified());
+            builder.totalSizeInBytes(totalSize(response, offset));
+        } else if (s3ObjectLastModified != null) {
+            builder.s3ObjectLastModified(s3ObjectLastModified);
+        }
+        return builder.build();
+    }
+
+    // The size of the object, a ranged response has it after the slash of "bytes 100-199/200"
+    static Long totalSize(GetObjectResponse response, long offset){
+        String contentRange = response.contentRange();
+        if (contentRange != null && contentRange.lastIndexOf('/') > 0) {
+            String total = contentRange.substring(contentRange.lastIndexOf('/') + 1);
+            if (!total.equals("*")) {
+                return Long.parseLong(total);
+            }
+        }
+        return response.contentLength() == null ? null : offset + response.contentLength();
+    }
+}
@@ -0,0 +1,54 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Wraps another response transformer (usually the file writer of the SDK) and slows
+// the response body down to the rate allowed by the bandwidth limiters. Null limiters
+// leave the body unchanged.
+// The response is kept so the caller can read the object metadata after the transfer started.
+public class ThrottledResponseTransformer<ResponseT, ResultT> implements AsyncResponseTransformer<ResponseT, ResultT> {
+    AsyncResponseTransformer<ResponseT, ResultT> delegate;
+    List<BandwidthLimiter> limiters;
+    volatile ResponseT response;
+
+    public ThrottledResponseTransformer(AsyncResponseTransformer<ResponseT, ResultT> delegate,
+                                        List<BandwidthLimiter> limiters){
+        this.delegate = delegate;
+        this.limiters = limiters;
+    }
+
+    @Override
+    public CompletableFuture<ResultT> prepare(){
+        return delegate.prepare();
+    }
+
+    @Override
+    public void onResponse(ResponseT response){
+        this.response = response;
+        delegate.onResponse(response);
+    }
+
+    @Override
+    public void onStream(SdkPublisher<ByteBuffer> publisher){
+        if (limiters == null) {
+            delegate.onStream(publisher);
+            return;
+        }
+        SdkPublisher<ByteBuffer> throttled = subscriber -> publisher.subscribe(new ThrottledSubscriber(subscriber, limiters));
+        delegate.onStream(throttled);
+    }
+
+    @Override
+    public void exceptionOccurred(Throwable error){
+        delegate.exceptionOccurred(error);
+    }
+
+    public ResponseT getResponse(){
+        return response;
+    }
+}
@@ -0,0 +1,179 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Sits between the S3 response body publisher and the file writer and hands the bytes
+// over in small slices at the pace allowed by the bandwidth limiters.
+// It only asks the S3 client for more data once the previous buffer was handed over, so the
+// CRT client's read window stops growing and the connection is slowed down as well.
+public class ThrottledSubscriber implements Subscriber<ByteBuffer>, Subscription {
+    static final int SLICE_SIZE = 64 * 1024;
+
+    Subscriber<? super ByteBuffer> downstream;
+    List<BandwidthLimiter> limiters;
+    Subscription upstream;
+
+    // All the fields below are guarded by this
+    ByteBuffer current;
+    // Slice taken from the current buffer whose bytes are reserved in the limiters
+    ByteBuffer readySlice;
+    long demand;
+    boolean upstreamRequested;
+    boolean upstreamDone;
+    Throwable upstreamError;
+    boolean terminated;
+    long nextDeliveryNanos;
+    boolean draining;
+    boolean drainScheduled;
+
+    public ThrottledSubscriber(Subscriber<? super ByteBuffer> downstream, List<BandwidthLimiter> limiters){
+        this.downstream = downstream;
+        this.limiters = limiters;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription){
+        upstream = subscription;
+        downstream.onSubscribe(this);
+    }
+
+    @Override
+    public void onNext(ByteBuffer buffer){
+        synchronized (this) {
+            current = buffer;
+            upstreamRequested = false;
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable error){
+        synchronized (this) {
+            upstreamError = error;
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete(){
+        synchronized (this) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void request(long n){
+        synchronized (this) {
+            if (n <= 0) {
+                upstreamError = new IllegalArgumentException("Requested " + n + " items");
+                upstreamDone = true;
+                current = null;
+                readySlice = null;
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel(){
+        synchronized (this) {
+            terminated = true;
+            current = null;
+            readySlice = null;
+        }
+        upstream.cancel();
+    }
+
+    // Delivers as much as the demand and the limiters allow. Only one thread drains at a time,
+    // the signals are sent outside of the lock since the file writer requests more from onNext.
+    void drain(){
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            ByteBuffer slice = null;
+            boolean requestUpstream = false;
+            Throwable error = null;
+            boolean complete = false;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (terminated) {
+                    draining = false;
+                    return;
+                } else if (readySlice != null && demand > 0) {
+                    // The bytes were reserved, wait until the limiters allow them through
+                    if (now < nextDeliveryNanos) {
+                        scheduleDrain(nextDeliveryNanos - now);
+                        draining = false;
+                        return;
+                    }
+                    slice = readySlice;
+                    readySlice = null;
+                    demand--;
+                } else if (readySlice == null && current != null && current.hasRemaining()) {
+                    int length = Math.min(SLICE_SIZE, current.remaining());
+                    readySlice = current.slice();
+                    ((Buffer) readySlice).limit(length);
+                    ((Buffer) current).position(current.position() + length);
+                    nextDeliveryNanos = now + reserve(length);
+                    continue;
+                } else if (readySlice == null && (current == null || !current.hasRemaining()) && upstreamDone) {
+                    terminated = true;
+                    error = upstreamError;
+                    complete = error == null;
+                } else if (readySlice == null && (current == null || !current.hasRemaining())
+                            && !upstreamRequested && demand > 0) {
+                    upstreamRequested = true;
+                    requestUpstream = true;
+                } else {
+                    draining = false;
+                    return;
+                }
+            }
+            if (slice != null) {
+                downstream.onNext(slice);
+            } else if (requestUpstream) {
+                upstream.request(1);
+            } else if (complete) {
+                downstream.onComplete();
+            } else if (error != null) {
+                downstream.onError(error);
+            }
+        }
+    }
+
+    // Waits for every limiter, the slowest one decides
+    long reserve(long bytes){
+        long delay = 0;
+        for (BandwidthLimiter limiter : limiters) {
+            delay = Math.max(delay, limiter.reserve(bytes));
+        }
+        return delay;
+    }
+
+    void scheduleDrain(long delayNanos){
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        BandwidthLimiter.TIMER.schedule(() -> {
+            synchronized (this) {
+                drainScheduled = false;
+            }
+            drain();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
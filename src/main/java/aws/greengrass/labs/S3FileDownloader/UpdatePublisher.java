@@ -0,0 +1,246 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Publishes the messages of the component from a single thread with the asynchronous IPC
+// calls, the download and IPC threads only queue them and never wait for the nucleus.
+// Progress updates are collapsed per job, only the latest one is sent, all together in one
+// message. The other messages are sent in order. When the queue is full the oldest message
+// which can be lost is dropped. Final job states and file ready notifications are never
+// dropped and are sent again until the nucleus accepts them. The progress of a job is dropped
+// once its final state is queued, a late progress would be published after it.
+public class UpdatePublisher {
+    static final int QUEUE_CAPACITY = 1000;
+    static final long PUBLISH_TIMEOUT_MILLIS = 10000;
+    static final long MAX_RETRY_DELAY_MILLIS = 30000;
+    // Jobs whose final state was queued, their late progress is dropped
+    static final int ENDED_JOBS = 1024;
+
+    // A message waiting to be published, the payload is serialized by the publisher thread
+    static class Outgoing {
+        String topic;
+        Object payload;
+        // Local publish/subscribe instead of AWS IoT Core
+        boolean local;
+        // Never dropped
+        boolean critical;
+
+        Outgoing(String topic, Object payload, boolean local, boolean critical){
+            this.topic = topic;
+            this.payload = payload;
+            this.local = local;
+            this.critical = critical;
+        }
+    }
+
+    IoTManager iotManager;
+    String updateTopic;
+    Gson gson = new Gson();
+    Thread thread;
+    // All the fields below are guarded by this
+    Map<String, JobUpdate> progress = new LinkedHashMap<String, JobUpdate>();
+    Deque<Outgoing> queue = new ArrayDeque<Outgoing>();
+    Set<String> ended = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest){
+            return size() > ENDED_JOBS;
+        }
+    });
+    // Messages taken by the publisher thread and not confirmed yet
+    int inFlight;
+    boolean stopped;
+
+    public UpdatePublisher(IoTManager iotManager, String updateTopic){
+        this.iotManager = iotManager;
+        this.updateTopic = updateTopic;
+    }
+
+    public void start(){
+        thread = new Thread(this::run, "ipc-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Replaces the progress of the jobs which wasn't published yet
+    public synchronized void progress(List<JobUpdate> updates){
+        for (JobUpdate update : updates) {
+            if (!ended.contains(update.jobId)) {
+                progress.put(update.jobId, update);
+            }
+        }
+        notifyAll();
+    }
+
+    // Queues a message to AWS IoT Core, the payload is a String or an object serialized to JSON
+    public void publish(String topic, Object payload, boolean critical){
+        enqueue(new Outgoing(topic, payload, false, critical));
+    }
+
+    // Queues a message to the local publish/subscribe
+    public void publishLocal(String topic, Object payload, boolean critical){
+        enqueue(new Outgoing(topic, payload, true, critical));
+    }
+
+    synchronized void enqueue(Outgoing outgoing){
+        if (stopped) {
+            System.err.println("Publisher stopped, dropping a message to " + outgoing.topic);
+            return;
+        }
+        if (queue.size() >= QUEUE_CAPACITY && !dropOldest() && !outgoing.critical) {
+            System.err.println("Publish queue full, dropping a message to " + outgoing.topic);
+            return;
+        }
+        if (outgoing.payload instanceof JobUpdate) {
+            JobUpdate update = (JobUpdate) outgoing.payload;
+            if (update.isFinal()) {
+                progress.remove(update.jobId);
+                ended.add(update.jobId);
+            } else {
+                // A failed job sent again with the same jobId reports its progress again
+                ended.remove(update.jobId);
+            }
+        }
+        queue.add(outgoing);
+        notifyAll();
+    }
+
+    // Makes room for a message, returns false when every queued message is critical
+    boolean dropOldest(){
+        for (Iterator<Outgoing> iterator = queue.iterator(); iterator.hasNext();) {
+            Outgoing outgoing = iterator.next();
+            if (!outgoing.critical) {
+                iterator.remove();
+                System.err.println("Publish queue full, dropping a message to " + outgoing.topic);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void run(){
+        long retryDelay = 0;
+        try {
+            while (true) {
+                List<Outgoing> batch;
+                synchronized (this) {
+                    while (queue.isEmpty() && progress.isEmpty() && !stopped) {
+                        wait();
+                    }
+                    if (queue.isEmpty() && progress.isEmpty()) {
+                        return;
+                    }
+                    batch = drain();
+                    inFlight = batch.size();
+                }
+                List<Outgoing> failed = send(batch);
+                synchronized (this) {
+                    // Sent again first, in their order
+                    for (int i = failed.size() - 1; i >= 0; i--) {
+                        queue.addFirst(failed.get(i));
+                    }
+                    inFlight = 0;
+                    notifyAll();
+                    if (failed.isEmpty()) {
+                        retryDelay = 0;
+                        continue;
+                    } else if (stopped) {
+                        System.err.println("Publisher stopped, " + failed.size() + " messages were not published");
+                        queue.clear();
+                        return;
+                    }
+                }
+                retryDelay = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(1000, retryDelay * 2));
+                Thread.sleep(retryDelay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Takes the pending progress as a single message, followed by the queued messages
+    List<Outgoing> drain(){
+        List<Outgoing> batch = new ArrayList<Outgoing>();
+        if (!progress.isEmpty()) {
+            List<JobUpdate> updates = new ArrayList<JobUpdate>(progress.values());
+            progress.clear();
+            batch.add(new Outgoing(updateTopic, updates.size() == 1 ? updates.get(0) : new JobUpdateBatch(updates),
+                                    false, false));
+        }
+        batch.addAll(queue);
+        queue.clear();
+        return batch;
+    }
+
+    // Sends the messages without waiting between them, returns the critical ones which failed
+    List<Outgoing> send(List<Outgoing> batch) throws InterruptedException {
+        List<String> messages = new ArrayList<String>();
+        List<CompletableFuture<?>> responses = new ArrayList<CompletableFuture<?>>();
+        for (Outgoing outgoing : batch) {
+            String message = outgoing.payload instanceof String ? (String) outgoing.payload : gson.toJson(outgoing.payload);
+            messages.add(message);
+            try {
+                responses.add(outgoing.local ? iotManager.publishLocalMessageAsync(outgoing.topic, message)
+                                             : iotManager.publishMessageToTopicAsync(outgoing.topic, message));
+            } catch (RuntimeException e) {
+                CompletableFuture<Object> failed = new CompletableFuture<Object>();
+                failed.completeExceptionally(e);
+                responses.add(failed);
+            }
+        }
+        List<Outgoing> failed = new ArrayList<Outgoing>();
+        for (int i = 0; i < batch.size(); i++) {
+            Outgoing outgoing = batch.get(i);
+            try {
+                responses.get(i).get(PUBLISH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                System.out.println("Successfully published to topic: " + outgoing.topic + " - " + messages.get(i));
+            } catch (ExecutionException | TimeoutException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                System.err.println("Exception occurred when using IPC, topic " + outgoing.topic + ": " + cause);
+                if (outgoing.critical) {
+                    failed.add(outgoing);
+                }
+            }
+        }
+        return failed;
+    }
+
+    // Waits until everything queued so far was published, returns false on timeout
+    public synchronized boolean flush(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty() || !progress.isEmpty() || inFlight > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || thread == null || !thread.isAlive()) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    // Publishes what is queued, then stops the publisher thread
+    public void stop(long timeoutMillis){
+        try {
+            flush(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Creates the download threads as virtual threads when the Java runtime has them (Java 21 and
+// later), and platform threads otherwise. A virtual thread waiting for a transfer, a retry or
+// the network doesn't hold an operating system thread and its stack. The component is built
+// for Java 8 unless the java21 profile is used, the virtual thread builder is looked up by
+// reflection.
+public class VirtualThreads {
+    // Thread.ofVirtual(), null before Java 21
+    static final Method OF_VIRTUAL = lookup();
+
+    static Method lookup(){
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean available(){
+        return OF_VIRTUAL != null;
+    }
+
+    // Names the threads <prefix>1, <prefix>2... Falls back to platform threads when virtual
+    // threads are not available.
+    public static ThreadFactory factory(String prefix, boolean virtual){
+        if (virtual && available()) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Could not create virtual threads, using platform threads: " + e);
+            }
+        } else if (virtual) {
+            System.out.println("Virtual threads need Java 21, using platform threads");
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + threadCount.incrementAndGet());
+    }
+}
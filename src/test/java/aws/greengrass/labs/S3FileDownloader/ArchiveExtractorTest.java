@@ -0,0 +1,128 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFormatFromKey() {
+        assertEquals(ArchiveExtractor.Format.TAR_GZ, ArchiveExtractor.format("releases/bundle.tar.gz"));
+        assertEquals(ArchiveExtractor.Format.TAR_GZ, ArchiveExtractor.format("bundle.TGZ"));
+        assertEquals(ArchiveExtractor.Format.ZIP, ArchiveExtractor.format("bundle.zip"));
+        assertEquals(ArchiveExtractor.Format.GZ, ArchiveExtractor.format("data.csv.gz"));
+        assertNull(ArchiveExtractor.format("model.bin"));
+        assertEquals("/greengrass/bucket/releases/bundle", ArchiveExtractor.target("/greengrass/bucket/releases/bundle.tar.gz"));
+        assertEquals("/greengrass/bucket/data.csv", ArchiveExtractor.target("/greengrass/bucket/data.csv.gz"));
+    }
+
+    @Test
+    public void testTarGz() throws Exception {
+        String longName = "config/" + new String(new char[120]).replace('\0', 'x') + ".json";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        tar.write(tarHeader("bin/", 0, '5', 0755));
+        tarEntry(tar, "bin/start.sh", "#!/bin/sh\n", 0755);
+        byte[] name = longName.getBytes(StandardCharsets.UTF_8);
+        tar.write(tarHeader("././@LongLink", name.length, 'L', 0644));
+        tar.write(name);
+        tar.write(new byte[(int) ArchiveExtractor.padding(name.length)]);
+        tarEntry(tar, longName.substring(0, 99), "{}", 0644);
+        tar.write(new byte[1024]);
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(tar.toByteArray());
+        }
+
+        Path destination = folder.getRoot().toPath().resolve("bundle");
+        ArchiveExtractor extractor = new ArchiveExtractor(destination);
+        extractor.extract(new ByteArrayInputStream(gzip.toByteArray()), ArchiveExtractor.Format.TAR_GZ);
+
+        assertEquals(2, extractor.files);
+        assertEquals("#!/bin/sh\n", new String(Files.readAllBytes(destination.resolve("bin/start.sh")), StandardCharsets.UTF_8));
+        assertTrue(destination.resolve("bin/start.sh").toFile().canExecute());
+        assertEquals("{}", new String(Files.readAllBytes(destination.resolve(longName)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testZip() throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("models/"));
+            out.putNextEntry(new ZipEntry("models/model.bin"));
+            out.write(new byte[100000]);
+            out.putNextEntry(new ZipEntry("README"));
+            out.write("readme".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Path destination = folder.getRoot().toPath().resolve("bundle");
+        ArchiveExtractor extractor = new ArchiveExtractor(destination);
+        extractor.extract(new ByteArrayInputStream(zip.toByteArray()), ArchiveExtractor.Format.ZIP);
+
+        assertEquals(2, extractor.files);
+        assertEquals(100006, extractor.bytes);
+        assertEquals(100000, Files.size(destination.resolve("models/model.bin")));
+    }
+
+    @Test(expected = ArchiveExtractor.ArchiveException.class)
+    public void testEntryOutsideDestinationIsRejected() throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("../outside"));
+            out.write(1);
+        }
+        new ArchiveExtractor(folder.getRoot().toPath().resolve("bundle"))
+            .extract(new ByteArrayInputStream(zip.toByteArray()), ArchiveExtractor.Format.ZIP);
+    }
+
+    @Test(expected = ArchiveExtractor.ArchiveException.class)
+    public void testCorruptedTarHeader() throws Exception {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        tarEntry(tar, "file", "content", 0644);
+        byte[] bytes = tar.toByteArray();
+        bytes[0] = 'g';
+        new ArchiveExtractor(folder.getRoot().toPath().resolve("bundle"))
+            .extract(new ByteArrayInputStream(bytes), ArchiveExtractor.Format.TAR);
+    }
+
+    static void tarEntry(ByteArrayOutputStream tar, String name, String content, int mode) throws Exception {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        tar.write(tarHeader(name, data.length, '0', mode));
+        tar.write(data);
+        tar.write(new byte[(int) ArchiveExtractor.padding(data.length)]);
+    }
+
+    static byte[] tarHeader(String name, long size, char type, int mode){
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, String.format("%07o", mode));
+        put(header, 124, String.format("%011o", size));
+        put(header, 148, "        ");
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        put(header, 148, String.format("%06o", sum));
+        header[154] = 0;
+        return header;
+    }
+
+    static void put(byte[] header, int offset, String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
@@ -0,0 +1,123 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BandwidthLimiterTest {
+
+    @Test
+    public void testUnlimited() {
+        BandwidthLimiter limiter = new BandwidthLimiter(0);
+
+        assertFalse(limiter.isLimited());
+        assertEquals(0, limiter.reserve(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    public void testBurstThenWait() {
+        BandwidthLimiter limiter = new BandwidthLimiter(1000);
+
+        // One second worth of bytes goes through without waiting
+        assertEquals(0, limiter.reserve(1000));
+        // The next 500 bytes have to wait about half a second
+        long delay = limiter.reserve(500);
+        assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue(delay <= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void testChangeRate() {
+        BandwidthLimiter limiter = new BandwidthLimiter(1000);
+        limiter.setBytesPerSecond(0);
+
+        assertFalse(limiter.isLimited());
+        assertEquals(0, limiter.reserve(1000000));
+
+        limiter.setBytesPerSecond(100);
+        assertTrue(limiter.isLimited());
+        assertTrue(limiter.reserve(200) > 0);
+    }
+
+    @Test
+    public void testThrottledSubscriberSlicesAndPaces() throws InterruptedException {
+        // 64 KB burst, then 64 KB per second
+        BandwidthLimiter limiter = new BandwidthLimiter(ThrottledSubscriber.SLICE_SIZE);
+        CollectingSubscriber downstream = new CollectingSubscriber();
+        ThrottledSubscriber throttled = new ThrottledSubscriber(downstream, Collections.singletonList(limiter));
+        SingleBufferSubscription upstream = new SingleBufferSubscription(throttled, ByteBuffer.allocate(2 * ThrottledSubscriber.SLICE_SIZE));
+
+        long start = System.nanoTime();
+        throttled.onSubscribe(upstream);
+
+        assertTrue(downstream.done.await(5, TimeUnit.SECONDS));
+        // The buffer was delivered in two slices and the second one had to wait for the limiter
+        assertEquals(2, downstream.sizes.size());
+        assertEquals(ThrottledSubscriber.SLICE_SIZE, (int) downstream.sizes.get(0));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    // Publishes one buffer then completes
+    static class SingleBufferSubscription implements Subscription {
+        Subscriber<ByteBuffer> subscriber;
+        ByteBuffer buffer;
+
+        SingleBufferSubscription(Subscriber<ByteBuffer> subscriber, ByteBuffer buffer) {
+            this.subscriber = subscriber;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void request(long n) {
+            if (buffer != null) {
+                ByteBuffer next = buffer;
+                buffer = null;
+                subscriber.onNext(next);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+
+    // Requests one buffer at a time like the file writer of the SDK
+    static class CollectingSubscriber implements Subscriber<ByteBuffer> {
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch done = new CountDownLatch(1);
+        Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer buffer) {
+            sizes.add(buffer.remaining());
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
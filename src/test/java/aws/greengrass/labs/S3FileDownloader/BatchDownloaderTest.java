@@ -0,0 +1,113 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedFileDownload;
+import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
+import software.amazon.awssdk.transfer.s3.model.FileDownload;
+
+public class BatchDownloaderTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    IoTManager iotManagerMock;
+    S3TransferManager transferManagerMock;
+    S3AsyncClient s3ClientMock;
+    String bucketName = "test-bucket";
+    String jobId = "batch1";
+
+    @Before
+    public void setup() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        iotManagerMock = Mockito.mock(IoTManager.class);
+        transferManagerMock = Mockito.mock(S3TransferManager.class);
+        s3ClientMock = Mockito.mock(S3AsyncClient.class);
+    }
+
+    @Test
+    public void testPartialFailure() {
+        // a.bin downloads, b.bin fails
+        CompletableFuture<CompletedFileDownload> succeeded = new CompletableFuture<CompletedFileDownload>();
+        succeeded.complete(CompletedFileDownload.builder().response(GetObjectResponse.builder().build()).build());
+        CompletableFuture<CompletedFileDownload> failed = new CompletableFuture<CompletedFileDownload>();
+        failed.completeExceptionally(SdkClientException.create("not found"));
+        FileDownload xferA = Mockito.mock(FileDownload.class);
+        Mockito.when(xferA.completionFuture()).thenReturn(succeeded);
+        FileDownload xferB = Mockito.mock(FileDownload.class);
+        Mockito.when(xferB.completionFuture()).thenReturn(failed);
+        Mockito.when(transferManagerMock.downloadFile(Mockito.any(DownloadFileRequest.class))).thenAnswer(invocation -> {
+            DownloadFileRequest request = (DownloadFileRequest) invocation.getArguments()[0];
+            return request.getObjectRequest().key().equals("a.bin") ? xferA : xferB;
+        });
+        BatchDownloader downloader = new BatchDownloader("update", bucketName, Arrays.asList("a.bin", "b.bin", "a.bin"),
+                                        null, jobId, folder.getRoot() + "/" + bucketName + "/", iotManagerMock,
+                                        transferManagerMock, s3ClientMock, 2);
+
+        downloader.download();
+
+        // Duplicate keys are downloaded once and the failed one is reported
+        Mockito.verify(transferManagerMock, Mockito.times(2)).downloadFile(Mockito.any(DownloadFileRequest.class));
+        ArgumentCaptor<JobUpdate> argUpdate = ArgumentCaptor.forClass(JobUpdate.class);
+        Mockito.verify(iotManagerMock).publishUpdate(argUpdate.capture());
+        assertEquals("PARTIALLY_SUCCEEDED", argUpdate.getValue().status);
+        assertEquals(Collections.singletonList("b.bin"), argUpdate.getValue().failedKeys);
+        assertEquals("1 of 2 objects downloaded", argUpdate.getValue().reason);
+        assertEquals(0.5, downloader.progress.sum(), 0.001);
+    }
+
+    @Test
+    public void testDirectoryDownloadOnlyForWholeFolders() {
+        String bucketFolder = folder.getRoot() + "/" + bucketName + "/";
+
+        // The local layout only matches single object jobs when the prefix ends with a slash
+        assertTrue(new BatchDownloader("update", bucketName, null, "models/", jobId, bucketFolder, iotManagerMock,
+                                        transferManagerMock, s3ClientMock, 2).useDirectoryDownload());
+        assertTrue(new BatchDownloader("update", bucketName, null, "", jobId, bucketFolder, iotManagerMock,
+                                        transferManagerMock, s3ClientMock, 2).useDirectoryDownload());
+        assertFalse(new BatchDownloader("update", bucketName, null, "models", jobId, bucketFolder, iotManagerMock,
+                                        transferManagerMock, s3ClientMock, 2).useDirectoryDownload());
+        assertFalse(new BatchDownloader("update", bucketName, Arrays.asList("a.bin"), "models/", jobId, bucketFolder,
+                                        iotManagerMock, transferManagerMock, s3ClientMock, 2).useDirectoryDownload());
+    }
+
+    @Test
+    public void testOnlyIndexedObjectsWithTheListedETagAreSkipped() throws Exception {
+        String bucketFolder = folder.getRoot() + "/" + bucketName + "/";
+        Path file = folder.getRoot().toPath().resolve(bucketName + "/models/a.bin");
+        Files.createDirectories(file.getParent());
+        Files.write(file, "version1".getBytes(StandardCharsets.UTF_8));
+        BatchDownloader downloader = new BatchDownloader("update", bucketName, null, "models/", jobId, bucketFolder,
+                                        iotManagerMock, transferManagerMock, s3ClientMock, 2);
+
+        // Without the index the size doesn't tell which version the file has
+        assertFalse(downloader.isComplete("models/a.bin", 8, "\"etag1\""));
+
+        downloader.objectCache = new ObjectCache(folder.getRoot().toPath().resolve(".object-index.json"), s3ClientMock, false);
+        downloader.record("models/a.bin", file, GetObjectResponse.builder().eTag("\"etag1\"").build());
+        assertTrue(downloader.isComplete("models/a.bin", 8, "\"etag1\""));
+        // Another version of the same size
+        assertFalse(downloader.isComplete("models/a.bin", 8, "\"etag2\""));
+        assertFalse(downloader.isComplete("models/a.bin", 9, "\"etag1\""));
+    }
+}
@@ -0,0 +1,60 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CheckpointerTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    AtomicLong bytesWritten = new AtomicLong();
+    AtomicInteger writes = new AtomicInteger();
+
+    @Before
+    public void setup() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+    }
+
+    @Test
+    public void testCheckpointAfterBytesThreshold() {
+        Checkpointer checkpointer = new Checkpointer(60000, 100);
+        checkpointer.register("job", bytesWritten::get, writes::incrementAndGet);
+
+        bytesWritten.set(50);
+        checkpointer.tick();
+        assertEquals(0, writes.get());
+
+        bytesWritten.set(150);
+        checkpointer.tick();
+        assertEquals(1, writes.get());
+
+        // The threshold counts from the last checkpoint
+        bytesWritten.set(200);
+        checkpointer.tick();
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    public void testFailedCheckpointIsRetriedUntilUnregistered() {
+        Checkpointer checkpointer = new Checkpointer(60000, 100);
+        checkpointer.register("job", bytesWritten::get, () -> {
+            writes.incrementAndGet();
+            throw new IOException("disk full");
+        });
+
+        bytesWritten.set(100);
+        checkpointer.tick();
+        checkpointer.tick();
+        assertEquals(2, writes.get());
+
+        checkpointer.unregister("job");
+        checkpointer.tick();
+        assertEquals(2, writes.get());
+    }
+}
@@ -0,0 +1,65 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+public class ComponentConfigTest {
+
+    String[] positionalArgs = {"things/TestThing/download", "things/TestThing/pause",
+                                "things/TestThing/update", "/home/ggc_user/destination/"};
+
+    @Test
+    public void testPositionalArguments() {
+        ComponentConfig config = ComponentConfig.fromArgs(positionalArgs);
+
+        assertEquals("things/TestThing/download", config.downloadTopic);
+        assertEquals("things/TestThing/pause", config.pauseTopic);
+        assertEquals("things/TestThing/update", config.jobUpdateTopic);
+        assertEquals("/home/ggc_user/destination/", config.destinationFolder);
+
+        // Without options the SDK defaults are used
+        assertNull(config.maxConcurrency);
+        assertNull(config.targetThroughputGbps);
+        assertNull(config.minimumPartSizeBytes);
+    }
+
+    @Test
+    public void testTransferClientOptions() {
+        ComponentConfig config = ComponentConfig.fromArgs(withOptions(
+            "MAX_CONCURRENCY=8", "TARGET_THROUGHPUT_GBPS=0.5", "MINIMUM_PART_SIZE_BYTES=16777216"));
+
+        assertEquals(Integer.valueOf(8), config.maxConcurrency);
+        assertEquals(Double.valueOf(0.5), config.targetThroughputGbps);
+        assertEquals(Long.valueOf(16777216L), config.minimumPartSizeBytes);
+    }
+
+    @Test
+    public void testInvalidOptionsFallBackToDefaults() {
+        ComponentConfig config = ComponentConfig.fromArgs(withOptions(
+            "MAX_CONCURRENCY=0", "TARGET_THROUGHPUT_GBPS=fast", "MINIMUM_PART_SIZE_BYTES=", "garbage"));
+
+        assertNull(config.maxConcurrency);
+        assertNull(config.targetThroughputGbps);
+        assertNull(config.minimumPartSizeBytes);
+    }
+
+    @Test
+    public void testPeerTokenIsOnlyReadFromTheEnvironment() {
+        assertNull(ComponentConfig.fromArgs(withOptions("PEER_PORT=8701", "PEER_TOKEN=secret"),
+                                            Collections.<String, String>emptyMap()).peerToken);
+
+        ComponentConfig config = ComponentConfig.fromArgs(withOptions("PEER_PORT=8701"),
+                                                            Collections.singletonMap("PEER_TOKEN", "secret"));
+        assertEquals(8701, config.peerPort);
+        assertEquals("secret", config.peerToken);
+    }
+
+    String[] withOptions(String... options){
+        String[] args = new String[positionalArgs.length + options.length];
+        System.arraycopy(positionalArgs, 0, args, 0, positionalArgs.length);
+        System.arraycopy(options, 0, args, positionalArgs.length, options.length);
+        return args;
+    }
+}
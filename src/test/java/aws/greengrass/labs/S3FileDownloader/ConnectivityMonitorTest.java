@@ -0,0 +1,61 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConnectivityMonitorTest {
+    ConnectivityMonitor connectivity = new ConnectivityMonitor(new RetryPolicy(3, 10, 50));
+    AtomicBoolean online = new AtomicBoolean();
+
+    CompletableFuture<?> probe(){
+        CompletableFuture<Object> response = new CompletableFuture<Object>();
+        if (online.get()) {
+            response.complete(null);
+        } else {
+            response.completeExceptionally(SdkClientException.create("failed", new IOException("Network is unreachable")));
+        }
+        return response;
+    }
+
+    @Test
+    public void testReachable() throws Exception {
+        assertFalse(connectivity.reachable(this::probe));
+        online.set(true);
+        assertTrue(connectivity.reachable(this::probe));
+        // An error answered by S3 means the network works
+        assertTrue(connectivity.reachable(() -> {
+            CompletableFuture<Object> response = new CompletableFuture<Object>();
+            response.completeExceptionally(RetryPolicyTest.s3Error(403, "AccessDenied"));
+            return response;
+        }));
+    }
+
+    @Test(timeout = 10000)
+    public void testAwaitOnline() throws Exception {
+        // The other waiter never gets an answer, it resumes when the first one does
+        Thread other = new Thread(() -> {
+            try {
+                connectivity.awaitOnline(() -> {
+                    CompletableFuture<Object> response = new CompletableFuture<Object>();
+                    response.completeExceptionally(new IOException("Network is unreachable"));
+                    return response;
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        other.start();
+        Thread.sleep(100);
+        assertTrue(other.isAlive());
+        online.set(true);
+        connectivity.awaitOnline(this::probe);
+        other.join();
+        assertEquals(1, connectivity.recoveries);
+    }
+}
@@ -0,0 +1,127 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import org.mockito.Mockito;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+public class DeltaDownloaderTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Blocks of 4 bytes, the second and the last one changed
+    String previousContent = "AAAAXXXXCCCC";
+    String content = "AAAABBBBCCCCDD";
+    S3AsyncClient s3ClientMock;
+    Path previous;
+    Path work;
+    List<String> requestedRanges = Collections.synchronizedList(new ArrayList<String>());
+    DeltaDownloader downloader;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        previous = folder.getRoot().toPath().resolve("bucket/model.bin");
+        work = folder.getRoot().toPath().resolve(".staging/bucket/model.bin");
+        Files.createDirectories(previous.getParent());
+        Files.write(previous, previousContent.getBytes(StandardCharsets.UTF_8));
+        Path newFile = folder.newFile("new.bin").toPath();
+        Files.write(newFile, content.getBytes(StandardCharsets.UTF_8));
+        byte[] manifest = new Gson().toJson(BlockManifest.of(newFile, 4)).getBytes(StandardCharsets.UTF_8);
+
+        s3ClientMock = Mockito.mock(S3AsyncClient.class);
+        Mockito.when(s3ClientMock.headObject(Mockito.any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(
+            HeadObjectResponse.builder().eTag("\"etag2\"").contentLength((long) content.length()).build()));
+        Mockito.when(s3ClientMock.getObject(Mockito.any(Consumer.class), Mockito.any(AsyncResponseTransformer.class)))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(
+                ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), manifest)));
+        Mockito.when(s3ClientMock.getObject(Mockito.any(GetObjectRequest.class), Mockito.any(AsyncResponseTransformer.class)))
+            .thenAnswer(invocation -> serveRange((GetObjectRequest) invocation.getArguments()[0],
+                (AsyncResponseTransformer<GetObjectResponse, GetObjectResponse>) invocation.getArguments()[1]));
+
+        downloader = new DeltaDownloader("things/thing/update", "bucket", "model.bin", "job", previous.toString(),
+                                            null, null);
+        downloader.s3Client = s3ClientMock;
+    }
+
+    @Test
+    public void testOnlyChangedBlocksAreFetched() throws Exception {
+        downloader.seedWorkFile("bucket", "model.bin", work.toString());
+        assertEquals(8, downloader.bytesReused);
+
+        // The seeded file continues as a parallel download of the missing blocks
+        ParallelDownload download = ParallelDownload.open(s3ClientMock, "bucket", "model.bin", work.toString(),
+                                        0, 2, null, ratio -> {});
+        download.completionFuture().get();
+
+        assertEquals(2, requestedRanges.size());
+        assertTrue(requestedRanges.contains("bytes=4-7"));
+        assertTrue(requestedRanges.contains("bytes=12-13"));
+        assertEquals(content, new String(Files.readAllBytes(work), StandardCharsets.UTF_8));
+        assertTrue(downloader.verified(work.toString()));
+    }
+
+    @Test
+    public void testCorruptedBlockFailsTheVerification() throws Exception {
+        Files.createDirectories(work.getParent());
+        Files.write(work, "AAAABBBBCCCCDE".getBytes(StandardCharsets.UTF_8));
+        assertFalse(downloader.verified(work.toString()));
+    }
+
+    // Answers a ranged GET from the new content
+    CompletableFuture<GetObjectResponse> serveRange(GetObjectRequest request,
+                                                    AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> transformer) {
+        String range = request.range();
+        requestedRanges.add(range);
+        CompletableFuture<GetObjectResponse> future = transformer.prepare();
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        byte[] body = content.substring(Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1)
+                        .getBytes(StandardCharsets.UTF_8);
+        transformer.onResponse(GetObjectResponse.builder().eTag(request.ifMatch()).build());
+        transformer.onStream(subscriber -> subscriber.onSubscribe(new Subscription() {
+            boolean sent;
+
+            @Override
+            public void request(long n) {
+                if (!sent) {
+                    sent = true;
+                    subscriber.onNext(ByteBuffer.wrap(body));
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }));
+        return future;
+    }
+}
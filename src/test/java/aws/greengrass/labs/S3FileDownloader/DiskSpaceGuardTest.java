@@ -0,0 +1,41 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DiskSpaceGuardTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReservations() {
+        // 1000 bytes left to the downloads on a disk of 10000
+        DiskSpaceGuard diskSpace = new DiskSpaceGuard(folder.getRoot(), 500) {
+            @Override
+            long totalSpace() {
+                return 10000;
+            }
+
+            @Override
+            long usableSpace() {
+                return 1500;
+            }
+        };
+
+        assertEquals(DiskSpaceGuard.Admission.ADMITTED, diskSpace.reserve("job1", 600));
+        assertEquals(DiskSpaceGuard.Admission.DEFERRED, diskSpace.reserve("job2", 600));
+
+        // The bytes written by job1 are taken from the disk, not from its reservation anymore
+        AtomicLong written = new AtomicLong(100);
+        diskSpace.track("job1", written::get);
+        written.set(300);
+        assertEquals(400, diskSpace.outstanding());
+
+        diskSpace.release("job1");
+        assertEquals(DiskSpaceGuard.Admission.ADMITTED, diskSpace.reserve("job2", 600));
+        assertEquals(DiskSpaceGuard.Admission.TOO_LARGE, diskSpace.reserve("job3", 9600));
+    }
+}
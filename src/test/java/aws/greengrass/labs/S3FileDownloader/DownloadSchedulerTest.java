@@ -0,0 +1,97 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+
+public class DownloadSchedulerTest {
+
+    IoTManager iotManagerMock;
+    S3TransferManager transferManagerMock;
+
+    @Before
+    public void setup() {
+        iotManagerMock = Mockito.mock(IoTManager.class);
+        transferManagerMock = Mockito.mock(S3TransferManager.class);
+    }
+
+    @Test
+    public void testPriorityOrder() {
+        PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>(11, DownloadScheduler.PRIORITY_ORDER);
+        queue.add(downloader("low", 0, 0));
+        queue.add(downloader("high1", 5, 1));
+        queue.add(downloader("normal", 1, 2));
+        queue.add(downloader("high2", 5, 3));
+
+        // Higher priority first, FIFO within the same priority
+        assertEquals("high1", ((Downloader) queue.poll()).jobId);
+        assertEquals("high2", ((Downloader) queue.poll()).jobId);
+        assertEquals("normal", ((Downloader) queue.poll()).jobId);
+        assertEquals("low", ((Downloader) queue.poll()).jobId);
+    }
+
+    @Test
+    public void testQueuedDownloadCanBeRemoved() {
+        DownloadScheduler scheduler = new DownloadScheduler(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Occupy the only worker so the next job stays in the queue
+        Downloader blocking = new Downloader("topic", "bucket", "key", "running", "/tmp/running", iotManagerMock, transferManagerMock) {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        scheduler.submit(blocking);
+        Downloader queued = downloader("queued", 0, 0);
+        scheduler.submit(queued);
+
+        assertEquals(1, scheduler.queueDepth());
+        assertTrue(scheduler.remove(queued));
+        assertEquals(0, scheduler.queueDepth());
+
+        release.countDown();
+        scheduler.shutdown(5000);
+    }
+
+    @Test
+    public void testDeferredDownloadIsResubmitted() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Downloader deferred = new Downloader("topic", "bucket", "key", "deferred", "/tmp/deferred", iotManagerMock, transferManagerMock) {
+            @Override
+            public void run() {
+                started.countDown();
+            }
+        };
+        scheduler.defer(deferred);
+        assertEquals(1, scheduler.queueDepth());
+
+        scheduler.resubmitDeferred();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(scheduler.deferred.isEmpty());
+
+        // A deferred download can be removed like a queued one
+        scheduler.defer(deferred);
+        assertTrue(scheduler.remove(deferred));
+        assertEquals(0, scheduler.queueDepth());
+        scheduler.shutdown(5000);
+    }
+
+    Downloader downloader(String jobId, int priority, long sequence){
+        Downloader downloader = new Downloader("topic", "bucket", "key", jobId, "/tmp/" + jobId, iotManagerMock, transferManagerMock);
+        downloader.priority = priority;
+        downloader.sequence = sequence;
+        return downloader;
+    }
+}
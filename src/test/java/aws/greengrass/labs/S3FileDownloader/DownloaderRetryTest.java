@@ -0,0 +1,82 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import static org.junit.Assert.*;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedDownload;
+import software.amazon.awssdk.transfer.s3.model.Download;
+import software.amazon.awssdk.transfer.s3.model.DownloadRequest;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+// Runs the real file and NIO code, which the PowerMock runner of DownloaderTest can't instrument
+public class DownloaderRetryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    IoTManager iotManagerMock = Mockito.mock(IoTManager.class);
+    S3TransferManager transferManagerMock = Mockito.mock(S3TransferManager.class);
+    Downloader downloader;
+
+    @Before
+    public void setup() {
+        downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId",
+                        folder.getRoot().toPath().resolve("file").toString(), iotManagerMock, transferManagerMock);
+        downloader.retryPolicy = new RetryPolicy(1, 1, 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Download<Object> download(CompletableFuture<CompletedDownload<Object>> completion){
+        Download<Object> download = Mockito.mock(Download.class);
+        Mockito.when(download.completionFuture()).thenReturn(completion);
+        return download;
+    }
+
+    static Download<Object> failed(Throwable error){
+        CompletableFuture<CompletedDownload<Object>> completion = new CompletableFuture<CompletedDownload<Object>>();
+        completion.completeExceptionally(error);
+        return download(completion);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRetryAfterConnectionReset() {
+        // The first attempt loses the connection, the second one completes
+        Download<Object> reset = failed(SdkClientException.create("failed", new IOException("Connection reset")));
+        Download<Object> completed = download(CompletableFuture.completedFuture(CompletedDownload.builder().result(new Object()).build()));
+        Mockito.when(transferManagerMock.download(Mockito.any(DownloadRequest.class))).thenReturn(reset, completed);
+        downloader.run();
+
+        Mockito.verify(transferManagerMock, Mockito.times(2)).download(Mockito.any(DownloadRequest.class));
+        Mockito.verify(iotManagerMock).downloadRetried(RetryPolicy.Failure.CONNECTION);
+        Mockito.verify(iotManagerMock).publishUpdate("jobId", "IN_PROGRESS", "retrying");
+        Mockito.verify(iotManagerMock).publishUpdate("jobId", "SUCCEEDED", "done");
+        assertEquals(1, downloader.attempts);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBudgetAndFatalErrors() {
+        // Each attempt fails with a server error until the budget is used
+        Mockito.when(transferManagerMock.download(Mockito.any(DownloadRequest.class)))
+            .thenAnswer(invocation -> failed(S3Exception.builder().statusCode(500).build()));
+        downloader.run();
+        Mockito.verify(transferManagerMock, Mockito.times(2)).download(Mockito.any(DownloadRequest.class));
+        Mockito.verify(iotManagerMock).publishUpdate("jobId", "FAILED", "fail");
+
+        // A missing object is not retried
+        Mockito.reset(transferManagerMock, iotManagerMock);
+        downloader.attempts = 0;
+        Mockito.when(transferManagerMock.download(Mockito.any(DownloadRequest.class)))
+            .thenAnswer(invocation -> failed(S3Exception.builder().statusCode(404).build()));
+        downloader.run();
+        Mockito.verify(transferManagerMock, Mockito.times(1)).download(Mockito.any(DownloadRequest.class));
+        Mockito.verify(iotManagerMock, Mockito.never()).downloadRetried(Mockito.any(RetryPolicy.Failure.class));
+    }
+}
@@ -9,12 +9,14 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.never;
 
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 import software.amazon.awssdk.transfer.s3.model.ResumableFileDownload;
 import software.amazon.awssdk.transfer.s3.model.FileDownload;
 import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
+import software.amazon.awssdk.transfer.s3.progress.TransferListener;
 import software.amazon.awssdk.transfer.s3.progress.TransferProgress;
 import software.amazon.awssdk.transfer.s3.progress.TransferProgressSnapshot;
 import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest.Builder;
@@ -24,14 +26,14 @@ import software.amazon.awssdk.transfer.s3.model.CompletedFileDownload;
 import java.nio.file.Path;
 import java.util.OptionalDouble;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
-import java.lang.Thread;
 
 import java.io.File;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ Downloader.class, ResumableFileDownload.class, Builder.class, S3TransferManager.class, Thread.class})
+@PrepareForTest({ Downloader.class, ResumableFileDownload.class, Builder.class})
 @PowerMockIgnore({"jdk.internal.reflect.*"})
 public class DownloaderTest {
     private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
@@ -48,6 +50,7 @@ public class DownloaderTest {
     CompletableFuture<CompletedFileDownload> completionFutureMock;
 
     @Before
+    @SuppressWarnings("unchecked")
     public void setup() {
         System.setOut(new PrintStream(outputStreamCaptor));
         
@@ -62,31 +65,19 @@ public class DownloaderTest {
         resumableFileDownloadMock = Mockito.mock(ResumableFileDownload.class);
 
         PowerMockito.mockStatic(Builder.class);
-        PowerMockito.mockStatic(S3TransferManager.class);
         PowerMockito.mockStatic(ResumableFileDownload.class);
-        PowerMockito.mockStatic(Thread.class);
         PowerMockito.mockStatic(File.class);
     }
 
     @Test
-    public void downloadFileTest() throws InterruptedException {
-        Mockito.when(S3TransferManager.create()).thenReturn(transferManagerMock);
+    public void downloadFileTest() throws Exception {
         Mockito.when(transferManagerMock.downloadFile(Mockito.any(DownloadFileRequest.class))).thenReturn(xferMock);
         
-        Mockito.when(completionFutureMock.isDone()).thenReturn(true);
         Mockito.when(xferMock.completionFuture()).thenReturn(completionFutureMock);
 
-        Mockito.when(xferMock.progress()).thenReturn(xferProgressMock);
-        Mockito.when(xferProgressMock.snapshot()).thenReturn(xferProgressSnapshot);
-        OptionalDouble od = OptionalDouble.of(0.5);
-        Mockito.when(xferProgressSnapshot.ratioTransferred()).thenReturn(od);
-
         PowerMockito.when(builderMock.build()).thenReturn(downloadFileRequestMock);
 
-        PowerMockito.doNothing().when(Thread.class);
-        Thread.sleep(Mockito.anyLong());
-
-        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock);
+        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock, transferManagerMock);
 
         Downloader downloaderSpy = PowerMockito.spy(downloader);
         
@@ -96,33 +87,58 @@ public class DownloaderTest {
         
         Mockito.verify(transferManagerMock, Mockito.times(1)).downloadFile(Mockito.any(DownloadFileRequest.class));
         Mockito.verify(transferManagerMock, never()).resumeDownloadFile(Mockito.any(ResumableFileDownload.class));
+        // The shared Transfer Manager must stay open for the next downloads
+        Mockito.verify(transferManagerMock, never()).close();
+        // The end of the transfer is reported as soon as the future completes
+        Mockito.verify(iotManagerMock).publishUpdate("jobId", "SUCCEEDED", "done");
     }
 
     @Test
-    public void resumeFileTest() throws InterruptedException {
-        Mockito.when(S3TransferManager.create()).thenReturn(transferManagerMock);
+    public void failedDownloadTest() throws Exception {
+        Mockito.when(transferManagerMock.downloadFile(Mockito.any(DownloadFileRequest.class))).thenReturn(xferMock);
+        Mockito.when(xferMock.completionFuture()).thenReturn(completionFutureMock);
+        Mockito.when(completionFutureMock.get()).thenThrow(new ExecutionException(new RuntimeException("Connection reset")));
+
+        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock, transferManagerMock);
+        Downloader downloaderSpy = PowerMockito.spy(downloader);
+        PowerMockito.doReturn(false).when(downloaderSpy).isResume(Mockito.anyString());
+
+        downloaderSpy.run();
+
+        Mockito.verify(iotManagerMock).publishUpdate("jobId", "FAILED", "fail");
+        Mockito.verify(iotManagerMock).downloadEnd(downloaderSpy);
+    }
+
+    @Test
+    public void progressListenerTest() {
+        Mockito.when(xferProgressSnapshot.ratioTransferred()).thenReturn(OptionalDouble.of(0.25));
+        TransferListener.Context.BytesTransferred context = Mockito.mock(TransferListener.Context.BytesTransferred.class);
+        Mockito.when(context.progressSnapshot()).thenReturn(xferProgressSnapshot);
+
+        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock, transferManagerMock);
+        downloader.progressListener().bytesTransferred(context);
+
+        // Progress events go to the progress reporter, not directly to IPC
+        Mockito.verify(iotManagerMock).reportProgress("jobId", 0.25);
+        Mockito.verify(iotManagerMock, never()).publishUpdate(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void resumeFileTest() throws Exception {
         Mockito.when(transferManagerMock.resumeDownloadFile(Mockito.any(ResumableFileDownload.class))).thenReturn(xferMock);
         
-        Mockito.when(completionFutureMock.isDone()).thenReturn(true);
         Mockito.when(xferMock.completionFuture()).thenReturn(completionFutureMock);
 
-        Mockito.when(xferMock.progress()).thenReturn(xferProgressMock);
-        Mockito.when(xferProgressMock.snapshot()).thenReturn(xferProgressSnapshot);
-        OptionalDouble od = OptionalDouble.of(0.5);
-        Mockito.when(xferProgressSnapshot.ratioTransferred()).thenReturn(od);
-
         PowerMockito.when(builderMock.build()).thenReturn(downloadFileRequestMock);
 
         PowerMockito.when(ResumableFileDownload.fromFile(Mockito.any(Path.class))).thenReturn(resumableFileDownloadMock);
 
-        PowerMockito.doNothing().when(Thread.class);
-        Thread.sleep(Mockito.anyLong());
-
-        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock);
+        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock, transferManagerMock);
 
         Downloader downloaderSpy = PowerMockito.spy(downloader);
         
         PowerMockito.doReturn(true).when(downloaderSpy).isResume(Mockito.anyString());
+        PowerMockito.doReturn(resumableFileDownloadMock).when(downloaderSpy).withProgressListener(Mockito.any(ResumableFileDownload.class));
 
         downloaderSpy.run();
         
@@ -131,18 +147,11 @@ public class DownloaderTest {
     }
 
     @Test
-    public void pauseFileTest() throws InterruptedException {
-        Mockito.when(S3TransferManager.create()).thenReturn(transferManagerMock);
+    public void pauseFileTest() throws Exception {
         Mockito.when(transferManagerMock.downloadFile(Mockito.any(DownloadFileRequest.class))).thenReturn(xferMock);
         
-        Mockito.when(completionFutureMock.isDone()).thenReturn(false);
         Mockito.when(xferMock.completionFuture()).thenReturn(completionFutureMock);
 
-        Mockito.when(xferMock.progress()).thenReturn(xferProgressMock);
-        Mockito.when(xferProgressMock.snapshot()).thenReturn(xferProgressSnapshot);
-        OptionalDouble od = OptionalDouble.of(0.5);
-        Mockito.when(xferProgressSnapshot.ratioTransferred()).thenReturn(od);
-
         Mockito.when(xferMock.pause()).thenReturn(resumableFileDownloadMock);
         
         Mockito.doAnswer(new Answer<Void>() {
@@ -154,16 +163,18 @@ public class DownloaderTest {
 
         PowerMockito.when(builderMock.build()).thenReturn(downloadFileRequestMock);
 
-        PowerMockito.doThrow(new InterruptedException("Testing pause")).when(Thread.class);
-        Thread.sleep(Mockito.anyLong());
+        // The worker is interrupted while it waits for the end of the transfer
+        Mockito.when(completionFutureMock.get()).thenThrow(new InterruptedException("Testing pause"));
 
-        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock);
+        Downloader downloader = new Downloader("jobUpdateTopic", "bucketName", "keyName", "jobId", "filePath", iotManagerMock, transferManagerMock);
 
         Downloader downloaderSpy = PowerMockito.spy(downloader);
 
         PowerMockito.doReturn(false).when(downloaderSpy).isResume(Mockito.anyString());
 
         downloaderSpy.run();
+        // The downloader restores the interrupt flag for the worker, clear it
+        assertTrue(Thread.interrupted());
         
         Mockito.verify(downloaderSpy, Mockito.times(1)).pauseAndPersistDownload(Mockito.any(FileDownload.class), Mockito.anyString());
         Mockito.verify(xferMock, Mockito.times(1)).pause();
@@ -0,0 +1,76 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.reactivestreams.Subscription;
+import static org.junit.Assert.*;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class InputStreamTransformerTest {
+    @Test
+    public void testBodyIsReadWithBackpressure() throws Exception {
+        InputStreamTransformer<String> transformer = new InputStreamTransformer<String>();
+        CompletableFuture<String> result = transformer.prepare();
+        transformer.onResponse("response");
+        AtomicLong requested = new AtomicLong();
+        AtomicInteger sent = new AtomicInteger();
+        transformer.onStream(subscriber -> subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+                // 20 buffers, delivered as they are requested
+                while (sent.get() < requested.get() && sent.get() < 20) {
+                    subscriber.onNext(ByteBuffer.wrap(("part" + sent.getAndIncrement() + ",").getBytes(StandardCharsets.UTF_8)));
+                }
+                if (sent.get() == 20) {
+                    sent.incrementAndGet();
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }));
+        // Only the first buffers are asked for until the reader takes them
+        assertEquals(InputStreamTransformer.BUFFERS, requested.get());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = transformer.stream()) {
+            byte[] buffer = new byte[3];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        }
+        assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).startsWith("part0,part1,"));
+        assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).endsWith("part19,"));
+        assertEquals("response", result.get());
+        assertEquals(out.size(), transformer.bytesRead.get());
+    }
+
+    @Test
+    public void testTransferFailureReachesTheReader() throws Exception {
+        InputStreamTransformer<String> transformer = new InputStreamTransformer<String>();
+        CompletableFuture<String> result = transformer.prepare();
+        transformer.exceptionOccurred(SdkClientException.create("Connection reset"));
+
+        try (InputStream in = transformer.stream()) {
+            in.read();
+            fail("The failure wasn't raised");
+        } catch (InputStreamTransformer.TransferException e) {
+            assertEquals(RetryPolicy.Failure.CONNECTION, RetryPolicy.classify(e.getCause()));
+        } catch (IOException e) {
+            fail("Unexpected " + e);
+        }
+        assertTrue(result.isCompletedExceptionally());
+    }
+}
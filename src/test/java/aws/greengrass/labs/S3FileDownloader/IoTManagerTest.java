@@ -1,6 +1,7 @@
 package aws.greengrass.labs.S3FileDownloader;
 
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import org.mockito.ArgumentCaptor;
@@ -11,40 +12,96 @@ import com.google.gson.Gson;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import software.amazon.awssdk.aws.greengrass.GreengrassCoreIPCClientV2;
 import software.amazon.awssdk.aws.greengrass.model.IoTCoreMessage;
 import software.amazon.awssdk.aws.greengrass.model.MQTTMessage;
 import software.amazon.awssdk.aws.greengrass.model.PublishToIoTCoreRequest;
+import software.amazon.awssdk.aws.greengrass.model.PublishToIoTCoreResponse;
+import software.amazon.awssdk.aws.greengrass.model.PublishToTopicRequest;
+import software.amazon.awssdk.aws.greengrass.model.PublishToTopicResponse;
 import software.amazon.awssdk.aws.greengrass.model.QOS;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Publisher;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedDownload;
+import software.amazon.awssdk.transfer.s3.model.CompletedFileDownload;
+import software.amazon.awssdk.transfer.s3.model.Download;
+import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
+import software.amazon.awssdk.transfer.s3.model.DownloadRequest;
+import software.amazon.awssdk.transfer.s3.model.FileDownload;
 
 public class IoTManagerTest {
     private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
     
+    // The resume files of a test must not be found by the next one
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     GreengrassCoreIPCClientV2 ipcClientMock;
+    S3TransferManager transferManagerMock;
     IoTManager iotManager;
 
     // Test constants
     String downloadTopic = "things/TestThing/download";
     String pauseTopic = "things/TestThing/pause";
+    String controlTopic = "things/TestThing/control";
     String updateTopic = "things/TestThing/update";
     String bucketName = "test-bucket";
     String key = "file.zip";
+    String key2 = "file2.zip";
+    String key3 = "file3.zip";
     String jobId = "download1";
     String jobId2 = "download2";
     String jobId3 = "download3";
-    String path = "/home/ggc_user/destination/";
+    String path;
     String status = "SUCCEEDED";
     String reason = "testreason";
 
 
     @Before
+    @SuppressWarnings("unchecked")
     public void setup() {
         System.setOut(new PrintStream(outputStreamCaptor));
+        path = folder.getRoot().getPath() + "/";
 
         // mock the ipcClient
         ipcClientMock = Mockito.mock(GreengrassCoreIPCClientV2.class);
-        iotManager = new IoTManager(ipcClientMock, downloadTopic, pauseTopic, updateTopic, path);
+        Mockito.when(ipcClientMock.publishToIoTCoreAsync(Mockito.any(PublishToIoTCoreRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(new PublishToIoTCoreResponse()));
+        Mockito.when(ipcClientMock.publishToTopicAsync(Mockito.any(PublishToTopicRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(new PublishToTopicResponse()));
+        transferManagerMock = Mockito.mock(S3TransferManager.class);
+        S3AsyncClient s3ClientMock = Mockito.mock(S3AsyncClient.class);
+        // The downloads never complete, they stay in the list until they are paused. Each one has
+        // its own future, pausing a download cancels it.
+        Mockito.when(transferManagerMock.downloadFile(Mockito.any(DownloadFileRequest.class))).thenAnswer(invocation -> {
+            FileDownload pendingDownload = Mockito.mock(FileDownload.class);
+            Mockito.when(pendingDownload.completionFuture()).thenReturn(new CompletableFuture<CompletedFileDownload>());
+            return pendingDownload;
+        });
+        // Downloads which are retried go through a response transformer
+        Mockito.when(transferManagerMock.download(Mockito.any(DownloadRequest.class))).thenAnswer(invocation -> {
+            Download<Object> pendingTransfer = Mockito.mock(Download.class);
+            Mockito.when(pendingTransfer.completionFuture()).thenReturn(new CompletableFuture<CompletedDownload<Object>>());
+            return pendingTransfer;
+        });
+        Mockito.when(s3ClientMock.listObjectsV2(Mockito.any(ListObjectsV2Request.class)))
+            .thenReturn(new CompletableFuture<ListObjectsV2Response>());
+        Mockito.when(s3ClientMock.listObjectsV2Paginator(Mockito.any(Consumer.class)))
+            .thenReturn(new ListObjectsV2Publisher(s3ClientMock, ListObjectsV2Request.builder().build()));
+        ComponentConfig config = new ComponentConfig(downloadTopic, pauseTopic, updateTopic, path);
+        config.controlTopic = controlTopic;
+        iotManager = new IoTManager(ipcClientMock, config,
+                        new SharedTransferClient(s3ClientMock, transferManagerMock));
     }
     
     @Test
@@ -56,11 +113,11 @@ public class IoTManagerTest {
                 "{\"jobId\":\"" + jobId + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"}", 
                 downloadTopic));
 
-        // Check if we could start a Downloader thread and add it to the list
-        assertFalse(iotManager.downloaderThreadList.isEmpty());
+        // Check if we could queue a Downloader and add it to the list
+        assertFalse(iotManager.jobs.isEmpty());
 
-        // Get the Downloader thread
-        Downloader downloader = (Downloader) iotManager.downloaderThreadList.get(0);
+        // Get the Downloader
+        Downloader downloader = iotManager.jobs.get(jobId);
 
         // Test variables that were set by the IoT Core Message
         assertTrue(downloader.bucketName.equals(bucketName));
@@ -68,13 +125,16 @@ public class IoTManagerTest {
         assertTrue(downloader.keyName.equals(key));
         assertTrue(downloader.filePath.contains(path) && downloader.filePath.contains(key));
 
+        // The download uses the shared Transfer Manager
+        assertSame(transferManagerMock, downloader.transferManager);
+
         // Call downloadEnd to finish the download
-        downloader.iotManager.downloadEnd(jobId);
+        downloader.iotManager.downloadEnd(downloader);
 
-        downloader.interrupt();
+        downloader.pause();
 
-        // Check if the thread list is empty after calling downloadEnd
-        assertTrue(iotManager.downloaderThreadList.isEmpty());
+        // Check if the downloader list is empty after calling downloadEnd
+        assertTrue(iotManager.jobs.isEmpty());
     } 
 
     @Test
@@ -86,11 +146,11 @@ public class IoTManagerTest {
                 "{\"jobId\":\"" + jobId + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"}", 
                 downloadTopic));
 
-        // Check if we could start a Downloader thread and add it to the list
-        assertFalse(iotManager.downloaderThreadList.isEmpty());
+        // Check if we could queue a Downloader and add it to the list
+        assertFalse(iotManager.jobs.isEmpty());
 
-        // Get the Downloader thread
-        Downloader downloader = (Downloader) iotManager.downloaderThreadList.get(0);
+        // Get the Downloader
+        Downloader downloader = iotManager.jobs.get(jobId);
 
         // Test variables that were set by the IoT Core Message
         assertTrue(downloader.bucketName.equals(bucketName));
@@ -103,10 +163,31 @@ public class IoTManagerTest {
                 "{}", 
                 pauseTopic));
 
-        // Check if the thread list is empty after calling downloadEnd
-        assertTrue(iotManager.downloaderThreadList.isEmpty());
+        // Check if the downloader list is empty after calling downloadEnd
+        assertTrue(iotManager.jobs.isEmpty());
     } 
 
+    @Test
+    public void testOnStreamEventPauseOneJob() {
+        iotManager.onStreamEvent(
+            generateTestMessage(
+                "{\"jobId\":\"" + jobId + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"}", 
+                downloadTopic));
+        iotManager.onStreamEvent(
+            generateTestMessage(
+                "{\"jobId\":\"" + jobId2 + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key2 + "\"}", 
+                downloadTopic));
+
+        // Only the named job is paused
+        iotManager.onStreamEvent(generateTestMessage("{\"jobId\":\"" + jobId + "\"}", pauseTopic));
+        assertNull(iotManager.jobs.get(jobId));
+        assertNotNull(iotManager.jobs.get(jobId2));
+
+        // The other one is canceled
+        iotManager.onStreamEvent(generateTestMessage("{\"jobId\":\"" + jobId2 + "\", \"cancel\":true}", pauseTopic));
+        assertTrue(iotManager.jobs.isEmpty());
+    }
+
     @Test
     public void testOnStreamEventParallelDownload() {
         
@@ -117,20 +198,20 @@ public class IoTManagerTest {
 
         iotManager.onStreamEvent(
             generateTestMessage(
-                "{\"jobId\":\"" + jobId2 + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"}", 
+                "{\"jobId\":\"" + jobId2 + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key2 + "\"}", 
                 downloadTopic));
 
         iotManager.onStreamEvent(
             generateTestMessage(
-                "{\"jobId\":\"" + jobId3 + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"}", 
+                "{\"jobId\":\"" + jobId3 + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key3 + "\"}", 
                 downloadTopic));
 
 
-        // Check if we could start a Downloader thread and add it to the list
-        assertTrue(iotManager.downloaderThreadList.size() == 3);
+        // Check if we could queue a Downloader and add it to the list
+        assertTrue(iotManager.jobs.size() == 3);
 
-        // Get the Downloader thread
-        Downloader downloader = (Downloader) iotManager.downloaderThreadList.get(0);
+        // Get the Downloader
+        Downloader downloader = iotManager.jobs.get(jobId);
 
         // Test variables that were set by the IoT Core Message
         assertTrue(downloader.bucketName.equals(bucketName));
@@ -143,10 +224,208 @@ public class IoTManagerTest {
                 "{}", 
                 pauseTopic));
 
-        // Check if the thread list is empty after calling downloadEnd
-        assertTrue(iotManager.downloaderThreadList.isEmpty());
+        // Check if the downloader list is empty after calling downloadEnd
+        assertTrue(iotManager.jobs.isEmpty());
     } 
 
+    @Test
+    public void testJobsForTheSameFileShareOneTransfer() throws InterruptedException {
+        String message = "{\"jobId\":\"%s\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"}";
+        iotManager.onStreamEvent(generateTestMessage(String.format(message, jobId), downloadTopic));
+        iotManager.onStreamEvent(generateTestMessage(String.format(message, jobId2), downloadTopic));
+
+        // Only the first job downloads, the second one follows it
+        assertEquals(1, iotManager.jobs.size());
+        assertTrue(iotManager.singleFlight.isFollowing(jobId2));
+
+        // The follower gets the final update of the transfer under its own jobId
+        iotManager.publishUpdate(jobId, "SUCCEEDED", "done");
+        assertTrue(published(updateTopic).contains(new Gson().toJson(new JobUpdate(jobId2, "SUCCEEDED", "done"))));
+        assertFalse(iotManager.singleFlight.isFollowing(jobId2));
+
+        // The message of a job which ended is dropped when it is delivered again
+        iotManager.onStreamEvent(generateTestMessage(String.format(message, jobId2), downloadTopic));
+        assertNull(iotManager.jobs.get(jobId2));
+        assertFalse(iotManager.singleFlight.isFollowing(jobId2));
+
+        iotManager.onStreamEvent(generateTestMessage("{}", pauseTopic));
+    }
+
+    @Test
+    public void testFollowerTakesOverWhenTheLeaderIsPaused() throws InterruptedException {
+        String message = "{\"jobId\":\"%s\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"}";
+        for (String id : new String[] {jobId, jobId2, jobId3}) {
+            iotManager.onStreamEvent(generateTestMessage(String.format(message, id), downloadTopic));
+        }
+
+        iotManager.onStreamEvent(generateTestMessage("{\"jobId\":\"" + jobId + "\"}", pauseTopic));
+        for (int i = 0; i < 500 && iotManager.jobs.get(jobId2) == null; i++) {
+            Thread.sleep(10);
+        }
+        assertNotNull(iotManager.jobs.get(jobId2));
+        assertTrue(iotManager.singleFlight.isFollowing(jobId3));
+
+        // A follower which is paused leaves the transfer to the others
+        iotManager.onStreamEvent(generateTestMessage("{\"jobId\":\"" + jobId3 + "\"}", pauseTopic));
+        assertFalse(iotManager.singleFlight.isFollowing(jobId3));
+        assertNotNull(iotManager.jobs.get(jobId2));
+
+        iotManager.onStreamEvent(generateTestMessage("{}", pauseTopic));
+    }
+
+    @Test
+    public void testRejectedJobEndsWithFailed() throws InterruptedException {
+        iotManager.onStreamEvent(generateTestMessage("{\"jobId\":\"" + jobId + "\", \"s3Bucket\":\"" + bucketName
+                                    + "\", \"key\":\"" + key + "\", \"checksumAlgorithm\":\"MD4\", \"checksum\":\"00\"}",
+                                    downloadTopic));
+
+        // The sender gets a final state instead of waiting for the job
+        assertTrue(iotManager.jobs.isEmpty());
+        List<String> messages = published(updateTopic);
+        assertEquals(1, messages.size());
+        JobUpdate update = new Gson().fromJson(messages.get(0), JobUpdate.class);
+        assertEquals(jobId, update.jobId);
+        assertEquals("FAILED", update.status);
+        assertEquals("invalid job: Unsupported checksum algorithm MD4", update.reason);
+    }
+
+    @Test
+    public void testRangesOfAFileBeingDownloadedAreRejected() throws InterruptedException {
+        String message = "{\"jobId\":\"%s\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\"%s}";
+        iotManager.onStreamEvent(generateTestMessage(String.format(message, jobId, ""), downloadTopic));
+        // Range files don't touch the file of the whole object
+        iotManager.onStreamEvent(generateTestMessage(String.format(message, jobId2,
+                                    ", \"ranges\":[\"0-99\"], \"rangeFiles\":true"), downloadTopic));
+        iotManager.onStreamEvent(generateTestMessage(String.format(message, jobId3, ", \"ranges\":[\"0-99\"]"),
+                                    downloadTopic));
+
+        assertNotNull(iotManager.jobs.get(jobId2));
+        assertNull(iotManager.jobs.get(jobId3));
+        boolean rejected = false;
+        for (String published : published(updateTopic)) {
+            JobUpdate update = new Gson().fromJson(published, JobUpdate.class);
+            rejected |= jobId3.equals(update.jobId) && "FAILED".equals(update.status)
+                        && update.reason.startsWith("invalid job: Job " + jobId3 + " and job " + jobId);
+        }
+        assertTrue(rejected);
+
+        iotManager.onStreamEvent(generateTestMessage("{}", pauseTopic));
+    }
+
+    @Test
+    public void testOnStreamEventBatchDownload() {
+        iotManager.onStreamEvent(
+            generateTestMessage(
+                "{\"jobId\":\"" + jobId + "\", \"s3Bucket\":\"" + bucketName + "\", \"keys\":[\"a.bin\", \"b.bin\"], \"prefix\":\"models/\"}", 
+                downloadTopic));
+
+        // A job with keys or a prefix is downloaded by a BatchDownloader
+        BatchDownloader downloader = (BatchDownloader) iotManager.jobs.get(jobId);
+        assertEquals(2, downloader.keys.size());
+        assertEquals("models/", downloader.prefix);
+        assertEquals(path + bucketName + "/", downloader.bucketFolder);
+        assertSame(iotManager.s3Client, downloader.s3Client);
+
+        iotManager.onStreamEvent(generateTestMessage("{}", pauseTopic));
+    }
+
+    @Test
+    public void testRestoreJobsFromJournal() throws Exception {
+        Path journalFile = Files.createTempFile("job-journal", "");
+        JobJournal journal = new JobJournal(journalFile);
+        journal.replay();
+        journal.accepted(new DownloadJob(jobId, bucketName, key));
+        journal.close();
+
+        // The unfinished job is queued again, its end is journaled
+        iotManager.restoreJobs(new JobJournal(journalFile));
+        assertEquals(1, iotManager.jobs.size());
+        assertEquals(jobId, iotManager.jobs.get(jobId).jobId);
+        iotManager.publishUpdate(jobId, "SUCCEEDED", "done");
+        iotManager.journal.close();
+        assertTrue(new JobJournal(journalFile).replay().isEmpty());
+
+        iotManager.onStreamEvent(generateTestMessage("{}", pauseTopic));
+        Files.delete(journalFile);
+    }
+
+    @Test
+    public void testOnStreamEventQueuedUpdate() throws InterruptedException {
+        IoTManager iotManagerSpy = Mockito.spy(iotManager);
+
+        iotManagerSpy.onStreamEvent(
+            generateTestMessage(
+                "{\"jobId\":\"" + jobId + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\", \"priority\":5}", 
+                downloadTopic));
+
+        // The job is reported as queued together with the scheduler state
+        JobUpdate update = new Gson().fromJson(published(updateTopic).get(0), JobUpdate.class);
+        assertEquals(jobId, update.jobId);
+        assertEquals("QUEUED", update.status);
+        assertNotNull(update.queueDepth);
+        assertNotNull(update.activeDownloads);
+
+        assertEquals(5, iotManagerSpy.jobs.get(jobId).priority);
+
+        iotManagerSpy.onStreamEvent(generateTestMessage("{}", pauseTopic));
+    }
+
+    @Test
+    public void testOnStreamEventControl() {
+        iotManager.onStreamEvent(
+            generateTestMessage(
+                "{\"jobId\":\"" + jobId + "\", \"s3Bucket\":\"" + bucketName + "\", \"key\":\"" + key + "\", \"maxBytesPerSecond\":1000}", 
+                downloadTopic));
+
+        // The per job limit comes from the job document, the global limiter is shared
+        Downloader downloader = iotManager.jobs.get(jobId);
+        assertEquals(1000, downloader.jobLimiter.getBytesPerSecond());
+        assertSame(iotManager.globalLimiter, downloader.globalLimiter);
+
+        // Change the global limit
+        iotManager.onStreamEvent(generateTestMessage("{\"maxBytesPerSecond\":5000}", controlTopic));
+        assertEquals(5000, iotManager.globalLimiter.getBytesPerSecond());
+        assertEquals(1000, downloader.jobLimiter.getBytesPerSecond());
+
+        // Change the limit of one job
+        iotManager.onStreamEvent(generateTestMessage("{\"jobId\":\"" + jobId + "\", \"maxBytesPerSecond\":0}", controlTopic));
+        assertEquals(5000, iotManager.globalLimiter.getBytesPerSecond());
+        assertEquals(0, downloader.jobLimiter.getBytesPerSecond());
+
+        iotManager.onStreamEvent(generateTestMessage("{}", pauseTopic));
+    }
+
+    @Test
+    public void testProgressUpdatesAreCoalesced() throws InterruptedException {
+        IoTManager iotManagerSpy = Mockito.spy(iotManager);
+        ProgressReporter reporter = new ProgressReporter(iotManagerSpy, 1000, 5.0);
+        reporter.track(jobId);
+        reporter.track(jobId2);
+        reporter.progress(jobId, 0.10);
+        reporter.progress(jobId2, 0.20);
+
+        // Both jobs are published in a single message
+        reporter.flush();
+        List<String> messages = published(updateTopic);
+        assertEquals(1, messages.size());
+        JobUpdateBatch batch = new Gson().fromJson(messages.get(0), JobUpdateBatch.class);
+        assertEquals(2, batch.updates.size());
+
+        // Less than the minimum delta, nothing is published
+        reporter.progress(jobId, 0.12);
+        reporter.flush();
+        assertEquals(1, published(updateTopic).size());
+
+        // A single job is published with the format of a single update
+        reporter.progress(jobId, 0.50);
+        reporter.flush();
+        messages = published(updateTopic);
+        assertEquals(2, messages.size());
+        JobUpdate update = new Gson().fromJson(messages.get(1), JobUpdate.class);
+        assertEquals(jobId, update.jobId);
+        assertEquals("0.5", update.reason);
+    }
+
     @Test
     public void testOnStreamEventCorruptedPayload() {
         System.setErr(new PrintStream(outputStreamCaptor));
@@ -161,7 +440,7 @@ public class IoTManagerTest {
         assertTrue(outputStreamCaptor.toString().trim().contains("Exception occurred while processing subscription response message."));
                 
         // The payload was corrupted, we don't expect any downloader task to start
-        assertTrue(iotManager.downloaderThreadList.isEmpty());
+        assertTrue(iotManager.jobs.isEmpty());
     } 
 
     @Test
@@ -177,15 +456,11 @@ public class IoTManagerTest {
         publishToTopicRequest.setPayload(message.getBytes(StandardCharsets.UTF_8));
         publishToTopicRequest.setQos(QOS.AT_LEAST_ONCE);
 
-        IoTManager iotManagerMock = Mockito.spy(iotManager);
-
-        iotManagerMock.publishUpdate(jobId, status, reason);
+        iotManager.publishUpdate(jobId, status, reason);
 
-        ArgumentCaptor<String> argTopic = ArgumentCaptor.forClass(String.class);
-        ArgumentCaptor<String> argMessage = ArgumentCaptor.forClass(String.class);
-        Mockito.verify(iotManagerMock).publishMessageToTopic(argTopic.capture(), argMessage.capture());
-        assertEquals(updateTopic, argTopic.getValue());
-        assertEquals(message, argMessage.getValue());
+        List<String> messages = published(updateTopic);
+        assertEquals(1, messages.size());
+        assertEquals(message, messages.get(0));
     } 
 
     @Test
@@ -196,15 +471,36 @@ public class IoTManagerTest {
         Gson gson = new Gson();
         String message = gson.toJson(update);
 
-        iotManager.publishMessageToTopic(updateTopic, message);
+        iotManager.publishMessageToTopicAsync(updateTopic, message).join();
 
         ArgumentCaptor<PublishToIoTCoreRequest> argReq = ArgumentCaptor.forClass(PublishToIoTCoreRequest.class);
-        Mockito.verify(ipcClientMock).publishToIoTCore(argReq.capture());
+        Mockito.verify(ipcClientMock).publishToIoTCoreAsync(argReq.capture());
         assertEquals(updateTopic, argReq.getValue().getTopicName());
         assertEquals(message, new String(argReq.getValue().getPayload(), StandardCharsets.UTF_8));
         assertEquals(QOS.AT_LEAST_ONCE, argReq.getValue().getQos());
     } 
 
+    @Test
+    public void testPublishFileReady() throws InterruptedException {
+        // Nothing is published without a file ready topic
+        iotManager.publishFileReady(jobId, bucketName, key, path + bucketName + "/" + key);
+        assertTrue(iotManager.publisher.flush(5000));
+        Mockito.verify(ipcClientMock, Mockito.never()).publishToTopicAsync(Mockito.any(PublishToTopicRequest.class));
+
+        iotManager.fileReadyTopic = "s3filedownloader/file-ready";
+        iotManager.publishFileReady(jobId, bucketName, key, path + bucketName + "/" + key);
+        assertTrue(iotManager.publisher.flush(5000));
+
+        ArgumentCaptor<PublishToTopicRequest> argReq = ArgumentCaptor.forClass(PublishToTopicRequest.class);
+        Mockito.verify(ipcClientMock).publishToTopicAsync(argReq.capture());
+        assertEquals("s3filedownloader/file-ready", argReq.getValue().getTopic());
+        FileReady event = new Gson().fromJson(new String(argReq.getValue().getPublishMessage().getBinaryMessage().getMessage(),
+                                                StandardCharsets.UTF_8), FileReady.class);
+        assertEquals(jobId, event.jobId);
+        assertEquals(key, event.key);
+        assertEquals(path + bucketName + "/" + key, event.path);
+    }
+
     IoTCoreMessage generateTestMessage(String payload, String topic){
         // Create an IoT Core Message
         MQTTMessage mqttMessage = new MQTTMessage().withTopicName(topic).withPayload(payload.getBytes());
@@ -212,4 +508,18 @@ public class IoTManagerTest {
         iotCoreMessage.setMessage(mqttMessage);
         return iotCoreMessage;
     }
-}
\ No newline at end of file
+
+    // Messages published to AWS IoT Core on the topic, once the publisher sent what is queued
+    List<String> published(String topic) throws InterruptedException {
+        assertTrue(iotManager.publisher.flush(5000));
+        ArgumentCaptor<PublishToIoTCoreRequest> argReq = ArgumentCaptor.forClass(PublishToIoTCoreRequest.class);
+        Mockito.verify(ipcClientMock, Mockito.atLeast(0)).publishToIoTCoreAsync(argReq.capture());
+        List<String> messages = new ArrayList<String>();
+        for (PublishToIoTCoreRequest request : argReq.getAllValues()) {
+            if (topic.equals(request.getTopicName())) {
+                messages.add(new String(request.getPayload(), StandardCharsets.UTF_8));
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,75 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class JobJournalTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path journalFile;
+
+    @Before
+    public void setup() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        journalFile = folder.getRoot().toPath().resolve(".job-journal");
+    }
+
+    @Test
+    public void testReplayQueuesUnfinishedJobs() throws Exception {
+        JobJournal journal = new JobJournal(journalFile);
+        journal.replay();
+        journal.accepted(new DownloadJob("done", "bucket", "a.bin"));
+        journal.accepted(new DownloadJob("running", "bucket", "b.bin"));
+        journal.accepted(new DownloadJob("paused", "bucket", "c.bin"));
+        journal.ended("done", "SUCCEEDED");
+        journal.paused("paused");
+        journal.close();
+
+        // A torn record at the end of the file is skipped
+        Files.write(journalFile, "{\"type\":\"ACC".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<DownloadJob> jobs = new JobJournal(journalFile).replay();
+        assertEquals(1, jobs.size());
+        assertEquals("running", jobs.get(0).jobId);
+        assertEquals("b.bin", jobs.get(0).key);
+
+        // The replay compacted the journal, the paused job is kept
+        List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws Exception {
+        JobJournal journal = new JobJournal(journalFile);
+        journal.replay();
+        for (int i = 0; i < JobJournal.COMPACT_AFTER_RECORDS; i++) {
+            journal.accepted(new DownloadJob("job" + i, "bucket", "file" + i));
+            journal.ended("job" + i, "SUCCEEDED");
+        }
+        journal.accepted(new DownloadJob("last", "bucket", "last.bin"));
+        journal.flush();
+
+        // Only the unfinished job is left in the file
+        List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("last.bin"));
+
+        // Later records are appended to the compacted journal
+        journal.ended("last", "FAILED");
+        journal.close();
+        assertTrue(new JobJournal(journalFile).replay().isEmpty());
+    }
+}
@@ -0,0 +1,46 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class JobRegistryTest {
+    JobRegistry registry = new JobRegistry();
+
+    Downloader downloader(String jobId) {
+        return new Downloader("update", "bucket", "key", jobId, "/tmp/" + jobId, null, null);
+    }
+
+    @Test
+    public void testStateTransitions() {
+        Downloader first = downloader("job1");
+        assertTrue(registry.add(first));
+        assertFalse(registry.add(downloader("job1")));
+        assertEquals(JobRegistry.State.QUEUED, registry.state("job1"));
+
+        assertTrue(registry.transition(first, JobRegistry.State.QUEUED, JobRegistry.State.RUNNING));
+        assertFalse(registry.transition(first, JobRegistry.State.QUEUED, JobRegistry.State.RUNNING));
+
+        // Only the first stop wins, the job can be sent again right away
+        assertSame(first, registry.stop("job1"));
+        assertNull(registry.stop("job1"));
+        assertTrue(registry.isEmpty());
+        assertFalse(registry.transition(first, JobRegistry.State.PAUSED, JobRegistry.State.QUEUED));
+    }
+
+    @Test
+    public void testEndOfPausedDownloadKeepsResentJob() {
+        Downloader paused = downloader("job1");
+        registry.add(paused);
+        registry.stop("job1");
+
+        Downloader resent = downloader("job1");
+        assertTrue(registry.add(resent));
+        // The paused download ends after the job was sent again
+        registry.remove(paused);
+        assertFalse(registry.transition(paused, JobRegistry.State.QUEUED, JobRegistry.State.RUNNING));
+        assertSame(resent, registry.get("job1"));
+
+        registry.remove(resent);
+        assertTrue(registry.isEmpty());
+    }
+}
@@ -0,0 +1,120 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ManagedStoreTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path destination;
+    Path indexFile;
+    AtomicLong now = new AtomicLong(System.currentTimeMillis());
+
+    @Before
+    public void setup() throws Exception {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        destination = folder.newFolder("destination").toPath();
+        indexFile = destination.resolve(".store-index.json");
+    }
+
+    @Test
+    public void testLeastRecentlyUsedUnpinnedFileIsEvicted() throws Exception {
+        ManagedStore store = store(25, ManagedStore.Policy.LRU);
+        Path a = file("bucket/a.bin", 10);
+        Path b = file("bucket/b.bin", 10);
+        store.used(a.toString());
+        store.used(b.toString());
+        // a is the oldest but a job is reading it
+        store.pinned = path -> path.equals(ManagedStore.normalize(a.toString()));
+
+        store.used(file("bucket/c.bin", 10).toString());
+
+        assertTrue(Files.exists(a));
+        assertFalse(Files.exists(b));
+        assertEquals(20, store.usedBytes);
+
+        // The index survives a restart
+        ManagedStore restarted = store(25, ManagedStore.Policy.LRU);
+        assertEquals(20, restarted.usedBytes);
+        assertEquals(2, restarted.entries.size());
+    }
+
+    @Test
+    public void testLeastFrequentlyUsedFileIsEvicted() throws Exception {
+        ManagedStore store = store(25, ManagedStore.Policy.LFU);
+        Path a = file("bucket/a.bin", 10);
+        Path b = file("bucket/b.bin", 10);
+        store.used(a.toString());
+        store.used(a.toString());
+        store.used(b.toString());
+        // The new file is pinned by the job which just downloaded it
+        Path c = file("bucket/c.bin", 10);
+        store.pinned = path -> path.equals(ManagedStore.normalize(c.toString()));
+
+        store.used(c.toString());
+
+        assertTrue(Files.exists(a));
+        assertFalse(Files.exists(b));
+        assertTrue(Files.exists(c));
+    }
+
+    @Test
+    public void testExistingFilesAreIndexedOnFirstStart() throws Exception {
+        file("bucket/a.bin", 10);
+        file("bucket/folder/b.bin", 5);
+        file(".staging/bucket/c.bin", 7);
+
+        ManagedStore store = store(100, ManagedStore.Policy.LRU);
+
+        assertEquals(2, store.entries.size());
+        assertEquals(15, store.usedBytes);
+    }
+
+    @Test
+    public void testOrphanedStagedFilesAreCollected() throws Exception {
+        ManagedStore store = store(0, ManagedStore.Policy.LRU);
+        Path staging = destination.resolve(".staging");
+        Path orphan = file(".staging/bucket/old.bin", 10);
+        Path orphanResume = file(".staging/bucket/old.bin.resume-download", 1);
+        Path paused = file(".staging/bucket/recent.bin.resume-parts", 1);
+        Path running = file(".staging/other/running.bin", 10);
+        FileTime old = FileTime.fromMillis(now.get() - 2 * 3600 * 1000);
+        for (Path path : new Path[] {orphan, orphanResume, running}) {
+            Files.setLastModifiedTime(path, old);
+        }
+        store.pinned = path -> path.startsWith(ManagedStore.normalize(running.toString()));
+
+        assertEquals(2, store.collect(staging));
+
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(orphanResume));
+        assertTrue(Files.exists(paused));
+        assertTrue(Files.exists(running));
+    }
+
+    ManagedStore store(long quotaBytes, ManagedStore.Policy policy){
+        ManagedStore store = new ManagedStore(indexFile, destination, quotaBytes, policy, 3600 * 1000);
+        store.clock = () -> now.incrementAndGet();
+        return store;
+    }
+
+    Path file(String name, int size) throws Exception {
+        Path path = destination.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[size]);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(now.get()));
+        return path;
+    }
+}
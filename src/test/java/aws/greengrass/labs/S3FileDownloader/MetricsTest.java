@@ -0,0 +1,78 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.mockito.Mockito;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MetricsTest {
+    Metrics metrics = new Metrics();
+
+    @Test
+    public void testTransferredBytes() {
+        AtomicLong bytes = new AtomicLong(100);
+        metrics.track("job", bytes::get);
+
+        // The bytes already on the disk when the download started are not counted
+        bytes.set(1100);
+        metrics.sample();
+        assertEquals(1000, metrics.bytesTotal.sum());
+        assertTrue(metrics.jobBytesPerSecond().get("job") > 0);
+
+        // The last bytes are counted when the download ends
+        bytes.set(1600);
+        metrics.untrack("job");
+        metrics.sample();
+        assertEquals(1500, metrics.bytesTotal.sum());
+        assertTrue(metrics.jobBytesPerSecond().isEmpty());
+        assertEquals(0.0, metrics.bytesPerSecond(), 0.0);
+    }
+
+    @Test
+    public void testJobStates() {
+        metrics.jobUpdate("job1", "IN_PROGRESS", "paused");
+        metrics.jobUpdate("job2", "IN_PROGRESS", "paused");
+        assertEquals(2, metrics.pausedJobs.size());
+
+        metrics.jobAccepted("job1");
+        metrics.jobUpdate("job2", "CANCELED", "canceled");
+        metrics.jobUpdate("job3", "SUCCEEDED", "done");
+        assertTrue(metrics.pausedJobs.isEmpty());
+        assertEquals(1, metrics.jobsFinished.get("CANCELED").sum());
+        assertEquals(1, metrics.jobsFinished.get("SUCCEEDED").sum());
+    }
+
+    @Test
+    public void testFirstByteIsRecordedOnce() {
+        ProgressReporter progressReporter = new ProgressReporter(null, 60000, 1);
+        progressReporter.metrics = metrics;
+        progressReporter.track("job");
+        progressReporter.progress("job", 0.1);
+        progressReporter.progress("job", 0.2);
+        assertEquals(1, metrics.firstByteCount.sum());
+    }
+
+    @Test
+    public void testPrometheusText() {
+        IoTManager iotManagerMock = Mockito.mock(IoTManager.class);
+        iotManagerMock.scheduler = new DownloadScheduler(1);
+        metrics.track("job \"1\"", () -> 0);
+        metrics.ipcPublished(2000000, true);
+        metrics.retry(RetryPolicy.Failure.THROTTLING);
+        MetricsReporter reporter = new MetricsReporter(iotManagerMock, metrics, null, 60000, 0);
+
+        String text = reporter.prometheusText();
+        assertTrue(text.contains("# TYPE s3filedownloader_bytes_total counter\n"));
+        assertTrue(text.contains("s3filedownloader_job_bytes_per_second{job=\"job \\\"1\\\"\"} 0\n"));
+        assertTrue(text.contains("s3filedownloader_jobs{state=\"queued\"} 0\n"));
+        assertTrue(text.contains("s3filedownloader_ipc_publish_seconds_count 1\n"));
+        assertTrue(text.contains("s3filedownloader_ipc_publish_failures_total 1\n"));
+        assertTrue(text.contains("s3filedownloader_retries_total{reason=\"throttling\"} 1\n"));
+
+        // The message covers the interval since the previous one
+        assertEquals(1, reporter.message().ipcFailures);
+        assertEquals(0, reporter.message().ipcFailures);
+        iotManagerMock.scheduler.shutdown(0);
+    }
+}
@@ -0,0 +1,123 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+public class ObjectCacheTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    S3AsyncClient s3ClientMock;
+    Path indexFile;
+    String bucketName = "test-bucket";
+
+    @Before
+    public void setup() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        s3ClientMock = Mockito.mock(S3AsyncClient.class);
+        indexFile = folder.getRoot().toPath().resolve(".object-index.json");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUnchangedObjectIsReused() throws Exception {
+        Path file = writeFile("a.bin", "content");
+        ObjectCache cache = new ObjectCache(indexFile, s3ClientMock, false);
+        cache.recordDownload(bucketName, "a.bin", file.toString(), getObjectResponse("\"etag1\""));
+
+        // S3 answers 304 Not Modified to the conditional HEAD request
+        CompletableFuture<HeadObjectResponse> notModified = new CompletableFuture<HeadObjectResponse>();
+        notModified.completeExceptionally(S3Exception.builder().statusCode(304).build());
+        Mockito.when(s3ClientMock.headObject(Mockito.any(Consumer.class))).thenReturn(notModified);
+
+        // The index survives a restart
+        ObjectCache reloaded = new ObjectCache(indexFile, s3ClientMock, false);
+        assertTrue(reloaded.reuse(bucketName, "a.bin", file.toString()));
+        assertTrue(Files.exists(file));
+    }
+
+    @Test
+    public void testChangedFileIsDownloadedAgain() throws Exception {
+        Path file = writeFile("a.bin", "content");
+        ObjectCache cache = new ObjectCache(indexFile, s3ClientMock, false);
+        cache.recordDownload(bucketName, "a.bin", file.toString(), getObjectResponse("\"etag1\""));
+
+        // The local file changed, no request is needed to know it must be downloaded
+        Files.write(file, "other content".getBytes(StandardCharsets.UTF_8));
+        assertFalse(cache.reuse(bucketName, "a.bin", file.toString()));
+        Mockito.verifyZeroInteractions(s3ClientMock);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFileIsKeptUntilTheNewVersionReplacesIt() throws Exception {
+        Path file = writeFile("a.bin", "content");
+        ObjectCache cache = new ObjectCache(indexFile, s3ClientMock, false);
+        cache.recordDownload(bucketName, "a.bin", file.toString(), getObjectResponse("\"etag1\""));
+
+        // Offline when the job arrives
+        CompletableFuture<HeadObjectResponse> offline = new CompletableFuture<HeadObjectResponse>();
+        offline.completeExceptionally(SdkClientException.create("Unable to execute HTTP request"));
+        Mockito.when(s3ClientMock.headObject(Mockito.any(Consumer.class))).thenReturn(offline);
+        assertFalse(cache.reuse(bucketName, "a.bin", file.toString()));
+        assertTrue(Files.exists(file));
+        assertNotNull(cache.intactEntry(file.toString()));
+
+        // A new version, the download is staged and replaces the file once complete
+        Mockito.when(s3ClientMock.headObject(Mockito.any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(
+                HeadObjectResponse.builder().eTag("\"etag2\"").contentLength(8L).build()));
+        assertFalse(cache.reuse(bucketName, "a.bin", file.toString()));
+        assertTrue(Files.exists(file));
+        assertNull(cache.intactEntry(file.toString()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSameContentIsHardLinked() throws Exception {
+        Path first = writeFile("a.bin", "content");
+        ObjectCache cache = new ObjectCache(indexFile, s3ClientMock, true);
+        cache.recordDownload(bucketName, "a.bin", first.toString(), getObjectResponse("\"etag1\""));
+
+        // Another key with the same ETag and size
+        CompletableFuture<HeadObjectResponse> head = CompletableFuture.completedFuture(
+                HeadObjectResponse.builder().eTag("\"etag1\"").contentLength((long) "content".length()).build());
+        Mockito.when(s3ClientMock.headObject(Mockito.any(Consumer.class))).thenReturn(head);
+        Path second = folder.getRoot().toPath().resolve("copy/b.bin");
+
+        assertTrue(cache.reuse(bucketName, "copy/b.bin", second.toString()));
+        assertTrue(Files.isSameFile(first, second));
+        assertEquals("b.bin", second.getFileName().toString());
+        assertNotNull(cache.intactEntry(second.toString()));
+    }
+
+    Path writeFile(String name, String content) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    GetObjectResponse getObjectResponse(String eTag) {
+        return GetObjectResponse.builder().eTag(eTag).lastModified(Instant.now()).build();
+    }
+}
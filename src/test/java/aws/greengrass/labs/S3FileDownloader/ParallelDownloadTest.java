@@ -0,0 +1,179 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import org.mockito.Mockito;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+public class ParallelDownloadTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String content = "0123456789";
+    S3AsyncClient s3ClientMock;
+    Path file;
+    List<String> requestedRanges = Collections.synchronizedList(new ArrayList<String>());
+    // Range which fails once, null when every part succeeds
+    String failingRange;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        file = folder.getRoot().toPath().resolve("file.bin");
+        s3ClientMock = Mockito.mock(S3AsyncClient.class);
+        Mockito.when(s3ClientMock.headObject(Mockito.any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(
+            HeadObjectResponse.builder().eTag("\"etag1\"").contentLength((long) content.length()).build()));
+        Mockito.when(s3ClientMock.getObject(Mockito.any(GetObjectRequest.class), Mockito.any(AsyncResponseTransformer.class)))
+            .thenAnswer(invocation -> serveRange((GetObjectRequest) invocation.getArguments()[0],
+                (AsyncResponseTransformer<GetObjectResponse, GetObjectResponse>) invocation.getArguments()[1]));
+    }
+
+    @Test
+    public void testPartsAreWrittenInPlace() throws Exception {
+        ParallelDownload download = ParallelDownload.open(s3ClientMock, "bucket", "file.bin", file.toString(),
+                                        4, 2, null, ratio -> {});
+
+        assertEquals("\"etag1\"", download.completionFuture().get().eTag());
+        assertEquals(content, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        assertEquals(3, requestedRanges.size());
+        assertTrue(requestedRanges.contains("bytes=8-9"));
+        assertFalse(ParallelDownload.isResume(file.toString()));
+    }
+
+    @Test
+    public void testCompletedDownloadIsRecordedInTheObjectIndex() throws Exception {
+        ParallelDownload download = ParallelDownload.open(s3ClientMock, "bucket", "file.bin", file.toString(),
+                                        4, 2, null, ratio -> {});
+        Downloader downloader = new Downloader("things/thing/update", "bucket", "file.bin", "job", file.toString(),
+                                                null, null);
+        ObjectCache objectCache = new ObjectCache(folder.getRoot().toPath().resolve(".object-index.json"),
+                                                    s3ClientMock, false);
+
+        objectCache.recordDownload("bucket", "file.bin", file.toString(),
+                                    downloader.response(download.completionFuture().get()));
+
+        ObjectCache.Entry entry = objectCache.intactEntry(file.toString());
+        assertNotNull(entry);
+        assertEquals("\"etag1\"", entry.eTag);
+        assertEquals(content.length(), entry.size);
+    }
+
+    @Test
+    public void testResumeOnlyFetchesMissingParts() throws Exception {
+        failingRange = "bytes=4-7";
+        ParallelDownload download = ParallelDownload.open(s3ClientMock, "bucket", "file.bin", file.toString(),
+                                        4, 1, null, ratio -> {});
+        try {
+            download.completionFuture().get();
+            fail("The part should have failed");
+        } catch (ExecutionException e) {
+            // The first part is done, the resume file lists it
+            assertTrue(ParallelDownload.isResume(file.toString()));
+        }
+
+        requestedRanges.clear();
+        failingRange = null;
+        download = ParallelDownload.open(s3ClientMock, "bucket", "file.bin", file.toString(), 4, 1, null, ratio -> {});
+        download.completionFuture().get();
+
+        assertFalse(requestedRanges.contains("bytes=0-3"));
+        assertTrue(requestedRanges.contains("bytes=4-7"));
+        assertEquals(content, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPreallocatedFile() throws Exception {
+        failingRange = "bytes=4-7";
+        ParallelDownload download = ParallelDownload.open(s3ClientMock, "bucket", "file.bin", file.toString(),
+                                        4, 1, null, ratio -> {}, true);
+        try {
+            download.completionFuture().get();
+            fail("The part should have failed");
+        } catch (ExecutionException e) {
+            // The whole file was written before the first part, the missing ones are zeros
+            assertEquals("0123\0\0\0\0", new String(Files.readAllBytes(file), StandardCharsets.UTF_8).substring(0, 8));
+            assertEquals(4, ParallelDownload.completedBytes(file.toString()));
+        }
+    }
+
+    @Test
+    public void testCompletedBytesCountsTheShortLastPart() throws Exception {
+        ParallelDownload.State state = new ParallelDownload.State();
+        state.size = 25;
+        state.partSize = 10;
+        state.completedParts.add(2);
+        ParallelDownload.saveState(file, state);
+        assertEquals(5, ParallelDownload.completedBytes(file.toString()));
+
+        state.completedParts.add(0);
+        ParallelDownload.saveState(file, state);
+        assertEquals(15, ParallelDownload.completedBytes(file.toString()));
+    }
+
+    @Test
+    public void testSmallObjectUsesRegularDownload() throws Exception {
+        assertNull(ParallelDownload.open(s3ClientMock, "bucket", "file.bin", file.toString(), 64, 2, null, ratio -> {}));
+        Mockito.verify(s3ClientMock, Mockito.never())
+            .getObject(Mockito.any(GetObjectRequest.class), Mockito.<AsyncResponseTransformer<GetObjectResponse, Object>>any());
+    }
+
+    // Answers a ranged GET from the test content, the way the S3 client drives a transformer
+    CompletableFuture<GetObjectResponse> serveRange(GetObjectRequest request,
+                                                    AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> transformer) {
+        String range = request.range();
+        requestedRanges.add(range);
+        CompletableFuture<GetObjectResponse> future = transformer.prepare();
+        if (range.equals(failingRange)) {
+            transformer.exceptionOccurred(SdkClientException.create("connection reset"));
+            return future;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        byte[] body = content.substring(Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1)
+                        .getBytes(StandardCharsets.UTF_8);
+        transformer.onResponse(GetObjectResponse.builder().eTag(request.ifMatch()).build());
+        transformer.onStream(subscriber -> subscriber.onSubscribe(new Subscription() {
+            boolean sent;
+
+            @Override
+            public void request(long n) {
+                if (!sent) {
+                    sent = true;
+                    subscriber.onNext(ByteBuffer.wrap(body));
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }));
+        return future;
+    }
+}
@@ -0,0 +1,149 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+// Several cores on localhost, each with its own destination folder and port
+public class PeerSourceTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String content = "Object shared on the LAN";
+    String eTag;
+    List<PeerServer> servers = new ArrayList<PeerServer>();
+    HttpServer brokenPeer;
+    Path target;
+
+    @Before
+    public void setup() throws Exception {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        StringBuilder md5 = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.UTF_8))) {
+            md5.append(String.format("%02x", b));
+        }
+        eTag = "\"" + md5 + "\"";
+        target = folder.getRoot().toPath().resolve("consumer/.staging/bucket/dir/object.bin");
+    }
+
+    @After
+    public void tearDown() {
+        for (PeerServer server : servers) {
+            server.stop();
+        }
+        if (brokenPeer != null) {
+            brokenPeer.stop(0);
+        }
+    }
+
+    @Test
+    public void testObjectIsFetchedFromThePeerWhichHasIt() throws Exception {
+        String empty = peer("empty", false, null);
+        String full = peer("full", true, null);
+        List<Long> progress = new ArrayList<Long>();
+
+        assertTrue(source(null, empty, full).fetch("bucket", "dir/object.bin", eTag, content.length(), target, null,
+                                                    progress::add));
+
+        assertEquals(content, new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+        assertEquals(Long.valueOf(content.length()), progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void testTransferCutMidwayContinuesFromAnotherPeer() throws Exception {
+        // Announces the whole object and closes the connection after half of it
+        brokenPeer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        brokenPeer.createContext(PeerServer.PATH, exchange -> {
+            exchange.sendResponseHeaders(200, content.length());
+            OutputStream body = exchange.getResponseBody();
+            body.write(content.substring(0, 10).getBytes(StandardCharsets.UTF_8));
+            body.flush();
+            exchange.close();
+        });
+        brokenPeer.start();
+        String full = peer("full", true, null);
+
+        assertTrue(source(null, "127.0.0.1:" + brokenPeer.getAddress().getPort(), full)
+                    .fetch("bucket", "dir/object.bin", eTag, content.length(), target, null, bytes -> {}));
+
+        assertEquals(content, new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+        assertTrue(outputStreamCaptor.toString().contains("Fetched 14 bytes of dir/object.bin"));
+    }
+
+    @Test
+    public void testOtherVersionOrWrongTokenFallsBackToS3() throws Exception {
+        String full = peer("full", true, "secret");
+
+        // A newer version in S3, the peer only has the previous one
+        assertFalse(source("secret", full).fetch("bucket", "dir/object.bin", "\"other\"", content.length(), target,
+                                                    null, bytes -> {}));
+        assertFalse(source("wrong", full).fetch("bucket", "dir/object.bin", eTag, content.length(), target,
+                                                    null, bytes -> {}));
+        assertFalse(Files.exists(target));
+        // A checksum which doesn't match the served content
+        StreamingChecksum checksum = StreamingChecksum.expected("SHA256",
+                                        "0000000000000000000000000000000000000000000000000000000000000000");
+        assertFalse(source("secret", full).fetch("bucket", "dir/object.bin", eTag, content.length(), target,
+                                                    checksum, bytes -> {}));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void testObjectWhichCantBeVerifiedIsNotFetched() throws Exception {
+        String full = peer("full", true, null);
+
+        // The ETag of an object uploaded in parts isn't the MD5 of its content
+        String multipartETag = "\"" + PeerSource.unquoted(eTag) + "-2\"";
+        assertFalse(source(null, full).fetch("bucket", "dir/object.bin", multipartETag, content.length(), target,
+                                                null, bytes -> {}));
+
+        assertFalse(Files.exists(target));
+        assertFalse(outputStreamCaptor.toString().contains("Fetched"));
+    }
+
+    // Starts a core serving its destination folder, returns its address
+    String peer(String name, boolean hasObject, String token) throws Exception {
+        Path destination = folder.newFolder(name).toPath();
+        ObjectCache objectCache = new ObjectCache(destination.resolve(".object-index.json"), null, false);
+        if (hasObject) {
+            Path file = destination.resolve("bucket/dir/object.bin");
+            Files.createDirectories(file.getParent());
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            objectCache.recordDownload("bucket", "dir/object.bin", file.toString(),
+                                        GetObjectResponse.builder().eTag(eTag).build());
+        }
+        PeerServer server = new PeerServer(destination + "/", objectCache, 0, token);
+        server.start();
+        servers.add(server);
+        return "127.0.0.1:" + server.port();
+    }
+
+    // Asks the peers in the given order
+    PeerSource source(String token, String... peers) {
+        return new PeerSource(Arrays.asList(peers), token) {
+            @Override
+            List<String> order() {
+                return peers;
+            }
+        };
+    }
+}
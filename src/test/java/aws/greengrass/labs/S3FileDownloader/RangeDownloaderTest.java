@@ -0,0 +1,169 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+public class RangeDownloaderTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String content = "HEADERBODY....INDEX";
+    S3AsyncClient s3ClientMock;
+    IoTManager iotManagerMock;
+    Path file;
+    List<String> requestedRanges = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        file = folder.getRoot().toPath().resolve("bucket/archive.zip");
+        iotManagerMock = Mockito.mock(IoTManager.class);
+        s3ClientMock = Mockito.mock(S3AsyncClient.class);
+        Mockito.when(s3ClientMock.headObject(Mockito.any(Consumer.class))).thenReturn(CompletableFuture.completedFuture(
+            HeadObjectResponse.builder().eTag("\"etag\"").contentLength((long) content.length()).build()));
+        Mockito.when(s3ClientMock.getObject(Mockito.any(GetObjectRequest.class), Mockito.any(AsyncResponseTransformer.class)))
+            .thenAnswer(invocation -> serveRange((GetObjectRequest) invocation.getArguments()[0],
+                (AsyncResponseTransformer<GetObjectResponse, GetObjectResponse>) invocation.getArguments()[1]));
+    }
+
+    @Test
+    public void testRangesAreWrittenAtTheirOffsetAndNotFetchedAgain() throws Exception {
+        downloader(false, "0-5", "-5").download();
+
+        byte[] written = Files.readAllBytes(file);
+        assertEquals(content.length(), written.length);
+        assertEquals("HEADER", new String(written, 0, 6, StandardCharsets.UTF_8));
+        assertEquals("INDEX", new String(written, 14, 5, StandardCharsets.UTF_8));
+        assertEquals(0, written[6]);
+        assertEquals(2, requestedRanges.size());
+        ArgumentCaptor<JobUpdate> updates = ArgumentCaptor.forClass(JobUpdate.class);
+        Mockito.verify(iotManagerMock, Mockito.times(2)).publishUpdate(updates.capture());
+        List<String> done = new ArrayList<String>();
+        for (JobUpdate update : updates.getAllValues()) {
+            done.add(update.range);
+        }
+        assertTrue(done.containsAll(Arrays.asList("0-5", "14-18")));
+        Mockito.verify(iotManagerMock).publishFileReady("job", "bucket", "archive.zip", file.toString());
+        Mockito.verify(iotManagerMock).publishUpdate("job", "SUCCEEDED", "done");
+
+        // The index was fetched before, only the body is requested
+        downloader(false, "-5", "6-13").download();
+
+        assertEquals(3, requestedRanges.size());
+        assertEquals("bytes=6-13", requestedRanges.get(2));
+        assertEquals(content, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testHardLinkedFileIsCopiedBeforeTheRangesAreWritten() throws Exception {
+        Path other = folder.getRoot().toPath().resolve("bucket/other.zip");
+        Files.createDirectories(other.getParent());
+        Files.write(other, "previous version".getBytes(StandardCharsets.UTF_8));
+        Files.createLink(file, other);
+
+        downloader(false, "0-5").download();
+
+        // The other key keeps its content and size
+        assertEquals("previous version", new String(Files.readAllBytes(other), StandardCharsets.UTF_8));
+        assertFalse(Files.isSameFile(file, other));
+        assertEquals("HEADER", new String(Files.readAllBytes(file), 0, 6, StandardCharsets.UTF_8));
+        assertEquals(content.length(), Files.size(file));
+    }
+
+    @Test
+    public void testRangeFilesAreStagedAndPublishedOneByOne() throws Exception {
+        RangeDownloader downloader = downloader(true, "0-5", "14-100");
+        downloader.staging = new StagingArea(folder.getRoot().toPath().resolve(".staging"));
+
+        downloader.download();
+
+        Path header = file.resolveSibling("archive.zip.0-5");
+        Path index = file.resolveSibling("archive.zip.14-18");
+        assertEquals("HEADER", new String(Files.readAllBytes(header), StandardCharsets.UTF_8));
+        assertEquals("INDEX", new String(Files.readAllBytes(index), StandardCharsets.UTF_8));
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve(".staging/bucket/archive.zip.0-5")));
+        Mockito.verify(iotManagerMock).publishFileReady("job", "bucket", "archive.zip", header.toString());
+        Mockito.verify(iotManagerMock).publishFileReady("job", "bucket", "archive.zip", index.toString());
+        Mockito.verify(iotManagerMock).publishUpdate("job", "SUCCEEDED", "done");
+    }
+
+    @Test
+    public void testRangeOutsideOfTheObjectFails() throws Exception {
+        downloader(false, "0-5", "19-").download();
+
+        assertTrue(requestedRanges.isEmpty());
+        Mockito.verify(iotManagerMock).publishUpdate("job", "FAILED", "invalid range");
+        try {
+            RangeDownloader.resolve(Arrays.asList("5-2"), Long.MAX_VALUE);
+            fail("A range ending before its start is invalid");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    RangeDownloader downloader(boolean rangeFiles, String... ranges) {
+        RangeDownloader downloader = new RangeDownloader("things/thing/update", "bucket", "archive.zip", "job",
+                                        file.toString(), iotManagerMock, null, Arrays.asList(ranges), rangeFiles);
+        downloader.s3Client = s3ClientMock;
+        downloader.partConcurrency = 2;
+        return downloader;
+    }
+
+    // Answers a ranged GET from the content
+    CompletableFuture<GetObjectResponse> serveRange(GetObjectRequest request,
+                                                    AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> transformer) {
+        String range = request.range();
+        requestedRanges.add(range);
+        CompletableFuture<GetObjectResponse> future = transformer.prepare();
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        byte[] body = content.substring(Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1)
+                        .getBytes(StandardCharsets.UTF_8);
+        transformer.onResponse(GetObjectResponse.builder().eTag(request.ifMatch()).build());
+        transformer.onStream(subscriber -> subscriber.onSubscribe(new Subscription() {
+            boolean sent;
+
+            @Override
+            public void request(long n) {
+                if (!sent) {
+                    sent = true;
+                    subscriber.onNext(ByteBuffer.wrap(body));
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }));
+        return future;
+    }
+}
@@ -0,0 +1,71 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.util.concurrent.CompletionException;
+
+public class RetryPolicyTest {
+    RetryPolicy retryPolicy = new RetryPolicy(3, 100, 1000);
+
+    static S3Exception s3Error(int status, String code){
+        return (S3Exception) S3Exception.builder().statusCode(status)
+                    .awsErrorDetails(AwsErrorDetails.builder().errorCode(code).build()).build();
+    }
+
+    @Test
+    public void testClassify() {
+        assertEquals(RetryPolicy.Failure.THROTTLING, RetryPolicy.classify(s3Error(503, "SlowDown")));
+        assertEquals(RetryPolicy.Failure.SERVER_ERROR, RetryPolicy.classify(s3Error(500, "InternalError")));
+        assertEquals(RetryPolicy.Failure.CREDENTIALS, RetryPolicy.classify(s3Error(400, "ExpiredToken")));
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(s3Error(404, "NoSuchKey")));
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(s3Error(412, "PreconditionFailed")));
+        // The cause chain is followed through the wrappers of the futures
+        assertEquals(RetryPolicy.Failure.CONNECTION, RetryPolicy.classify(
+                    new CompletionException(SdkClientException.create("failed", new IOException("Connection reset")))));
+        assertEquals(RetryPolicy.Failure.CONNECTION, RetryPolicy.classify(new CompletionException(new IOException("reset"))));
+        assertEquals(RetryPolicy.Failure.CREDENTIALS, RetryPolicy.classify(
+                    SdkClientException.create("Unable to load credentials from any of the providers")));
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(new IllegalStateException()));
+    }
+
+    @Test
+    public void testLocalDiskErrorsAreFatal() {
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(new CompletionException(
+                    SdkClientException.create("failed", new FileSystemException("/data/file", null, "No space left on device")))));
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(new AccessDeniedException("/data/file")));
+        // Written by a FileChannel, the error only has the message of the system
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(
+                    SdkClientException.create("failed", new IOException("No space left on device"))));
+        assertEquals(RetryPolicy.Failure.FATAL, RetryPolicy.classify(new IOException("Permission denied")));
+    }
+
+    @Test
+    public void testBudget() {
+        assertTrue(retryPolicy.retryable(RetryPolicy.Failure.SERVER_ERROR, 2));
+        assertFalse(retryPolicy.retryable(RetryPolicy.Failure.SERVER_ERROR, 3));
+        assertFalse(retryPolicy.retryable(RetryPolicy.Failure.FATAL, 0));
+    }
+
+    @Test
+    public void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            long first = retryPolicy.backoffMillis(RetryPolicy.Failure.SERVER_ERROR, 0);
+            assertTrue(first >= 50 && first <= 100);
+            long second = retryPolicy.backoffMillis(RetryPolicy.Failure.SERVER_ERROR, 1);
+            assertTrue(second >= 100 && second <= 200);
+            // Throttling starts further, every delay stays under the maximum
+            long throttled = retryPolicy.backoffMillis(RetryPolicy.Failure.THROTTLING, 0);
+            assertTrue(throttled >= 200 && throttled <= 400);
+            long last = retryPolicy.backoffMillis(RetryPolicy.Failure.THROTTLING, 1000);
+            assertTrue(last >= 500 && last <= 1000);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class StagingAreaTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCommitMovesTheFileInPlace() throws Exception {
+        Path destination = folder.getRoot().toPath();
+        StagingArea staging = new StagingArea(destination.resolve(".staging"));
+        Path staged = staging.path("bucket", "models/model.bin");
+        assertEquals(destination.resolve(".staging/bucket/models/model.bin"), staged);
+
+        Files.createDirectories(staged.getParent());
+        Files.write(staged, "new".getBytes(StandardCharsets.UTF_8));
+        Path target = destination.resolve("bucket/models/model.bin");
+        StagingArea.commit(staged, target);
+
+        assertFalse(Files.exists(staged));
+        assertEquals("new", new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+
+        // An older version of the file is replaced
+        Files.write(staged, "newer".getBytes(StandardCharsets.UTF_8));
+        StagingArea.commit(staged, target);
+        assertEquals("newer", new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,66 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StreamReporterTest {
+    IoTManager iotManagerMock = Mockito.mock(IoTManager.class);
+    Downloader downloader = new Downloader("things/thing/update", "bucket", "video.mp4", "job", "/data/bucket/video.mp4",
+                                            iotManagerMock, null);
+    AtomicLong bytes = new AtomicLong();
+    StreamReporter reporter = new StreamReporter(iotManagerMock, 100, 1000);
+
+    @Test
+    public void testOffsetsArePublishedEveryStepUpToTheEnd() {
+        reporter.track(downloader, "/data/.staging/bucket/video.mp4", 2500, bytes::get);
+
+        reporter.flush();
+        bytes.set(600);
+        reporter.flush();
+        bytes.set(1200);
+        reporter.flush();
+        bytes.set(2000);
+        reporter.flush();
+        bytes.set(2500);
+        reporter.flush();
+        reporter.flush();
+
+        List<StreamOffset> offsets = published(3, false);
+        assertEquals(0, offsets.get(0).offset);
+        assertEquals(1200, offsets.get(1).offset);
+        // Less than a step, but the end of the object
+        assertEquals(2500, offsets.get(2).offset);
+        assertEquals("/data/.staging/bucket/video.mp4", offsets.get(2).path);
+        assertEquals(2500, offsets.get(2).size);
+        assertFalse(offsets.get(2).complete);
+    }
+
+    @Test
+    public void testCompleteFileIsAnnouncedAtItsFinalPath() {
+        reporter.track(downloader, "/data/.staging/bucket/video.mp4", 2500, bytes::get);
+
+        reporter.complete(downloader, "/data/bucket/video.mp4", 2500);
+        bytes.set(2500);
+        reporter.flush();
+
+        StreamOffset last = published(1, true).get(0);
+        assertTrue(last.complete);
+        assertEquals("/data/bucket/video.mp4", last.path);
+        assertEquals(2500, last.offset);
+        Mockito.verify(iotManagerMock, Mockito.never()).publishStreamOffset(Mockito.any(Downloader.class),
+                                                                            Mockito.any(StreamOffset.class), Mockito.eq(false));
+    }
+
+    List<StreamOffset> published(int count, boolean critical) {
+        ArgumentCaptor<StreamOffset> offsets = ArgumentCaptor.forClass(StreamOffset.class);
+        Mockito.verify(iotManagerMock, Mockito.times(count)).publishStreamOffset(Mockito.eq(downloader), offsets.capture(),
+                                                                                Mockito.eq(critical));
+        return offsets.getAllValues();
+    }
+}
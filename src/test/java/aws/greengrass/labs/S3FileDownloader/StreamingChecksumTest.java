@@ -0,0 +1,81 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class StreamingChecksumTest {
+    static final byte[] CONTENT = "123456789".getBytes(StandardCharsets.UTF_8);
+    // SHA-256 of CONTENT
+    static final String SHA256_HEX = "15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225";
+    // CRC32C of CONTENT, 0xE3069283
+    static final String CRC32C_BASE64 = "4waSgw==";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHexAndBase64Values() {
+        StreamingChecksum sha256 = StreamingChecksum.expected("SHA-256", SHA256_HEX);
+        sha256.update(ByteBuffer.wrap(CONTENT, 0, 4));
+        sha256.update(ByteBuffer.wrap(CONTENT, 4, 5));
+        assertTrue(sha256.matches());
+        assertEquals("SHA256", sha256.algorithm);
+
+        StreamingChecksum crc32c = StreamingChecksum.expected("crc32c", CRC32C_BASE64);
+        ByteBuffer buffer = ByteBuffer.wrap(CONTENT);
+        crc32c.update(buffer);
+        // The buffer is still written to the file after the checksum
+        assertEquals(CONTENT.length, buffer.remaining());
+        assertTrue(crc32c.matches());
+        assertEquals(CRC32C_BASE64, crc32c.encoded());
+    }
+
+    @Test
+    public void testMismatch() {
+        StreamingChecksum checksum = StreamingChecksum.expected("CRC32C", CRC32C_BASE64);
+        checksum.update(ByteBuffer.wrap(CONTENT, 0, 8));
+        assertFalse(checksum.matches());
+
+        StreamingChecksum restarted = StreamingChecksum.expected("CRC32C", CRC32C_BASE64);
+        restarted.update(ByteBuffer.wrap(CONTENT, 0, 8));
+        restarted.restart();
+        restarted.update(ByteBuffer.wrap(CONTENT));
+        assertTrue(restarted.matches());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithm() {
+        StreamingChecksum.expected("MD5", SHA256_HEX);
+    }
+
+    @Test
+    public void testNoChecksum() {
+        assertNull(StreamingChecksum.expected(null, null));
+        assertNull(StreamingChecksum.fromObject(HeadObjectResponse.builder().build()));
+        // Objects uploaded in parts only have a checksum of the parts
+        assertNull(StreamingChecksum.fromObject(HeadObjectResponse.builder().checksumSHA256("AAAA-3").build()));
+        assertNotNull(StreamingChecksum.fromObject(HeadObjectResponse.builder().checksumCRC32C(CRC32C_BASE64).build()));
+    }
+
+    @Test
+    public void testResumeReadsTheDownloadedPrefix() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("file.bin");
+        Files.write(file, CONTENT);
+
+        StreamingChecksum checksum = StreamingChecksum.expected("SHA256", SHA256_HEX);
+        checksum.update(file, 6);
+        checksum.update(ByteBuffer.wrap(CONTENT, 6, 2));
+        // A retried request sends the rest of the object again
+        checksum.restart();
+        checksum.update(ByteBuffer.wrap(CONTENT, 6, 3));
+        assertTrue(checksum.matches());
+    }
+}
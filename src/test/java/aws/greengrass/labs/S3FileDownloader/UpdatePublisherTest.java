@@ -0,0 +1,118 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import org.mockito.Mockito;
+import static org.junit.Assert.*;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UpdatePublisherTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    IoTManager iotManagerMock = Mockito.mock(IoTManager.class);
+    UpdatePublisher publisher = new UpdatePublisher(iotManagerMock, "update");
+    List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setup() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+        System.setErr(new PrintStream(outputStreamCaptor));
+        Mockito.when(iotManagerMock.publishMessageToTopicAsync(Mockito.anyString(), Mockito.anyString()))
+            .thenAnswer(invocation -> {
+                messages.add((String) invocation.getArguments()[1]);
+                return CompletableFuture.completedFuture(null);
+            });
+    }
+
+    @After
+    public void teardown() {
+        publisher.stop(1000);
+    }
+
+    @Test
+    public void testLatestProgressWins() throws InterruptedException {
+        // Queued before the thread starts, only the latest progress of each job is sent
+        publisher.progress(Arrays.asList(new JobUpdate("job1", "IN_PROGRESS", "0.1"), new JobUpdate("job2", "IN_PROGRESS", "0.2")));
+        publisher.progress(Arrays.asList(new JobUpdate("job1", "IN_PROGRESS", "0.3")));
+        publisher.publish("update", new JobUpdate("job3", "SUCCEEDED", "done"), true);
+        publisher.start();
+        assertTrue(publisher.flush(5000));
+
+        assertEquals(2, messages.size());
+        JobUpdateBatch batch = new Gson().fromJson(messages.get(0), JobUpdateBatch.class);
+        assertEquals(2, batch.updates.size());
+        assertEquals("0.3", batch.updates.get(0).reason);
+        assertEquals("SUCCEEDED", new Gson().fromJson(messages.get(1), JobUpdate.class).status);
+    }
+
+    @Test
+    public void testProgressAfterTheFinalStateIsDropped() throws InterruptedException {
+        publisher.progress(Arrays.asList(new JobUpdate("job1", "IN_PROGRESS", "0.9")));
+        publisher.publish("update", new JobUpdate("job1", "SUCCEEDED", "done"), true);
+        publisher.start();
+        assertTrue(publisher.flush(5000));
+        // The progress reporter flushes before the job is untracked
+        publisher.progress(Arrays.asList(new JobUpdate("job1", "IN_PROGRESS", "1.0"),
+                                            new JobUpdate("job2", "IN_PROGRESS", "0.5")));
+        assertTrue(publisher.flush(5000));
+
+        assertEquals(2, messages.size());
+        assertEquals("SUCCEEDED", new Gson().fromJson(messages.get(0), JobUpdate.class).status);
+        assertEquals("job2", new Gson().fromJson(messages.get(1), JobUpdate.class).jobId);
+
+        // Sent again after it failed, the job reports its progress again
+        publisher.publish("update", new JobUpdate("job1", "QUEUED", "queued"), false);
+        publisher.progress(Arrays.asList(new JobUpdate("job1", "IN_PROGRESS", "0.1")));
+        assertTrue(publisher.flush(5000));
+        assertEquals(4, messages.size());
+        List<String> reasons = new ArrayList<String>();
+        for (String message : messages.subList(2, 4)) {
+            reasons.add(new Gson().fromJson(message, JobUpdate.class).reason);
+        }
+        // The publisher may send the progress before or after the queued state
+        assertTrue(reasons.containsAll(Arrays.asList("queued", "0.1")));
+    }
+
+    @Test
+    public void testFinalStatesAreSentAgain() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+                CompletableFuture<Object> response = new CompletableFuture<Object>();
+                if (attempts.incrementAndGet() == 1) {
+                    response.completeExceptionally(new RuntimeException("IPC unavailable"));
+                } else {
+                    messages.add((String) invocation.getArguments()[1]);
+                    response.complete(null);
+                }
+                return response;
+            }).when(iotManagerMock).publishMessageToTopicAsync(Mockito.anyString(), Mockito.anyString());
+        publisher.start();
+        publisher.publish("update", new JobUpdate("job1", "FAILED", "fail"), true);
+        assertTrue(publisher.flush(5000));
+
+        assertEquals(2, attempts.get());
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void testFullQueueDropsOldestMessage() {
+        for (int i = 0; i < UpdatePublisher.QUEUE_CAPACITY; i++) {
+            publisher.publish("metrics", "message" + i, false);
+        }
+        publisher.publish("update", new JobUpdate("job1", "SUCCEEDED", "done"), true);
+        publisher.publish("metrics", "last", false);
+
+        assertEquals(UpdatePublisher.QUEUE_CAPACITY, publisher.queue.size());
+        assertEquals("message2", publisher.queue.peekFirst().payload);
+        assertEquals("last", publisher.queue.peekLast().payload);
+    }
+}
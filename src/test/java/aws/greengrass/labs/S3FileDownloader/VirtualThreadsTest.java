@@ -0,0 +1,28 @@
+package aws.greengrass.labs.S3FileDownloader;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class VirtualThreadsTest {
+    @Test
+    public void testThreadsAreNamedAndRun() throws Exception {
+        // Virtual threads on Java 21, platform threads before
+        ThreadFactory factory = VirtualThreads.factory("downloader-", true);
+        AtomicReference<String> name = new AtomicReference<String>();
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = factory.newThread(() -> {
+            name.set(Thread.currentThread().getName());
+            ran.countDown();
+        });
+        thread.start();
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals("downloader-1", name.get());
+        assertEquals("downloader-2", factory.newThread(() -> {}).getName());
+    }
+}